@@ -0,0 +1,48 @@
+package com.test;
+//基准程序公用：不启动Spring，手工组装服务对象
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.NodeIdentity;
+import com.cloudpan.config.OperationMetrics;
+import com.cloudpan.service.BufferPool;
+import com.cloudpan.service.CompressionService;
+import com.cloudpan.service.CopyService;
+import com.cloudpan.service.DedupService;
+import com.cloudpan.service.FileService;
+import com.cloudpan.service.JobService;
+import com.cloudpan.service.ListingCache;
+import com.cloudpan.service.PackService;
+import com.cloudpan.service.PreviewService;
+import com.cloudpan.service.QuotaService;
+import com.cloudpan.service.TreeWalker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BenchmarkSupport {
+    public static final int BUFFER_SIZE = 128 * 1024;
+
+    //参数与 application.properties 中的默认值一致，buffers 按基准的并发数给足
+    public static FileService newFileService(HdfsClientPool pool, int buffers) {
+        return newFileService(pool, buffers, BUFFER_SIZE);
+    }
+
+    //指定缓冲区大小，用于缓冲区大小的对比（cloudpan.io.buffer-size）
+    public static FileService newFileService(HdfsClientPool pool, int buffers, int bufferSize) {
+        BufferPool bufferPool = new BufferPool(bufferSize, buffers, 30000);
+        TreeWalker treeWalker = new TreeWalker(8);
+        CopyService copyService = new CopyService(bufferPool, treeWalker, 256L << 20, 128L << 20, 4, 8);
+        // 关闭目录列表缓存，基准测量的是每次真正访问文件系统的开销
+        ListingCache listingCache = new ListingCache(0, 0);
+        // 不连数据库，去重、小文件打包、压缩和配额都关闭，也不生成预览
+        DedupService dedupService = DedupService.withoutIndex(pool, bufferPool);
+        PackService packService = PackService.withoutIndex(pool, bufferPool);
+        CompressionService compressionService = CompressionService.withoutIndex(pool);
+        QuotaService quotaService = QuotaService.disabled(pool);
+        // 指标记在内存中，不导出
+        OperationMetrics metrics = new OperationMetrics(new SimpleMeterRegistry(), pool);
+        // 单节点，不续租也不接管其他节点的任务
+        JobService jobService = new JobService(pool, copyService, listingCache, dedupService, packService,
+                compressionService, quotaService, metrics, new NodeIdentity("benchmark"), 0, 0, 4, 100, 500);
+        jobService.start();
+        return new FileService(pool, bufferPool, jobService, listingCache, dedupService, packService,
+                compressionService, PreviewService.disabled(pool), treeWalker, quotaService, metrics);
+    }
+}
@@ -0,0 +1,118 @@
+package com.test;
+//并发基准：对比“每次请求 FileSystem.get + close”与共享客户端池
+import com.cloudpan.config.HadoopConfig;
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.CloudFile;
+import com.cloudpan.service.FileService;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//默认用本地 file:// 目录代替 HDFS，不需要集群；
+//传入参数可以指定真实集群，例如 hdfs://mycluster/bench
+public class HdfsClientPoolBenchmark {
+    private static final int CALLS = 200;
+    private static final byte[] PAYLOAD = new byte[64 * 1024];
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0
+                ? args[0]
+                : Files.createTempDirectory("cloudpan-bench").toUri().toString();
+        Configuration conf = args.length > 0
+                ? HadoopConfig.loadClasspathConfiguration()
+                : new Configuration();
+        System.out.println("基准目录: " + root + "，并发调用数: " + CALLS);
+
+        runLegacy(URI.create(root), conf);
+
+        HdfsClientPool pool = new HdfsClientPool(URI.create(root), conf, 2, 0);
+        pool.start();
+        try {
+            runPooled(BenchmarkSupport.newFileService(pool, CALLS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //旧写法：每次调用都获取缓存实例并在结束时关闭它
+    private static void runLegacy(URI root, Configuration conf) throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        long elapsed = runParallel(i -> {
+            try (FileSystem fs = FileSystem.get(root, conf)) {
+                Path dir = new Path(root.toString(), "legacy");
+                fs.mkdirs(dir);
+                fs.listStatus(dir);
+                try (FSDataOutputStream out = fs.create(new Path(dir, "file-" + i))) {
+                    out.write(PAYLOAD);
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+            }
+        });
+        report("FileSystem.get + close", elapsed, failures.get());
+    }
+
+    //新写法：通过 FileService 使用共享客户端池
+    private static void runPooled(FileService fileService) throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        long elapsed = runParallel(i -> {
+            try {
+                fileService.listFiles("bench", "pooled");
+                CloudFile.CloudFileBuilder builder = new CloudFile.CloudFileBuilder("bench")
+                        .withFileName("file-" + i)
+                        .withFileSize(String.valueOf(PAYLOAD.length))
+                        .withUploadPath("pooled");
+                fileService.upload(builder, new ByteArrayInputStream(PAYLOAD));
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+            }
+        });
+        report("共享客户端池", elapsed, failures.get());
+    }
+
+    private interface Call {
+        void run(int index);
+    }
+
+    private static long runParallel(Call call) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            final int index = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                call.run(index);
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    private static void report(String name, long elapsedNanos, int failures) {
+        double millis = elapsedNanos / 1_000_000.0;
+        System.out.printf("%-24s 总耗时 %.1f ms，吞吐 %.1f 次/秒，失败 %d 次%n",
+                name, millis, CALLS / (millis / 1000.0), failures);
+    }
+}
@@ -0,0 +1,178 @@
+package com.test;
+//上传基准：对比“multipart先落临时文件再复制”与“流式解析直接写入”
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.CloudFile;
+import com.cloudpan.service.FileService;
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUpload;
+import org.apache.commons.fileupload.UploadContext;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//使用本地 file:// 目录代替 HDFS；分配量按调用线程统计（ThreadMXBean.getThreadAllocatedBytes）
+public class StreamingUploadBenchmark {
+    private static final long[] SIZES = {1L << 20, 100L << 20, 1L << 30};
+    private static final String BOUNDARY = "----cloudpanBenchmarkBoundary";
+
+    public static void main(String[] args) throws Exception {
+        String root = Files.createTempDirectory("cloudpan-upload-bench").toUri().toString();
+        Configuration conf = new Configuration();
+        HdfsClientPool pool = new HdfsClientPool(URI.create(root), conf, 1, 0);
+        pool.start();
+        FileService fileService = BenchmarkSupport.newFileService(pool, 4);
+        FileSystem fs = pool.get();
+        System.out.println("基准目录: " + root);
+
+        try {
+            for (long size : SIZES) {
+                // 先各跑一次预热，再计时
+                runBuffered(fs, root, size, "warmup");
+                runStreaming(fileService, size, "warmup");
+                fs.delete(new Path(root), true);
+
+                long[] buffered = runBuffered(fs, root, size, "buffered");
+                long[] streaming = runStreaming(fileService, size, "streaming");
+                report("临时文件 + 8KB复制", size, buffered);
+                report("流式解析 + 缓冲池", size, streaming);
+                fs.delete(new Path(root), true);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //旧路径：multipart解析器把文件写入临时文件，再读出来以8KB缓冲写入目标
+    private static long[] runBuffered(FileSystem fs, String root, long size, String dir) throws Exception {
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+
+        FileUpload upload = new FileUpload(new DiskFileItemFactory());
+        List<FileItem> items = upload.parseRequest(multipartRequest(size));
+        FileItem item = items.get(0);
+        Path target = new Path(root + dir + "/" + item.getName());
+        try (InputStream in = item.getInputStream();
+             FSDataOutputStream out = fs.create(target, true)) {
+            byte[] buffer = new byte[1024 * 8];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                out.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            item.delete();
+        }
+
+        return new long[]{System.nanoTime() - begin, allocatedBytes() - allocatedBefore};
+    }
+
+    //新路径：流式解析，文件部分直接交给 FileService.upload
+    private static long[] runStreaming(FileService fileService, long size, String dir) throws Exception {
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+
+        FileItemIterator items = new FileUpload().getItemIterator(multipartRequest(size));
+        FileItemStream item = items.next();
+        try (InputStream in = item.openStream()) {
+            CloudFile.CloudFileBuilder builder = new CloudFile.CloudFileBuilder("bench")
+                    .withFileName(item.getName())
+                    .withUploadPath(dir);
+            fileService.upload(builder, in);
+        }
+
+        return new long[]{System.nanoTime() - begin, allocatedBytes() - allocatedBefore};
+    }
+
+    private static void report(String name, long size, long[] result) {
+        double seconds = result[0] / 1_000_000_000.0;
+        double megabytes = size / (1024.0 * 1024.0);
+        System.out.printf("%-20s %6.0f MB  %8.1f MB/s  分配 %10.1f KB  (%.3f 字节/字节)%n",
+                name, megabytes, megabytes / seconds, result[1] / 1024.0, (double) result[1] / size);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    //在内存中拼出一个只含文件字段的multipart请求体，文件内容按需生成，不占用堆
+    private static UploadContext multipartRequest(long size) {
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"bench-" + size + ".bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        long length = head.length + size + tail.length;
+        InputStream body = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(head), new PatternInputStream(size), new ByteArrayInputStream(tail))));
+
+        return new UploadContext() {
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public String getCharacterEncoding() {
+                return "UTF-8";
+            }
+
+            @Override
+            public String getContentType() {
+                return "multipart/form-data; boundary=" + BOUNDARY;
+            }
+
+            @Override
+            @Deprecated
+            public int getContentLength() {
+                return (int) Math.min(Integer.MAX_VALUE, length);
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return body;
+            }
+        };
+    }
+
+    //生成 a-z 循环内容的输入流，不含 \r 所以不会与分隔符冲突
+    private static class PatternInputStream extends InputStream {
+        private final long size;
+        private long position;
+
+        PatternInputStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            return 'a' + (int) (position++ % 26);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, size - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) ('a' + (position++ % 26));
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.test;
+//登录基准：对比“HDFS 每用户一个JSON文件”与“内嵌数据库 + 用户名唯一索引”
+import com.cloudpan.CloudpanApplication;
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.User;
+import com.cloudpan.service.UserService;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+//旧存储使用本地 file:// 目录代替 HDFS；新存储使用内存模式的 H2（与文件模式的查询路径相同）
+//每次登录随机挑一个已注册用户，多线程并发，统计吞吐和延迟分位数
+public class UserStoreBenchmark {
+    private static final int USERS = 2000;
+    private static final int LOGINS = 20000;
+    private static final int THREADS = 16;
+
+    public static void main(String[] args) throws Exception {
+        String root = Files.createTempDirectory("cloudpan-user-bench").toUri().toString();
+        HdfsClientPool pool = new HdfsClientPool(URI.create(root), new Configuration(), 1, 0);
+        pool.start();
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CloudpanApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--fs.defaultFS=file:///",
+                        "--cloudpan.hdfs.health-check-interval-seconds=0",
+                        "--cloudpan.users.store=db",
+                        // 这里只比较存储本身，口令哈希的开销由 PasswordHashBenchmark 单独测量
+                        "--cloudpan.auth.pbkdf2-iterations=1",
+                        "--cloudpan.auth.hash-threads=" + THREADS,
+                        "--spring.datasource.url=jdbc:h2:mem:userbench;DB_CLOSE_DELAY=-1",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+        try {
+            FileSystem fs = pool.get();
+            UserService userService = context.getBean(UserService.class);
+            for (int i = 0; i < USERS; i++) {
+                String username = "bench-" + i;
+                legacyRegister(fs, root, new User(username, "pw-" + i, "id-" + i));
+                if (!userService.register(username, "pw-" + i).startsWith("注册成功")) {
+                    throw new IllegalStateException("注册失败: " + username);
+                }
+            }
+            System.out.println("已注册用户: " + USERS + "，登录次数: " + LOGINS + "，并发线程: " + THREADS);
+
+            // 先各跑一轮预热，再计时
+            run(i -> legacyLogin(fs, root, "bench-" + i, "pw-" + i));
+            run(i -> userService.login("bench-" + i, "pw-" + i));
+            report("HDFS JSON 文件", run(i -> legacyLogin(fs, root, "bench-" + i, "pw-" + i)));
+            report("H2 + 唯一索引", run(i -> userService.login("bench-" + i, "pw-" + i)));
+        } finally {
+            context.close();
+            pool.shutdown();
+        }
+    }
+
+    private interface Login {
+        String login(int user) throws IOException;
+    }
+
+    // 返回 [总耗时, 每次登录的耗时...]（纳秒）
+    private static long[] run(Login login) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long[] latencies = new long[LOGINS];
+        List<Future<?>> futures = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < LOGINS; i += THREADS) {
+                    int user = ThreadLocalRandom.current().nextInt(USERS);
+                    long start = System.nanoTime();
+                    String result = login.login(user);
+                    latencies[i] = System.nanoTime() - start;
+                    if (!result.startsWith("登录成功")) {
+                        throw new IllegalStateException(result);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        long[] result = new long[LOGINS + 1];
+        result[0] = elapsed;
+        System.arraycopy(latencies, 0, result, 1, LOGINS);
+        return result;
+    }
+
+    private static void report(String name, long[] result) {
+        long[] latencies = Arrays.copyOfRange(result, 1, result.length);
+        Arrays.sort(latencies);
+        double seconds = result[0] / 1_000_000_000.0;
+        System.out.printf("%-16s 吞吐 %8.0f 次/秒  p50 %7.3f ms  p99 %7.3f ms  max %7.3f ms%n",
+                name, LOGINS / seconds,
+                latencies[LOGINS / 2] / 1_000_000.0,
+                latencies[(int) (LOGINS * 0.99)] / 1_000_000.0,
+                latencies[LOGINS - 1] / 1_000_000.0);
+    }
+
+    private static void legacyRegister(FileSystem fs, String root, User user) throws IOException {
+        try (OutputStreamWriter writer = new OutputStreamWriter(
+                fs.create(new Path(root + "user_data/" + user.getUsername() + ".json")), StandardCharsets.UTF_8)) {
+            writer.write(user.toJson());
+        }
+    }
+
+    //旧写法：exists + open + 1KB循环读取 + Gson 解析
+    private static String legacyLogin(FileSystem fs, String root, String username, String password)
+            throws IOException {
+        Path userFile = new Path(root + "user_data/" + username + ".json");
+        if (!fs.exists(userFile)) {
+            return "用户名不存在";
+        }
+        try (ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+             FSDataInputStream inputStream = fs.open(userFile)) {
+            int nRead;
+            byte[] data = new byte[1024];
+            while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
+                buffer.write(data, 0, nRead);
+            }
+            User storedUser = User.fromJson(new String(buffer.toByteArray()));
+            return storedUser.getPassword().equals(password) ? "登录成功," + storedUser.getUserId() : "密码错误";
+        }
+    }
+}
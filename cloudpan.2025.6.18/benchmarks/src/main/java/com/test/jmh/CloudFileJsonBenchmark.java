@@ -0,0 +1,65 @@
+package com.test.jmh;
+//文件列表的 JSON 序列化：/file/list 先拼出整个字符串，/file/list/page 逐项写入输出流
+import com.cloudpan.entity.CloudFile;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//纯CPU，不需要集群；字段取值与 FileService 列目录时填充的一致
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CloudFileJsonBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    private final Gson gson = new Gson();
+    private List<CloudFile> files;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        files = new ArrayList<>(entries);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < entries; i++) {
+            CloudFile file = new CloudFile();
+            file.fileName = String.format("file-%06d.txt", i);
+            file.fileSize = 1024L * i;
+            file.filePath = "/documents/" + file.fileName;
+            file.userId = "6f1c2a9e-0d44-4c4b-9a57-3b0e1f2d7c88";
+            file.uploadPath = "/documents";
+            file.modificationTime = now - i;
+            file.type = CloudFile.TYPE_FILE;
+            file.replication = 3;
+            files.add(file);
+        }
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return gson.toJson(files);
+    }
+
+    @Benchmark
+    public void streamToOutput() throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(NullOutputStream.NULL_OUTPUT_STREAM, StandardCharsets.UTF_8)));
+        writer.beginObject().name("files").beginArray();
+        for (CloudFile file : files) {
+            gson.toJson(file, CloudFile.class, writer);
+        }
+        writer.endArray().name("nextCursor").nullValue().endObject();
+        writer.flush();
+    }
+}
@@ -0,0 +1,83 @@
+package com.test.jmh;
+//上传、下载、复制吞吐，同时扫描缓冲区大小（8192 即原来写死的 1024 * 8）
+import com.cloudpan.entity.FileJob;
+import com.cloudpan.service.FileService;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//结果是每秒完成的操作数，乘以 fileSize 即字节吞吐；-t 指定并发线程数可以看共享客户端池在并发下的表现
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileIoBenchmark {
+    @Param({"8192", "131072", "1048576"})
+    public int bufferSize;
+
+    @Param({"1048576", "67108864"})
+    public int fileSize;
+
+    private MiniDfs dfs;
+    private FileService fileService;
+    private byte[] payload;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dfs = MiniDfs.start();
+        // 缓冲区按最多 64 个并发线程给足，借不到缓冲区的等待不计入测量
+        fileService = dfs.fileService(64, bufferSize);
+        payload = new byte[fileSize];
+        // 随机内容，避免某一层对全零数据有捷径
+        new Random(42).nextBytes(payload);
+        dfs.pool().get().mkdirs(new Path(dfs.home()));
+        MiniDfs.upload(fileService, "/", "source", payload);
+    }
+
+    // 每轮清掉上一轮写入的文件，磁盘占用不随测量时长增长
+    @TearDown(Level.Iteration)
+    public void cleanUp() throws IOException {
+        dfs.pool().get().delete(new Path(dfs.home(), "uploads"), true);
+        dfs.pool().get().delete(new Path(dfs.home(), "copies"), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dfs.stop();
+    }
+
+    @Benchmark
+    public void upload() throws IOException {
+        MiniDfs.upload(fileService, "/uploads", "file-" + counter.incrementAndGet(), payload);
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        FileStatus status = fileService.getDownloadStatus(MiniDfs.USER, "/source");
+        fileService.writeRange(status, 0, status.getLen(), NullOutputStream.NULL_OUTPUT_STREAM);
+        return status.getLen();
+    }
+
+    // 每次复制到新的目录；超过同步等待时间的复制转为后台任务，这里等到它完成
+    @Benchmark
+    public void copy() throws InterruptedException {
+        FileService.CopyRequest request = new FileService.CopyRequest();
+        request.setSourceUserId(MiniDfs.USER);
+        request.setSourceUploadPath("/source");
+        request.setTargetUploadPath("/copies/" + counter.incrementAndGet());
+        FileJob job = fileService.copyFile(request);
+        job.awaitFinish(TimeUnit.MINUTES.toMillis(5));
+        if (!FileJob.SUCCEEDED.equals(job.getState())) {
+            throw new IllegalStateException("复制失败: " + job.getMessage());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.test.jmh;
+//列目录延迟：10 / 1千 / 10万项的目录，对比一次列出整个目录（listFiles）与只取第一页（listPage）
+import com.cloudpan.entity.CloudFile;
+import com.cloudpan.service.FileService;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//目录列表缓存已关闭，每次都真正访问 NameNode；10万项的目录建起来要一两分钟，只在每个 fork 开始时建一次
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListFilesBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    private MiniDfs dfs;
+    private FileService fileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dfs = MiniDfs.start();
+        fileService = dfs.fileService(8, 128 * 1024);
+        FileSystem fs = dfs.pool().get();
+        Path dir = new Path(dfs.home(), "dir");
+        fs.mkdirs(dir);
+        // 空文件只有 create 和 complete 两次 RPC，不经过 DataNode
+        for (int i = 0; i < entries; i++) {
+            fs.create(new Path(dir, String.format("file-%06d", i)), false).close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dfs.stop();
+    }
+
+    @Benchmark
+    public List<CloudFile> listFiles() {
+        return fileService.listFiles(MiniDfs.USER, "/dir");
+    }
+
+    @Benchmark
+    public String listFirstPage(Blackhole blackhole) throws IOException {
+        FileService.ListQuery query = new FileService.ListQuery();
+        query.setUserId(MiniDfs.USER);
+        query.setPath("/dir");
+        query.setLimit(PAGE_SIZE);
+        return fileService.listPage(query, blackhole::consume);
+    }
+}
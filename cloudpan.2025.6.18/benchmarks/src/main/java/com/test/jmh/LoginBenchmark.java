@@ -0,0 +1,59 @@
+package com.test.jmh;
+//登录延迟：UserService.login 全程，用户存储为 HDFS 上每用户一个JSON文件
+import com.cloudpan.config.OperationMetrics;
+import com.cloudpan.repository.HdfsUserRepository;
+import com.cloudpan.service.PasswordHasher;
+import com.cloudpan.service.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//iterations=1 时几乎只剩存储的开销，210000 为默认配置；口令哈希本身的耗时见 PasswordHashBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+    private static final int USERS = 100;
+
+    @Param({"1", "210000"})
+    public int iterations;
+
+    private MiniDfs dfs;
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dfs = MiniDfs.start();
+        // 与默认配置相同的哈希线程数和队列长度
+        userService = new UserService(new HdfsUserRepository(dfs.pool()), new PasswordHasher(iterations),
+                new OperationMetrics(new SimpleMeterRegistry(), dfs.pool()), 2, 64);
+        for (int i = 0; i < USERS; i++) {
+            String result = userService.register("bench-" + i, "pw-" + i);
+            if (!result.startsWith("注册成功")) {
+                throw new IllegalStateException(result);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        userService.shutdown();
+        dfs.stop();
+    }
+
+    @Benchmark
+    public String login() {
+        int i = ThreadLocalRandom.current().nextInt(USERS);
+        String result = userService.login("bench-" + i, "pw-" + i);
+        if (!result.startsWith("登录成功")) {
+            throw new IllegalStateException(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+package com.test.jmh;
+//基准公用：内嵌的单 DataNode 集群和指向它的客户端池，每个 fork 启动一次
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.CloudFile;
+import com.cloudpan.service.FileService;
+import com.test.BenchmarkSupport;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+
+//数据目录放在临时目录，结束时删除；副本数为 1，测量的是服务本身的开销而不是管线复制
+class MiniDfs {
+    static final String USER = "jmh";
+
+    private final File baseDir;
+    private final MiniDFSCluster cluster;
+    private final HdfsClientPool pool;
+
+    private MiniDfs(File baseDir, MiniDFSCluster cluster, HdfsClientPool pool) {
+        this.baseDir = baseDir;
+        this.cluster = cluster;
+        this.pool = pool;
+    }
+
+    static MiniDfs start() throws IOException {
+        File baseDir = Files.createTempDirectory("cloudpan-jmh").toFile();
+        HdfsConfiguration conf = new HdfsConfiguration();
+        conf.setInt("dfs.replication", 1);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf, baseDir).numDataNodes(1).build();
+        cluster.waitActive();
+        // 健康检查关闭，测量期间没有额外的 RPC
+        HdfsClientPool pool = new HdfsClientPool(URI.create(cluster.getURI() + "/bench"),
+                cluster.getConfiguration(0), 2, 0);
+        pool.start();
+        return new MiniDfs(baseDir, cluster, pool);
+    }
+
+    HdfsClientPool pool() {
+        return pool;
+    }
+
+    FileService fileService(int buffers, int bufferSize) {
+        return BenchmarkSupport.newFileService(pool, buffers, bufferSize);
+    }
+
+    // 与 FileService 拼出的主目录一致
+    String home() {
+        return pool.getRoot() + "users/" + USER;
+    }
+
+    static void upload(FileService fileService, String uploadPath, String fileName, byte[] data)
+            throws IOException {
+        fileService.upload(new CloudFile.CloudFileBuilder(USER)
+                .withFileName(fileName)
+                .withFileSize(String.valueOf(data.length))
+                .withUploadPath(uploadPath), new ByteArrayInputStream(data));
+    }
+
+    void stop() {
+        try {
+            pool.shutdown();
+            cluster.shutdown();
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+}
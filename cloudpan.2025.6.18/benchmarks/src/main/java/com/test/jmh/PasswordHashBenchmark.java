@@ -0,0 +1,34 @@
+package com.test.jmh;
+//口令校验基准：测量不同 PBKDF2 迭代次数下单次 verify 的耗时，用于选定 cloudpan.auth.pbkdf2-iterations
+import com.cloudpan.service.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//结果应与 cloudpan.auth.hash-threads 一起看：单核每秒可校验的次数 × 线程数 = 登录吞吐上限
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"100000", "210000", "310000", "600000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private String stored;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hasher = new PasswordHasher(iterations);
+        stored = hasher.hash(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.verify(PASSWORD, stored);
+    }
+}
@@ -0,0 +1,541 @@
+package com.test.load;
+//压测：按网盘的常见操作比例回放流量，逐级增加并发用户，报告每一级各操作的吞吐与延迟分位数
+import com.cloudpan.CloudpanApplication;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//每个虚拟用户一个线程（封闭模型）：注册、登录，一次会话做若干个操作后重新登录，操作之间按指数分布停顿
+//  - 操作比例：列目录 40、下载 25、上传 15、重命名 7、移动 7、删除 6；上传大小 70% 为 4-64KB，25% 为 256KB-4MB，5% 为 16-64MB
+//  - 并发按 --users 逐级增加，每级先丢弃开头六分之一的结果（新用户注册登录的冲击），再统计剩余时间
+//  - 不指定 --url 时在进程内启动 MiniDFSCluster 和应用；压测端与服务端共用CPU，容量结论请用独立进程的服务端
+//参数（--名称=值）：
+//  --url=http://host:8080          目标服务，不指定则进程内启动
+//  --users=10,25,50,100,200        各级并发用户数
+//  --step-seconds=60               每级时长
+//  --think-ms=200                  操作之间的平均停顿
+//  --session-actions=20            每次登录后的操作数
+//  --size-scale=1.0                上传大小的缩放系数，小机器上可以调小
+//  --report=loadtest-report.csv    CSV 报告，每级每个操作一行
+//  --max-p99-ms=0                  最后一级任一操作的 p99 超过该值时以状态 1 退出（0 为不检查）
+//  --max-error-rate=0.01           最后一级的总错误率超过该值时以状态 1 退出
+public class LoadTest {
+    private static final String[] OPERATIONS = {"register", "login", "list", "upload", "download", "rename", "move", "delete"};
+    private static final String ARCHIVE = "/archive";
+    // 上传内容从这块随机数据中循环取，不为每次上传生成新数据
+    private static final byte[] PAYLOAD = new byte[1024 * 1024];
+
+    private final String baseUrl;
+    private final long thinkMillis;
+    private final int sessionActions;
+    private final double sizeScale;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, Recorder> latencies = new LinkedHashMap<>();
+    private final Map<String, LongAdder> errors = new HashMap<>();
+    private final Gson gson = new Gson();
+    private volatile boolean stopped;
+
+    private LoadTest(String baseUrl, long thinkMillis, int sessionActions, double sizeScale) {
+        this.baseUrl = baseUrl;
+        this.thinkMillis = thinkMillis;
+        this.sessionActions = sessionActions;
+        this.sizeScale = sizeScale;
+        for (String operation : OPERATIONS) {
+            // 微秒，自动扩展范围，3 位有效数字
+            latencies.put(operation, new Recorder(3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("参数格式为 --名称=值: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int[] levels = Arrays.stream(options.getOrDefault("users", "10,25,50,100,200").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        long stepMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("step-seconds", "60")));
+        double maxP99Millis = Double.parseDouble(options.getOrDefault("max-p99-ms", "0"));
+        double maxErrorRate = Double.parseDouble(options.getOrDefault("max-error-rate", "0.01"));
+        String report = options.getOrDefault("report", "loadtest-report.csv");
+        new Random(42).nextBytes(PAYLOAD);
+        // HttpURLConnection 默认每个目标只保持 5 个空闲连接，并发用户多时会不断重新建连
+        System.setProperty("http.maxConnections", String.valueOf(levels[levels.length - 1] * 2));
+
+        Embedded embedded = options.containsKey("url") ? null : Embedded.start();
+        boolean passed;
+        try {
+            String url = embedded == null ? options.get("url") : embedded.url;
+            System.out.println("目标: " + url + "，各级并发用户: " + Arrays.toString(levels)
+                    + "，每级 " + TimeUnit.MILLISECONDS.toSeconds(stepMillis) + " 秒");
+            LoadTest test = new LoadTest(url.replaceAll("/+$", ""),
+                    Long.parseLong(options.getOrDefault("think-ms", "200")),
+                    Integer.parseInt(options.getOrDefault("session-actions", "20")),
+                    Double.parseDouble(options.getOrDefault("size-scale", "1.0")));
+            passed = test.run(levels, stepMillis, report, maxP99Millis, maxErrorRate);
+        } finally {
+            if (embedded != null) {
+                embedded.stop();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(int[] levels, long stepMillis, String report, double maxP99Millis, double maxErrorRate)
+            throws InterruptedException, IOException {
+        List<Thread> users = new ArrayList<>();
+        List<String[]> last = null;
+        try (PrintWriter csv = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(report), StandardCharsets.UTF_8))) {
+            csv.println("users,operation,count,errors,per_second,p50_ms,p90_ms,p99_ms,max_ms");
+            for (int level : levels) {
+                while (users.size() < level) {
+                    VirtualUser user = new VirtualUser(users.size());
+                    Thread t = new Thread(user, "load-user-" + users.size());
+                    t.setDaemon(true);
+                    t.start();
+                    users.add(t);
+                }
+                long warmup = stepMillis / 6;
+                Thread.sleep(warmup);
+                snapshot();
+                errors.values().forEach(LongAdder::reset);
+                Thread.sleep(stepMillis - warmup);
+                last = summarize(level, snapshot(), (stepMillis - warmup) / 1000.0);
+                for (String[] row : last) {
+                    csv.println(String.join(",", row));
+                }
+                csv.flush();
+            }
+        } finally {
+            stopped = true;
+            for (Thread user : users) {
+                user.join(TimeUnit.SECONDS.toMillis(30));
+            }
+        }
+        System.out.println("报告已写入 " + report);
+        return check(last, maxP99Millis, maxErrorRate);
+    }
+
+    // 取出上次以来的记录并清零
+    private Map<String, Histogram> snapshot() {
+        Map<String, Histogram> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Recorder> entry : latencies.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getIntervalHistogram());
+        }
+        return result;
+    }
+
+    private List<String[]> summarize(int level, Map<String, Histogram> histograms, double seconds) {
+        System.out.printf("%n并发用户 %d，统计 %.0f 秒%n", level, seconds);
+        System.out.printf("%-10s %8s %6s %9s %9s %9s %9s %9s%n",
+                "操作", "次数", "错误", "次/秒", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)");
+        List<String[]> rows = new ArrayList<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram h = entry.getValue();
+            long failed = errors.get(entry.getKey()).sumThenReset();
+            String[] row = {
+                    String.valueOf(level), entry.getKey(), String.valueOf(h.getTotalCount()), String.valueOf(failed),
+                    format(h.getTotalCount() / seconds),
+                    format(h.getValueAtPercentile(50) / 1000.0), format(h.getValueAtPercentile(90) / 1000.0),
+                    format(h.getValueAtPercentile(99) / 1000.0), format(h.getMaxValue() / 1000.0)};
+            System.out.printf("%-10s %8s %6s %9s %9s %9s %9s %9s%n",
+                    row[1], row[2], row[3], row[4], row[5], row[6], row[7], row[8]);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // 门槛只看最后一级（负载最高）
+    private static boolean check(List<String[]> rows, double maxP99Millis, double maxErrorRate) {
+        if (rows == null) {
+            return true;
+        }
+        long total = 0;
+        long failed = 0;
+        boolean passed = true;
+        for (String[] row : rows) {
+            total += Long.parseLong(row[2]);
+            failed += Long.parseLong(row[3]);
+            if (maxP99Millis > 0 && Long.parseLong(row[2]) > 0 && Double.parseDouble(row[7]) > maxP99Millis) {
+                System.out.println(row[1] + " 的 p99 " + row[7] + "ms 超过门槛 " + maxP99Millis + "ms");
+                passed = false;
+            }
+        }
+        double errorRate = total == 0 ? 0 : (double) failed / total;
+        if (errorRate > maxErrorRate) {
+            System.out.printf("错误率 %.4f 超过门槛 %.4f%n", errorRate, maxErrorRate);
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private void record(String operation, long startNanos, boolean ok) {
+        latencies.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        if (!ok) {
+            errors.get(operation).increment();
+        }
+    }
+
+    private class VirtualUser implements Runnable {
+        private final String username;
+        private final String password = "load-pw";
+        private final List<String> files = new ArrayList<>();
+        private final Random random = new Random();
+        private String userId;
+        private String token;
+        private int nextFile;
+
+        VirtualUser(int index) {
+            this.username = "load-" + runId + "-" + index;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped && !register()) {
+                    think();
+                }
+                while (!stopped) {
+                    if (!login()) {
+                        think();
+                        continue;
+                    }
+                    for (int i = 0; i < sessionActions && !stopped; i++) {
+                        act();
+                        think();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean register() {
+            long start = System.nanoTime();
+            Response response = json("POST", "/user/register", credentials());
+            boolean ok = response.status == 201;
+            record("register", start, ok);
+            return ok;
+        }
+
+        private boolean login() {
+            long start = System.nanoTime();
+            Response response = json("POST", "/user/login", credentials());
+            boolean ok = response.status == 200;
+            record("login", start, ok);
+            if (ok) {
+                JsonObject body = gson.fromJson(response.body, JsonObject.class);
+                userId = body.get("userId").getAsString();
+                token = body.get("token").getAsString();
+            }
+            return ok;
+        }
+
+        private void act() {
+            int roll = random.nextInt(100);
+            // 还没有文件时先上传
+            if (files.isEmpty() || (roll >= 40 && roll < 55)) {
+                upload();
+            } else if (roll < 40) {
+                list();
+            } else if (roll < 80) {
+                download();
+            } else if (roll < 87) {
+                rename();
+            } else if (roll < 94) {
+                move();
+            } else {
+                delete();
+            }
+        }
+
+        private void list() {
+            long start = System.nanoTime();
+            Response response = call("GET", "/file/list/" + encode(userId) + "?path=" + encode("/"), null, null);
+            record("list", start, response.ok());
+        }
+
+        private void upload() {
+            String name = "f-" + (nextFile++);
+            long size = uploadSize();
+            long start = System.nanoTime();
+            Response response = multipart("/file/upload?uploadPath=" + encode("/"), name, size);
+            boolean ok = response.ok();
+            record("upload", start, ok);
+            if (ok) {
+                files.add("/" + name);
+            }
+        }
+
+        private void download() {
+            String path = pick();
+            long start = System.nanoTime();
+            Response response = call("GET", "/file/download?userId=" + encode(userId)
+                    + "&uploadPath=" + encode(path), null, null);
+            record("download", start, response.ok());
+        }
+
+        private void rename() {
+            String path = pick();
+            String newName = path.substring(path.lastIndexOf('/') + 1) + "r";
+            Map<String, String> body = new HashMap<>();
+            body.put("uploadPath", path);
+            body.put("newFileName", newName);
+            long start = System.nanoTime();
+            Response response = json("POST", "/file/rename", body);
+            record("rename", start, response.ok());
+            if (response.ok()) {
+                files.set(files.indexOf(path), path.substring(0, path.lastIndexOf('/') + 1) + newName);
+            }
+        }
+
+        // 只移动根目录下的文件；都已归档时改为列目录
+        private void move() {
+            String path = null;
+            for (String file : files) {
+                if (!file.startsWith(ARCHIVE + "/")) {
+                    path = file;
+                    break;
+                }
+            }
+            if (path == null) {
+                list();
+                return;
+            }
+            Map<String, String> body = new HashMap<>();
+            body.put("sourceUploadPath", path);
+            body.put("targetUploadPath", ARCHIVE);
+            long start = System.nanoTime();
+            Response response = json("POST", "/file/move", body);
+            record("move", start, response.ok());
+            if (response.ok()) {
+                files.set(files.indexOf(path), ARCHIVE + path);
+            }
+        }
+
+        private void delete() {
+            String path = pick();
+            long start = System.nanoTime();
+            Response response = json("POST", "/file/delete", Collections.singletonMap("uploadPath", path));
+            record("delete", start, response.ok());
+            if (response.ok()) {
+                files.remove(path);
+            }
+        }
+
+        private String pick() {
+            return files.get(random.nextInt(files.size()));
+        }
+
+        private long uploadSize() {
+            int roll = random.nextInt(100);
+            long min;
+            long max;
+            if (roll < 70) {
+                min = 4 << 10;
+                max = 64 << 10;
+            } else if (roll < 95) {
+                min = 256 << 10;
+                max = 4 << 20;
+            } else {
+                min = 16 << 20;
+                max = 64 << 20;
+            }
+            return Math.max(1, (long) ((min + (long) (random.nextDouble() * (max - min))) * sizeScale));
+        }
+
+        private Map<String, String> credentials() {
+            Map<String, String> body = new HashMap<>();
+            body.put("username", username);
+            body.put("password", password);
+            return body;
+        }
+
+        private void think() throws InterruptedException {
+            if (thinkMillis > 0) {
+                Thread.sleep((long) (-thinkMillis * Math.log(1 - random.nextDouble())));
+            }
+        }
+
+        private Response json(String method, String path, Object body) {
+            return call(method, path, "application/json", gson.toJson(body).getBytes(StandardCharsets.UTF_8));
+        }
+
+        private Response call(String method, String path, String contentType, byte[] body) {
+            try {
+                HttpURLConnection connection = open(method, path);
+                if (body != null) {
+                    connection.setRequestProperty("Content-Type", contentType);
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(body.length);
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+                }
+                return Response.read(connection);
+            } catch (IOException e) {
+                return Response.failed(e);
+            }
+        }
+
+        // 流式写出 multipart 请求体，大文件不占内存
+        private Response multipart(String path, String fileName, long size) {
+            String boundary = "----cloudpan" + Long.toHexString(random.nextLong());
+            byte[] head = ("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+            try {
+                HttpURLConnection connection = open("POST", path);
+                connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(head.length + size + tail.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(head);
+                    int offset = random.nextInt(PAYLOAD.length);
+                    for (long remaining = size; remaining > 0; ) {
+                        int n = (int) Math.min(remaining, PAYLOAD.length - offset);
+                        out.write(PAYLOAD, offset, n);
+                        remaining -= n;
+                        offset = 0;
+                    }
+                    out.write(tail);
+                }
+                return Response.read(connection);
+            } catch (IOException e) {
+                return Response.failed(e);
+            }
+        }
+
+        private HttpURLConnection open(String method, String path) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(10_000);
+            connection.setReadTimeout(120_000);
+            if (token != null) {
+                connection.setRequestProperty("Authorization", "Bearer " + token);
+            }
+            return connection;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Response {
+        // 下载的内容只读不留，超过这个长度的响应体不保存
+        private static final int KEEP_BYTES = 64 * 1024;
+
+        final int status;
+        final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean ok() {
+            return status >= 200 && status < 300;
+        }
+
+        // 读完整个响应体（错误响应也要读完），连接才能放回 keep-alive 池复用
+        static Response read(HttpURLConnection connection) throws IOException {
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in == null) {
+                return new Response(status, "");
+            }
+            ByteArrayOutputStream kept = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    if (kept.size() < KEEP_BYTES) {
+                        kept.write(buffer, 0, Math.min(n, KEEP_BYTES - kept.size()));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            return new Response(status, new String(kept.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        static Response failed(IOException e) {
+            return new Response(-1, e.toString());
+        }
+    }
+
+    // 进程内的服务端：单 DataNode 的 MiniDFSCluster 代替 HDFS，内存 H2 代替数据库，随机端口
+    private static class Embedded {
+        final String url;
+        private final File baseDir;
+        private final MiniDFSCluster cluster;
+        private final ConfigurableApplicationContext context;
+
+        private Embedded(String url, File baseDir, MiniDFSCluster cluster, ConfigurableApplicationContext context) {
+            this.url = url;
+            this.baseDir = baseDir;
+            this.cluster = cluster;
+            this.context = context;
+        }
+
+        static Embedded start() throws IOException {
+            File baseDir = Files.createTempDirectory("cloudpan-load").toFile();
+            HdfsConfiguration conf = new HdfsConfiguration();
+            conf.setInt("dfs.replication", 1);
+            MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf, baseDir).numDataNodes(1).build();
+            cluster.waitActive();
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(CloudpanApplication.class)
+                    .run("--server.port=0",
+                            "--management.server.port=-1",
+                            "--fs.defaultFS=" + cluster.getURI(),
+                            "--dfs.replication=1",
+                            "--cloudpan.hdfs.health-check-interval-seconds=0",
+                            "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                            "--spring.main.banner-mode=off",
+                            "--logging.level.root=WARN");
+            String port = context.getEnvironment().getProperty("local.server.port");
+            return new Embedded("http://localhost:" + port, baseDir, cluster, context);
+        }
+
+        void stop() {
+            try {
+                context.close();
+                cluster.shutdown();
+            } finally {
+                FileUtils.deleteQuietly(baseDir);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.cloudpan.config;
+
+import com.cloudpan.service.TokenService;
+import com.google.gson.Gson;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+//鉴权拦截器：文件接口必须携带有效令牌（Authorization: Bearer <token>；下载链接无法加请求头，可用 ?token=）
+//查询参数或路径变量中的 userId 必须与令牌一致；请求体里的 userId 由控制器用令牌中的值覆盖
+@Component
+public class AuthInterceptor implements HandlerInterceptor {
+    public static final String USER_ID_ATTRIBUTE = "cloudpan.userId";
+    private static final String BEARER = "Bearer ";
+
+    private final TokenService tokenService;
+    private final Gson gson = new Gson();
+
+    public AuthInterceptor(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    // 当前请求已通过验证的用户
+    public static String currentUser(HttpServletRequest request) {
+        return (String) request.getAttribute(USER_ID_ATTRIBUTE);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        // 异步请求完成后的再次分派：首次分派已经验证过；令牌可能在长时间下载期间过期，此时响应早已发出，不能再写拒绝信息
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        String token = header != null && header.startsWith(BEARER)
+                ? header.substring(BEARER.length())
+                : request.getParameter("token");
+        String userId = tokenService.verify(token);
+        if (userId == null) {
+            reject(response, HttpServletResponse.SC_UNAUTHORIZED, "未登录或登录已过期");
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String claimed = request.getParameter("userId");
+        if ((claimed != null && !claimed.equals(userId))
+                || (pathVariables != null && pathVariables.containsKey("userId")
+                && !userId.equals(pathVariables.get("userId")))) {
+            reject(response, HttpServletResponse.SC_FORBIDDEN, "无权访问其他用户的文件");
+            return false;
+        }
+        request.setAttribute(USER_ID_ATTRIBUTE, userId);
+        return true;
+    }
+
+    private void reject(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(
+                gson.toJson(Collections.singletonMap("message", message)).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,61 @@
+package com.cloudpan.config;
+
+import org.apache.hadoop.conf.Configuration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+
+//Hadoop 配置类：整个应用只解析一次 XML，所有服务共享同一个 Configuration
+//XML 从类路径加载（src/main/resources/hadoop/ 会被打进 jar），打包运行时也能找到；
+//application.properties 里的 fs.*、dfs.* 等同名键会覆盖 XML 中的值
+@org.springframework.context.annotation.Configuration
+public class HadoopConfig {
+    private static final String[] SITE_FILES = {
+            "hadoop/core-site.xml",
+            "hadoop/hdfs-site.xml",
+            "hadoop/mapred-site.xml",
+            "hadoop/yarn-site.xml"
+    };
+
+    //这些前缀的 Spring 属性会被复制到 Hadoop 配置中
+    private static final String[] OVERRIDE_PREFIXES = {"fs.", "dfs.", "hadoop.", "ha."};
+
+    //共享实例只在启动时写入，之后视为只读；需要修改的调用方请先复制：new Configuration(conf)
+    @Bean
+    public Configuration hadoopConfiguration(ConfigurableEnvironment environment) {
+        Configuration conf = loadClasspathConfiguration();
+        for (PropertySource<?> source : environment.getPropertySources()) {
+            if (!(source instanceof EnumerablePropertySource)) {
+                continue;
+            }
+            for (String name : ((EnumerablePropertySource<?>) source).getPropertyNames()) {
+                //getProperty 按优先级取值（命令行参数 > 环境变量 > application.properties）
+                if (isOverride(name)) {
+                    conf.set(name, environment.getProperty(name), "spring");
+                }
+            }
+        }
+        //触发一次完整解析，之后的读取不再解析 XML
+        conf.size();
+        return conf;
+    }
+
+    //只加载类路径上的 XML，不读取 Spring 属性；供脚本和基准程序使用
+    public static Configuration loadClasspathConfiguration() {
+        Configuration conf = new Configuration();
+        for (String siteFile : SITE_FILES) {
+            conf.addResource(siteFile);
+        }
+        return conf;
+    }
+
+    private static boolean isOverride(String name) {
+        for (String prefix : OVERRIDE_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
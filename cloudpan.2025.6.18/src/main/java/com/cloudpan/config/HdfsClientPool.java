@@ -0,0 +1,268 @@
+package com.cloudpan.config;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//HDFS 客户端池：整个应用共享少量长期存活的 FileSystem 实例
+//FileSystem.get 返回的是 JVM 全局缓存实例，各个请求用 try-with-resources 关闭它会互相影响，
+//而且每次都要重新建立 NameNode HA 的故障转移代理。这里改为用 FileSystem.newInstance 自己持有实例，
+//启动时预热，定时做健康检查，应用关闭时统一释放
+@Component
+public class HdfsClientPool {
+    private final Logger logger = LoggerFactory.getLogger(HdfsClientPool.class);
+
+    private final URI rootUri;
+    private final Configuration conf;
+    private final long healthCheckIntervalSeconds;
+    private final int replaceAfterFailures;
+    private final long retireGraceMillis;
+    private final AtomicReferenceArray<FileSystem> clients;
+    //每个实例连续探测失败的次数，只在健康检查线程中读写
+    private final int[] failures;
+    //已被替换、等待关闭的旧实例：取到它的请求可能还在通过它传输，宽限期过后才关闭
+    private final Queue<Retired> retired = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService healthChecker;
+
+    @Autowired
+    public HdfsClientPool(Configuration hadoopConfiguration,
+                          @Value("${cloudpan.hdfs.pool-size:2}") int poolSize,
+                          @Value("${cloudpan.hdfs.health-check-interval-seconds:30}") long healthCheckIntervalSeconds,
+                          @Value("${cloudpan.hdfs.replace-after-failures:3}") int replaceAfterFailures,
+                          @Value("${cloudpan.hdfs.retire-grace-seconds:3600}") long retireGraceSeconds) {
+        this(FileSystem.getDefaultUri(hadoopConfiguration), hadoopConfiguration, poolSize, healthCheckIntervalSeconds,
+                replaceAfterFailures, retireGraceSeconds);
+    }
+
+    public HdfsClientPool(URI rootUri, Configuration conf, int poolSize, long healthCheckIntervalSeconds) {
+        this(rootUri, conf, poolSize, healthCheckIntervalSeconds, 3, 3600);
+    }
+
+    public HdfsClientPool(URI rootUri, Configuration conf, int poolSize, long healthCheckIntervalSeconds,
+                          int replaceAfterFailures, long retireGraceSeconds) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        this.rootUri = rootUri;
+        this.conf = conf;
+        this.healthCheckIntervalSeconds = healthCheckIntervalSeconds;
+        this.replaceAfterFailures = Math.max(1, replaceAfterFailures);
+        this.retireGraceMillis = TimeUnit.SECONDS.toMillis(retireGraceSeconds);
+        this.clients = new AtomicReferenceArray<>(poolSize);
+        this.failures = new int[poolSize];
+    }
+
+    //启动预热：提前创建所有客户端并发一次 RPC，让第一个用户请求不用承担建连开销
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < clients.length(); i++) {
+            try {
+                FileSystem fs = FileSystem.newInstance(rootUri, conf);
+                fs.getFileStatus(new Path("/"));
+                clients.set(i, fs);
+            } catch (IOException e) {
+                //集群暂时不可用时不阻止应用启动，第一次使用时再懒加载
+                logger.warn("HDFS客户端预热失败，将在首次使用时重试: {}", e.getMessage());
+            }
+        }
+        logger.info("HDFS客户端池已启动: {}，实例数 {}", rootUri, clients.length());
+
+        if (healthCheckIntervalSeconds > 0) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "hdfs-health-check");
+                t.setDaemon(true);
+                return t;
+            });
+            healthChecker.scheduleWithFixedDelay(this::checkHealth,
+                    healthCheckIntervalSeconds, healthCheckIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    //轮询取出一个共享实例。调用方不能关闭它
+    public FileSystem get() throws IOException {
+        int index = Math.floorMod(next.getAndIncrement(), clients.length());
+        FileSystem fs = clients.get(index);
+        if (fs != null) {
+            return fs;
+        }
+        return createAt(index);
+    }
+
+    private synchronized FileSystem createAt(int index) throws IOException {
+        FileSystem fs = clients.get(index);
+        if (fs == null) {
+            fs = FileSystem.newInstance(rootUri, conf);
+            clients.set(index, fs);
+        }
+        return fs;
+    }
+
+    //文件系统根路径，例如 hdfs://mycluster/
+    public String getRoot() {
+        String root = rootUri.toString();
+        return root.endsWith("/") ? root : root + "/";
+    }
+
+    public Configuration getConf() {
+        return conf;
+    }
+
+    //按操作类型累计的客户端调用次数（getFileStatus、rename、mkdirs 等，只含非零项），用来核对每个请求的 NameNode RPC 数
+    //DFS 的统计在 JVM 内按文件系统类型共享，多个实例指向同一个统计对象，按实例去重后相加；健康检查的探测也计在内
+    public Map<String, Long> rpcCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (StorageStatistics statistics : storageStatistics()) {
+            Iterator<StorageStatistics.LongStatistic> iterator = statistics.getLongStatistics();
+            while (iterator.hasNext()) {
+                StorageStatistics.LongStatistic statistic = iterator.next();
+                if (statistic.getValue() != 0) {
+                    counts.merge(statistic.getName(), statistic.getValue(), Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    //单个操作类型的累计次数（如 op_get_file_status），供监控指标定期读取
+    public long rpcCount(String operation) {
+        long count = 0;
+        for (StorageStatistics statistics : storageStatistics()) {
+            Long value = statistics.getLong(operation);
+            if (value != null) {
+                count += value;
+            }
+        }
+        return count;
+    }
+
+    private Collection<StorageStatistics> storageStatistics() {
+        Set<StorageStatistics> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < clients.length(); i++) {
+            FileSystem fs = clients.get(i);
+            if (fs != null) {
+                seen.add(fs.getStorageStatistics());
+            }
+        }
+        return seen;
+    }
+
+    public boolean isHealthy() {
+        for (int i = 0; i < clients.length(); i++) {
+            FileSystem fs = clients.get(i);
+            if (fs == null || !ping(fs)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //健康检查：连续 replaceAfterFailures 次探测失败才替换，一次 NameNode 切换或网络抖动不换实例；
+    //替换前先建一个新实例验证，新实例可用才替换，整个集群不可用时保留旧实例。
+    //旧实例不立即关闭：关闭 DFSClient 会中断它上面所有打开的流，取到它的下载、打包、上传可能还在进行，
+    //放入待关闭队列，宽限期（应长于最长的传输）过后再关闭
+    void checkHealth() {
+        closeRetired(false);
+        for (int i = 0; i < clients.length(); i++) {
+            FileSystem old = clients.get(i);
+            if (old != null && ping(old)) {
+                failures[i] = 0;
+                continue;
+            }
+            if (old != null && ++failures[i] < replaceAfterFailures) {
+                logger.warn("HDFS客户端 #{} 探测失败（连续 {} 次）", i, failures[i]);
+                continue;
+            }
+            FileSystem fresh = null;
+            try {
+                fresh = FileSystem.newInstance(rootUri, conf);
+                fresh.getFileStatus(new Path("/"));
+            } catch (IOException e) {
+                logger.warn("HDFS健康检查失败: {}", e.getMessage());
+                closeQuietly(fresh);
+                continue;
+            }
+            if (clients.compareAndSet(i, old, fresh)) {
+                logger.info("已替换失效的HDFS客户端 #{}", i);
+                failures[i] = 0;
+                if (old != null) {
+                    retired.add(new Retired(old, System.currentTimeMillis() + retireGraceMillis));
+                }
+            } else {
+                closeQuietly(fresh);
+            }
+        }
+    }
+
+    //关闭宽限期已过的旧实例；all 为 true 时全部关闭（应用关闭时）
+    private void closeRetired(boolean all) {
+        long now = System.currentTimeMillis();
+        for (Iterator<Retired> it = retired.iterator(); it.hasNext(); ) {
+            Retired r = it.next();
+            if (all || now >= r.closeAt) {
+                it.remove();
+                closeQuietly(r.fs);
+            }
+        }
+    }
+
+    private static class Retired {
+        final FileSystem fs;
+        final long closeAt;
+
+        Retired(FileSystem fs, long closeAt) {
+            this.fs = fs;
+            this.closeAt = closeAt;
+        }
+    }
+
+    private boolean ping(FileSystem fs) {
+        try {
+            fs.getFileStatus(new Path("/"));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(FileSystem fs) {
+        if (fs == null) {
+            return;
+        }
+        try {
+            fs.close();
+        } catch (IOException e) {
+            logger.warn("关闭HDFS客户端失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (int i = 0; i < clients.length(); i++) {
+            closeQuietly(clients.getAndSet(i, null));
+        }
+        closeRetired(true);
+        logger.info("HDFS客户端池已关闭");
+    }
+}
@@ -0,0 +1,38 @@
+package com.cloudpan.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+//本Web节点的标识：多节点共用 HDFS 和数据库时，用来区分后台任务等状态属于哪个节点
+//cloudpan.node-id 留空时取 主机名-端口，同一节点重启后不变，重启时据此认回自己留下的任务
+@Component
+public class NodeIdentity {
+    private final String id;
+
+    @Autowired
+    public NodeIdentity(@Value("${cloudpan.node-id:}") String configured,
+                        @Value("${server.port:8080}") int port) {
+        this(configured.trim().isEmpty() ? hostName() + "-" + port : configured.trim());
+    }
+
+    public NodeIdentity(String id) {
+        // 会用作 HDFS 文件名，冒号等字符会被当成 URI 的一部分
+        this.id = id.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.cloudpan.config;
+
+import io.micrometer.core.instrument.*;
+import org.apache.hadoop.hdfs.DFSOpsCountStatistics;
+import org.springframework.stereotype.Component;
+
+//业务操作的监控指标，通过 actuator 暴露（Prometheus 抓取 /actuator/prometheus，端口见 management.server.port）：
+//  - cloudpan.operation：每种操作的耗时分布（p50/p99 与直方图），outcome 为 success / rejected（文件已存在、密码错误等业务拒绝）/ error
+//  - cloudpan.operation.errors：按操作和异常类型的错误数
+//  - cloudpan.transfer.bytes / cloudpan.transfers.active：上传、下载的字节数和进行中的传输
+//  - cloudpan.hdfs.rpc：HDFS客户端按操作类型的调用次数，与操作耗时对照即可找出 NameNode 瓶颈
+@Component
+public class OperationMetrics {
+    public static final String UPLOAD = "upload";
+    public static final String DOWNLOAD = "download";
+    public static final String ARCHIVE = "archive";
+    public static final String LIST = "list";
+    public static final String RENAME = "rename";
+    public static final String COPY = "copy";
+    public static final String MOVE = "move";
+    public static final String DELETE = "delete";
+    public static final String LOGIN = "login";
+    public static final String REGISTER = "register";
+
+    private static final String IN = "in";
+    private static final String OUT = "out";
+
+    private final MeterRegistry registry;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final LongTaskTimer activeIn;
+    private final LongTaskTimer activeOut;
+
+    public OperationMetrics(MeterRegistry registry, HdfsClientPool hdfsClientPool) {
+        this.registry = registry;
+        this.bytesIn = transferBytes(IN);
+        this.bytesOut = transferBytes(OUT);
+        this.activeIn = activeTransfers(IN);
+        this.activeOut = activeTransfers(OUT);
+        // DFS 的计数按操作类型固定，抓取时才读取，平时没有任何开销
+        for (DFSOpsCountStatistics.OpType op : DFSOpsCountStatistics.OpType.values()) {
+            FunctionCounter.builder("cloudpan.hdfs.rpc", hdfsClientPool, pool -> pool.rpcCount(op.getSymbol()))
+                    .tag("op", op.getSymbol())
+                    .description("HDFS客户端调用次数")
+                    .register(registry);
+        }
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void success(Timer.Sample sample, String operation) {
+        sample.stop(timer(operation, "success"));
+    }
+
+    // 业务上的拒绝：没有异常，请求本身是正常处理的
+    public void rejected(Timer.Sample sample, String operation) {
+        sample.stop(timer(operation, "rejected"));
+    }
+
+    public void failure(Timer.Sample sample, String operation, Throwable error) {
+        sample.stop(timer(operation, "error"));
+        registry.counter("cloudpan.operation.errors",
+                "operation", operation, "exception", error.getClass().getSimpleName()).increment();
+    }
+
+    // 进行中的上传，结束时调用返回值的 stop
+    public LongTaskTimer.Sample startUpload() {
+        return activeIn.start();
+    }
+
+    // 进行中的下载（单个文件或打包下载）
+    public LongTaskTimer.Sample startDownload() {
+        return activeOut.start();
+    }
+
+    public void bytesIn(long bytes) {
+        bytesIn.increment(bytes);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesOut.increment(bytes);
+    }
+
+    private Timer timer(String operation, String outcome) {
+        // 同名同标签的计时器由注册表缓存，这里只是查找
+        return Timer.builder("cloudpan.operation")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .description("业务操作耗时")
+                .register(registry);
+    }
+
+    private Counter transferBytes(String direction) {
+        return Counter.builder("cloudpan.transfer.bytes")
+                .tag("direction", direction)
+                .baseUnit("bytes")
+                .description("上传、下载的字节数")
+                .register(registry);
+    }
+
+    private LongTaskTimer activeTransfers(String direction) {
+        return LongTaskTimer.builder("cloudpan.transfers.active")
+                .tag("direction", direction)
+                .description("进行中的传输")
+                .register(registry);
+    }
+}
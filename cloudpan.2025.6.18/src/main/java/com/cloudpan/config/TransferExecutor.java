@@ -0,0 +1,65 @@
+package com.cloudpan.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//传输线程池：上传、下载改为异步请求，读写请求体的阻塞 HDFS I/O 在这里执行，Tomcat 线程交出后立即回去处理其他请求
+//慢客户端的大文件传输只占用这里的线程，列目录、重命名等元数据请求不会排在它们后面
+//线程和队列都满时拒绝（RejectedExecutionException），控制器返回503，不会退回占用 Tomcat 线程
+@Component
+public class TransferExecutor {
+    private final ThreadPoolExecutor executor;
+    private final AsyncTaskExecutor taskExecutor;
+    private final long timeoutMillis;
+
+    public TransferExecutor(@Value("${cloudpan.transfer.threads:256}") int threads,
+                            @Value("${cloudpan.transfer.queue:64}") int queue,
+                            @Value("${cloudpan.transfer.timeout-ms:0}") long timeoutMillis) {
+        AtomicInteger counter = new AtomicInteger();
+        // 空闲线程一分钟后回收，平时不常驻上百个线程
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                queue > 0 ? new ArrayBlockingQueue<>(queue) : new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "transfer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.taskExecutor = new ConcurrentTaskExecutor(executor);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public AsyncTaskExecutor getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    // 异步请求的超时（毫秒），0 表示不超时：大文件的传输时长取决于客户端，客户端断开时写出失败即结束
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("threads", executor.getPoolSize());
+        stats.put("maxThreads", executor.getMaximumPoolSize());
+        stats.put("completed", executor.getCompletedTaskCount());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,28 @@
+package com.cloudpan.config;
+
+import com.cloudpan.repository.DbUserRepository;
+import com.cloudpan.repository.HdfsUserRepository;
+import com.cloudpan.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+//用户存储选择：cloudpan.users.store=db（默认，内嵌H2）或 hdfs（旧的每用户一个JSON文件）
+@Configuration
+public class UserStoreConfig {
+
+    @Bean
+    @Primary
+    public UserRepository userRepository(@Value("${cloudpan.users.store:db}") String store,
+                                         DbUserRepository dbUserRepository,
+                                         HdfsUserRepository hdfsUserRepository) {
+        if ("hdfs".equals(store)) {
+            return hdfsUserRepository;
+        }
+        if (!"db".equals(store)) {
+            throw new IllegalArgumentException("未知的用户存储: " + store);
+        }
+        return dbUserRepository;
+    }
+}
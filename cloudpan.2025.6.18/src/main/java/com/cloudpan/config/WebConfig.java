@@ -1,7 +1,9 @@
 package com.cloudpan.config;
 //配置类
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
@@ -20,6 +22,14 @@ public class WebConfig implements WebMvcConfigurer {
     //定义一个日志记录器（基于 JDK 自带的 java.util.logging），用于在配置类中记录关键日志（此处未直接使用）
     private static final Logger logger = Logger.getLogger(WebConfig.class.getName());
 
+    //令牌鉴权拦截器，见 AuthInterceptor
+    @Autowired
+    private AuthInterceptor authInterceptor;
+
+    //传输线程池，见 TransferExecutor
+    @Autowired
+    private TransferExecutor transferExecutor;
+
 
     //用于配置静态资源的映射规则，
     // 核心作用是
@@ -57,8 +67,23 @@ public class WebConfig implements WebMvcConfigurer {
         //设置默认的响应格式为 JSON（application/json）。如果没有其他协商方式（如 Accept 头、请求参数），Spring 会强制返回 JSON
     }
 
-    
-    
+
+    //异步请求配置
+    //上传、下载接口返回 Callable / StreamingResponseBody，由传输线程池执行；默认不超时，长时间的下载不会被容器的30秒超时截断
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(transferExecutor.getTaskExecutor());
+        configurer.setDefaultTimeout(transferExecutor.getTimeoutMillis());
+    }
+
+
+    //拦截器配置
+    //所有文件接口（/file/**，包括分片上传和后台任务）都要先验证令牌；登录注册（/user/**）和静态页面不拦截
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(authInterceptor)
+            .addPathPatterns("/file/**");
+    }
 }
 
 //总结：这个配置类的核心作用
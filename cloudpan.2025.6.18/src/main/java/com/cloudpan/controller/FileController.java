@@ -1,19 +1,58 @@
 package com.cloudpan.controller;
 
+import com.cloudpan.config.AuthInterceptor;
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.OperationMetrics;
+import com.cloudpan.config.TransferExecutor;
 import com.cloudpan.entity.CloudFile;
+import com.cloudpan.entity.FileJob;
+import com.cloudpan.service.ArchiveService;
+import com.cloudpan.service.BatchService;
+import com.cloudpan.service.CompressionService;
 import com.cloudpan.service.FileService;
+import com.cloudpan.service.ListingCache;
+import com.cloudpan.service.PreviewService;
+import com.cloudpan.service.QuotaService;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.fileupload.FileCountLimitExceededException;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/file")
@@ -21,91 +60,393 @@ public class FileController {
 
     @Autowired
     private FileService fileService;
+    @Autowired
+    private ListingCache listingCache;
+    @Autowired
+    private CompressionService compressionService;
+    @Autowired
+    private PreviewService previewService;
+    @Autowired
+    private ArchiveService archiveService;
+    @Autowired
+    private BatchService batchService;
+    @Autowired
+    private HdfsClientPool hdfsClientPool;
+    @Autowired
+    private QuotaService quotaService;
+    @Autowired
+    private OperationMetrics metrics;
+    @Autowired
+    private TransferExecutor transferExecutor;
+    // multipart 的限制：Spring 的解析已关闭，这里是唯一的一道限制（-1 表示不限）
+    @Value("${cloudpan.upload.max-parts:10}")
+    private long maxParts;
+    @Value("${cloudpan.upload.max-request-bytes:-1}")
+    private long maxRequestBytes;
+    @Value("${cloudpan.upload.max-file-bytes:-1}")
+    private long maxFileBytes;
+    @Value("${cloudpan.upload.max-field-bytes:4096}")
+    private int maxFieldBytes;
     private final Gson gson = new Gson();
+    private final Logger logger = LoggerFactory.getLogger(FileController.class);
+    // 下载的计时样本，交给传输线程前存入请求属性
+    private static final String DOWNLOAD_SAMPLE = FileController.class.getName() + ".downloadSample";
 
+    // 流式解析multipart请求体，文件部分边读边写入HDFS，不经过临时文件
+    // uploadPath 可以放在查询参数里，或作为表单字段放在文件字段之前；用户取自令牌
     @PostMapping("/upload")
-    public ResponseEntity<?> upload(
-            @RequestParam("file") MultipartFile file,
-            @RequestParam String userId,
-            @RequestParam String uploadPath) {
-        try {
-            CloudFile.CloudFileBuilder cloudFileBuilder = new CloudFile.CloudFileBuilder(userId)
-                    .withFileName(file.getOriginalFilename())
-                    .withFileSize(file.getSize() + "")
-                    .withUploadPath(uploadPath);
+    public Callable<ResponseEntity<?>> upload(HttpServletRequest request) {
+        // 请求体在传输线程中边读边写入HDFS，Tomcat 线程在这里就返回了
+        return () -> {
+            try {
+                if (!ServletFileUpload.isMultipartContent(request)) {
+                    Map<String, String> response = new HashMap<>();
+                    response.put("message", "文件上传失败: 请求不是multipart/form-data");
+                    return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
+                }
+                String userId = AuthInterceptor.currentUser(request);
+                String uploadPath = request.getParameter("uploadPath");
+                boolean uploaded = false;
 
-            String result = fileService.upload(cloudFileBuilder, file.getInputStream());
-            // 统一返回JSON格式
-            Map<String, String> response = new HashMap<>();
-            response.put("message", result);
-            return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
-        } catch (Exception e) {
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "文件上传失败: " + e.getMessage());
-            return new ResponseEntity<>(gson.toJson(response), HttpStatus.INTERNAL_SERVER_ERROR);
+                ServletFileUpload upload = new ServletFileUpload();
+                upload.setFileCountMax(maxParts);
+                upload.setSizeMax(maxRequestBytes);
+                upload.setFileSizeMax(maxFileBytes);
+                FileItemIterator items = upload.getItemIterator(request);
+                while (items.hasNext()) {
+                    FileItemStream item = items.next();
+                    try (InputStream in = item.openStream()) {
+                        if (item.isFormField()) {
+                            if ("uploadPath".equals(item.getFieldName())) {
+                                uploadPath = readField(in);
+                            }
+                        } else if ("file".equals(item.getFieldName()) && !uploaded) {
+                            CloudFile.CloudFileBuilder cloudFileBuilder = new CloudFile.CloudFileBuilder(userId)
+                                    .withFileName(FilenameUtils.getName(item.getName()))
+                                    .withUploadPath(uploadPath);
+                            fileService.upload(cloudFileBuilder, in);
+                            uploaded = true;
+                        }
+                    }
+                }
+                if (!uploaded) {
+                    Map<String, String> response = new HashMap<>();
+                    response.put("message", "文件上传失败: 缺少文件字段");
+                    return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
+                }
+                // 统一返回JSON格式
+                Map<String, String> response = new HashMap<>();
+                response.put("message", "文件上传成功");
+                return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+            } catch (FileAlreadyExistsException e) {
+                return message(HttpStatus.CONFLICT, "文件已存在，上传失败");
+            } catch (DSQuotaExceededException e) {
+                return message(HttpStatus.INSUFFICIENT_STORAGE, "文件上传失败: " + e.getMessage());
+            } catch (FileUploadBase.SizeException | FileCountLimitExceededException e) {
+                return message(HttpStatus.PAYLOAD_TOO_LARGE, "文件上传失败: " + e.getMessage());
+            } catch (FileUploadBase.FileUploadIOException e) {
+                // 读取过程中超出大小限制，原始异常被包装成 IOException 抛出
+                return message(HttpStatus.PAYLOAD_TOO_LARGE, "文件上传失败: " + e.getCause().getMessage());
+            } catch (IllegalArgumentException e) {
+                return message(HttpStatus.BAD_REQUEST, "文件上传失败: " + e.getMessage());
+            } catch (Exception e) {
+                Map<String, String> response = new HashMap<>();
+                response.put("message", "文件上传失败: " + e.getMessage());
+                return new ResponseEntity<>(gson.toJson(response), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        };
+    }
+
+    // 表单字段读入内存，超过 maxFieldBytes 时拒绝
+    private String readField(InputStream in) throws IOException {
+        byte[] value = IOUtils.toByteArray(new BoundedInputStream(in, maxFieldBytes + 1L));
+        if (value.length > maxFieldBytes) {
+            throw new IllegalArgumentException("表单字段超过 " + maxFieldBytes + " 字节");
         }
+        return new String(value, StandardCharsets.UTF_8);
     }
 
-    @PostMapping("/download")
-    public ResponseEntity<?> download(
-            @RequestBody FileService.DownloadRequest request) {
+    // 秒传：客户端先提交文件的SHA-256和大小，服务器已有相同内容时不用再传字节
+    // 404 表示内容未知，客户端改走正常上传
+    @PostMapping("/upload/instant")
+    public ResponseEntity<?> instantUpload(@RequestBody FileService.InstantUploadRequest request,
+                                           HttpServletRequest httpRequest) {
+        Map<String, String> response = new HashMap<>();
         try {
-            String result = fileService.download(request);
-            // 统一返回JSON格式
-            Map<String, String> response = new HashMap<>();
-            response.put("message", result);
-            return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+            String userId = AuthInterceptor.currentUser(httpRequest);
+            if (fileService.instantUpload(userId, request.getUploadPath(), request.getFileName(),
+                    request.getSha256(), request.getFileSize())) {
+                response.put("message", "文件上传成功");
+                return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+            }
+            response.put("message", "服务器没有该文件内容");
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.NOT_FOUND);
+        } catch (FileAlreadyExistsException e) {
+            response.put("message", "文件已存在，上传失败");
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.CONFLICT);
+        } catch (DSQuotaExceededException e) {
+            response.put("message", "文件上传失败: " + e.getMessage());
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.INSUFFICIENT_STORAGE);
+        } catch (IllegalArgumentException e) {
+            response.put("message", "文件上传失败: " + e.getMessage());
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "文件下载失败: " + e.getMessage());
+            response.put("message", "文件上传失败: " + e.getMessage());
             return new ResponseEntity<>(gson.toJson(response), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    @PostMapping("/download/serve")
-    public void serveDownloadedFile(@RequestParam("userId") String userId,
-                                    @RequestParam("uploadPath") String uploadPath,
-                                    HttpServletResponse response) {
+    // 直接从HDFS流式下载，支持 Range/If-Range 断点续传与分段并行下载
+    // 查状态、协商区间在 Tomcat 线程中完成，写出内容交给传输线程；不需要写内容时返回 null
+    @GetMapping("/download")
+    public StreamingResponseBody download(@RequestParam String userId,
+                                          @RequestParam String uploadPath,
+                                          HttpServletRequest request,
+                                          HttpServletResponse response) throws IOException {
+        Timer.Sample sample = metrics.start();
+        FileStatus status;
         try {
-            // 构建本地文件路径
-            String fileName = new File(uploadPath).getName();
-            File file = new File("D:\\download\\" + fileName);
+            status = fileService.getDownloadStatus(userId, uploadPath);
+        } catch (FileNotFoundException e) {
+            metrics.rejected(sample, OperationMetrics.DOWNLOAD);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件不存在");
+            return null;
+        } catch (IllegalArgumentException e) {
+            // 路径不合法或不在主目录内
+            metrics.rejected(sample, OperationMetrics.DOWNLOAD);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
 
-            if (file.exists()) {
-                response.setContentType("application/octet-stream");
-                response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        long fileLength = status.getLen();
+        long lastModified = status.getModificationTime();
+        // 以文件长度和修改时间作为强ETag，文件被覆盖后自动失效
+        String etag = "\"" + Long.toHexString(fileLength) + "-" + Long.toHexString(lastModified) + "\"";
 
-                try (InputStream in = new FileInputStream(file);
-                     OutputStream out = response.getOutputStream()) {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            metrics.success(sample, OperationMetrics.DOWNLOAD);
+            return null;
+        }
 
-                    byte[] buffer = new byte[1024 * 8];
-                    int bytesRead;
-                    while ((bytesRead = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, bytesRead);
-                    }
+        long start = 0;
+        long end = fileLength - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && ifRangeMatches(request, etag, lastModified)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = Collections.emptyList();
+            }
+            // 只处理单区间请求，多区间请求按完整文件返回（RFC 7233 允许忽略 Range）
+            if (ranges.size() == 1) {
+                try {
+                    start = ranges.get(0).getRangeStart(fileLength);
+                    end = ranges.get(0).getRangeEnd(fileLength);
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+                    metrics.rejected(sample, OperationMetrics.DOWNLOAD);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return null;
                 }
-            } else {
-                response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件不存在");
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        }
+
+        long contentLength = end - start + 1;
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(contentLength);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                .filename(FilenameUtils.getName(uploadPath), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        if ("HEAD".equals(request.getMethod()) || contentLength <= 0) {
+            metrics.success(sample, OperationMetrics.DOWNLOAD);
+            return null;
+        }
+
+        long offset = start;
+        // 传输线程池拒绝时由 transferBusy 记为 rejected
+        request.setAttribute(DOWNLOAD_SAMPLE, sample);
+        return out -> {
+            LongTaskTimer.Sample active = metrics.startDownload();
             try {
-                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "提供下载文件失败");
-            } catch (IOException ex) {
-                ex.printStackTrace();
+                fileService.writeRange(status, offset, contentLength, out);
+                metrics.success(sample, OperationMetrics.DOWNLOAD);
+            } catch (IOException e) {
+                // 响应头已经发出，这里通常是客户端中断了下载（暂停、取消或分段下载器主动断开）
+                metrics.failure(sample, OperationMetrics.DOWNLOAD, e);
+                logger.debug("下载中断: {} ({})", uploadPath, e.getMessage());
+            } finally {
+                active.stop();
             }
+        };
+    }
+
+    // 文件夹打包下载：边读边写出ZIP，不知道总长度，以分块传输编码发送，不支持断点续传
+    @GetMapping("/download/folder")
+    public StreamingResponseBody downloadFolder(@RequestParam String userId,
+                                                @RequestParam String uploadPath,
+                                                HttpServletResponse response) throws IOException {
+        List<ArchiveService.Entry> entries;
+        try {
+            entries = archiveService.folderEntries(userId, uploadPath);
+        } catch (FileNotFoundException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件夹不存在");
+            return null;
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        } catch (IllegalStateException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            return null;
+        }
+
+        String folderName = FilenameUtils.getName(uploadPath.replaceAll("/+$", ""));
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                .filename((folderName.isEmpty() ? userId : folderName) + ".zip", StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        return out -> {
+            try {
+                archiveService.writeZip(entries, out);
+            } catch (IOException e) {
+                // 响应头已经发出，通常是客户端取消了下载
+                logger.debug("打包下载中断: {} ({})", uploadPath, e.getMessage());
+            }
+        };
+    }
+
+    // 多选打包下载：paths 可重复出现，每项是文件或文件夹；页面用表单 POST 提交，选很多文件时不受URL长度限制
+    @RequestMapping(value = "/download/archive", method = {RequestMethod.GET, RequestMethod.POST})
+    public StreamingResponseBody downloadArchive(@RequestParam String userId,
+                                                 @RequestParam List<String> paths,
+                                                 HttpServletResponse response) throws IOException {
+        List<ArchiveService.Entry> entries;
+        try {
+            entries = archiveService.selectionEntries(userId, paths);
+        } catch (FileNotFoundException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件不存在: " + e.getMessage());
+            return null;
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        } catch (IllegalStateException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            return null;
+        }
+
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                .filename("cloudpan-" + paths.size() + ".zip", StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        return out -> {
+            try {
+                archiveService.writeZip(entries, out);
+            } catch (IOException e) {
+                logger.debug("打包下载中断: {} 项 ({})", paths.size(), e.getMessage());
+            }
+        };
+    }
+
+    // 文件夹大小：文件数、子目录数和总字节数
+    @GetMapping("/size")
+    public ResponseEntity<?> folderSize(@RequestParam String userId, @RequestParam String uploadPath) {
+        try {
+            return new ResponseEntity<>(gson.toJson(fileService.folderSize(userId, uploadPath)), HttpStatus.OK);
+        } catch (FileNotFoundException e) {
+            return message(HttpStatus.NOT_FOUND, "文件不存在");
+        } catch (IllegalArgumentException e) {
+            return message(HttpStatus.BAD_REQUEST, "计算大小失败: " + e.getMessage());
+        } catch (Exception e) {
+            logger.error("计算大小失败: {}", e.getMessage(), e);
+            return message(HttpStatus.INTERNAL_SERVER_ERROR, "计算大小失败: " + e.getMessage());
+        }
+    }
+
+    // 当前用户的已用空间和配额，只读内存中的账本
+    @GetMapping("/quota")
+    public ResponseEntity<?> quota(HttpServletRequest request) {
+        return new ResponseEntity<>(gson.toJson(quotaService.usage(AuthInterceptor.currentUser(request))),
+                HttpStatus.OK);
+    }
+
+    // 缩略图（图片）或开头一段文本（文本文件），上传后已在后台生成，这里多数情况直接命中缓存
+    // 页面在地址中带上文件的修改时间 v：与当前文件一致时内容不会再变，浏览器可长期缓存；否则每次带 ETag 验证
+    @GetMapping("/preview")
+    public ResponseEntity<?> preview(@RequestParam String userId,
+                                     @RequestParam String uploadPath,
+                                     @RequestParam(required = false) Long v,
+                                     HttpServletRequest request) {
+        PreviewService.Preview preview;
+        try {
+            preview = fileService.preview(userId, uploadPath);
+        } catch (FileNotFoundException e) {
+            return message(HttpStatus.NOT_FOUND, "文件不存在");
+        } catch (RejectedExecutionException e) {
+            // 生成预览的线程池已满，稍后重试
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(gson.toJson(Collections.singletonMap("message", "预览生成繁忙，请稍后重试")));
+        } catch (Exception e) {
+            logger.warn("获取预览失败: {} ({})", uploadPath, e.getMessage());
+            return message(HttpStatus.INTERNAL_SERVER_ERROR, "获取预览失败: " + e.getMessage());
+        }
+        if (preview == null) {
+            return message(HttpStatus.NOT_FOUND, "该文件不支持预览");
+        }
+
+        // 预览名由文件的路径、大小和修改时间算出，可直接作为强ETag
+        String etag = "\"" + preview.getName() + "\"";
+        String cacheControl = v != null && v == preview.getModificationTime()
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().getHeaderValue() + ", immutable"
+                : CacheControl.noCache().cachePrivate().getHeaderValue();
+        if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .lastModified(preview.getModificationTime())
+                .contentType(MediaType.parseMediaType(preview.getContentType()))
+                .body(preview.getData());
+    }
+
+    private ResponseEntity<?> message(HttpStatus status, String message) {
+        Map<String, String> response = new HashMap<>();
+        response.put("message", message);
+        return new ResponseEntity<>(gson.toJson(response), status);
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
 
     @PostMapping("/delete")
     public ResponseEntity<?> delete(
-            @RequestBody FileService.DeleteRequest request) {
+            @RequestBody FileService.DeleteRequest request,
+            HttpServletRequest httpRequest) {
         try {
-            String result = fileService.delete(request);
-            // 统一返回JSON格式
-            Map<String, String> response = new HashMap<>();
-            response.put("message", result);
-            return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+            request.setUserId(AuthInterceptor.currentUser(httpRequest));
+            return jobResponse(fileService.delete(request), "文件/目录删除");
         } catch (Exception e) {
             Map<String, String> response = new HashMap<>();
             response.put("message", "文件删除失败: " + e.getMessage());
@@ -127,10 +468,88 @@ public class FileController {
         }
     }
 
+    // 分页列目录：?path=&cursor=&limit=&sort=name|size|mtime&order=asc|desc&prefix=
+    // 结果边生成边写出 {"files":[...],"nextCursor":"..."}，nextCursor 为 null 表示已是最后一页
+    @GetMapping("/list/{userId}/page")
+    public void listPage(@PathVariable String userId,
+                         FileService.ListQuery query,
+                         HttpServletResponse response) throws IOException {
+        query.setUserId(userId);
+        response.setContentType("application/json;charset=UTF-8");
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)));
+        try {
+            writer.beginObject().name("files").beginArray();
+            String nextCursor = fileService.listPage(query, file -> gson.toJson(file, CloudFile.class, writer));
+            writer.endArray().name("nextCursor").value(nextCursor).endObject();
+            writer.flush();
+        } catch (Exception e) {
+            logger.error("分页获取文件列表失败: {}", e.getMessage(), e);
+            // 已经开始输出时无法再改状态码，客户端会收到不完整的JSON
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(e instanceof IllegalArgumentException
+                        ? HttpStatus.BAD_REQUEST.value() : HttpStatus.INTERNAL_SERVER_ERROR.value());
+                response.setContentType("application/json;charset=UTF-8");
+                response.getOutputStream().write(gson.toJson(Collections.singletonMap("message",
+                        "文件列表获取失败: " + e.getMessage())).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    // 目录列表缓存的命中/未命中次数，命中即少发一次NameNode列表请求
+    @GetMapping("/list-cache/stats")
+    public ResponseEntity<?> listingCacheStats() {
+        return new ResponseEntity<>(gson.toJson(listingCache.stats()), HttpStatus.OK);
+    }
+
+    // 上传压缩的累计效果：压缩率与压缩耗费的CPU时间，每次上传的明细见日志
+    @GetMapping("/compression/stats")
+    public ResponseEntity<?> compressionStats() {
+        return new ResponseEntity<>(gson.toJson(compressionService.stats()), HttpStatus.OK);
+    }
+
+    // 预览生成与本机缓存的统计：已生成数、因队列满丢弃的后台任务数、缓存命中率和占用
+    @GetMapping("/preview/stats")
+    public ResponseEntity<?> previewStats() {
+        return new ResponseEntity<>(gson.toJson(previewService.stats()), HttpStatus.OK);
+    }
+
+    // HDFS客户端按操作类型累计的调用次数，两次查询相减即一段时间内每类 NameNode RPC 的数量
+    @GetMapping("/rpc/stats")
+    public ResponseEntity<?> rpcStats() {
+        return new ResponseEntity<>(gson.toJson(hdfsClientPool.rpcCounts()), HttpStatus.OK);
+    }
+
+    // 传输线程池的占用：进行中、排队和已完成的上传下载数
+    @GetMapping("/transfer/stats")
+    public ResponseEntity<?> transferStats() {
+        return new ResponseEntity<>(gson.toJson(transferExecutor.stats()), HttpStatus.OK);
+    }
+
+    // 传输线程池已满：上传、下载没有开始，让客户端稍后重试
+    // 下载在提交前已经设置了 206、Content-Length、Content-Range 等响应头，先清掉再返回503
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<?> transferBusy(HttpServletRequest request, HttpServletResponse response) {
+        Object sample = request.getAttribute(DOWNLOAD_SAMPLE);
+        if (sample instanceof Timer.Sample) {
+            request.removeAttribute(DOWNLOAD_SAMPLE);
+            metrics.rejected((Timer.Sample) sample, OperationMetrics.DOWNLOAD);
+        }
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(gson.toJson(Collections.singletonMap("message", "传输繁忙，请稍后重试")));
+    }
+
     @PostMapping("/rename")
     public ResponseEntity<?> renameFile(
-            @RequestBody FileService.RenameRequest request) {
+            @RequestBody FileService.RenameRequest request,
+            HttpServletRequest httpRequest) {
         try {
+            request.setUserId(AuthInterceptor.currentUser(httpRequest));
             if (fileService.renameFile(request)) {
                 Map<String, String> response = new HashMap<>();
                 response.put("message", "文件重命名成功");
@@ -148,8 +567,12 @@ public class FileController {
 
     @PostMapping("/copy")
     public ResponseEntity<?> copyFile(
-            @RequestBody FileService.CopyRequest request) {
+            @RequestBody FileService.CopyRequest request,
+            HttpServletRequest httpRequest) {
         try {
+            // 只能在自己的主目录内复制
+            request.setSourceUserId(AuthInterceptor.currentUser(httpRequest));
+            request.setTargetUserId(AuthInterceptor.currentUser(httpRequest));
             // 验证必要参数
             if (request.getSourceUserId() == null ||
                     request.getSourceUploadPath() == null ||
@@ -159,14 +582,7 @@ public class FileController {
                 return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
             }
 
-            if (fileService.copyFile(request)) {
-                Map<String, String> response = new HashMap<>();
-                response.put("message", "文件复制成功");
-                return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
-            }
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "文件复制失败");
-            return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
+            return jobResponse(fileService.copyFile(request), "文件复制");
         } catch (Exception e) {
             Map<String, String> response = new HashMap<>();
             response.put("message", "文件复制出现异常: " + e.getMessage());
@@ -176,8 +592,11 @@ public class FileController {
 
     @PostMapping("/move")
     public ResponseEntity<?> moveFile(
-            @RequestBody FileService.MoveRequest request) {
+            @RequestBody FileService.MoveRequest request,
+            HttpServletRequest httpRequest) {
         try {
+            request.setSourceUserId(AuthInterceptor.currentUser(httpRequest));
+            request.setTargetUserId(AuthInterceptor.currentUser(httpRequest));
             // 验证必要参数
             if (request.getSourceUserId() == null ||
                     request.getSourceUploadPath() == null ||
@@ -187,18 +606,70 @@ public class FileController {
                 return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
             }
 
-            if (fileService.moveFile(request)) {
-                Map<String, String> response = new HashMap<>();
-                response.put("message", "文件移动成功");
-                return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
-            }
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "文件移动失败");
-            return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
+            return jobResponse(fileService.moveFile(request), "文件移动");
         } catch (Exception e) {
             Map<String, String> response = new HashMap<>();
             response.put("message", "文件移动出现异常: " + e.getMessage());
             return new ResponseEntity<>(gson.toJson(response), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    // 批量操作：一次请求处理多个路径，逐项返回结果（SUCCEEDED / FAILED，转为后台的复制为 QUEUED 并带 jobId）
+    @PostMapping("/batch/delete")
+    public ResponseEntity<?> batchDelete(@RequestBody BatchService.BatchRequest request,
+                                         HttpServletRequest httpRequest) {
+        request.setUserId(AuthInterceptor.currentUser(httpRequest));
+        return batchResponse(() -> batchService.delete(request), "批量删除");
+    }
+
+    @PostMapping("/batch/move")
+    public ResponseEntity<?> batchMove(@RequestBody BatchService.BatchRequest request,
+                                       HttpServletRequest httpRequest) {
+        request.setUserId(AuthInterceptor.currentUser(httpRequest));
+        return batchResponse(() -> batchService.move(request), "批量移动");
+    }
+
+    @PostMapping("/batch/copy")
+    public ResponseEntity<?> batchCopy(@RequestBody BatchService.BatchRequest request,
+                                       HttpServletRequest httpRequest) {
+        request.setUserId(AuthInterceptor.currentUser(httpRequest));
+        return batchResponse(() -> batchService.copy(request), "批量复制");
+    }
+
+    private ResponseEntity<?> batchResponse(Callable<List<BatchService.ItemResult>> batch, String action) {
+        try {
+            List<BatchService.ItemResult> results = batch.call();
+            int failed = 0;
+            for (BatchService.ItemResult result : results) {
+                if (FileJob.FAILED.equals(result.getState())) {
+                    failed++;
+                }
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("message", failed == 0 ? action + "成功" : action + "完成，" + failed + " 项失败");
+            response.put("results", results);
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return message(HttpStatus.BAD_REQUEST, action + "失败: " + e.getMessage());
+        } catch (Exception e) {
+            logger.error("{}失败: {}", action, e.getMessage(), e);
+            return message(HttpStatus.INTERNAL_SERVER_ERROR, action + "失败: " + e.getMessage());
+        }
+    }
+
+    // 很快完成的任务直接返回结果；转为后台的任务返回202和jobId，前端轮询 /file/jobs/{jobId}
+    private ResponseEntity<?> jobResponse(FileJob job, String action) {
+        Map<String, String> response = new HashMap<>();
+        if (FileJob.SUCCEEDED.equals(job.getState())) {
+            response.put("message", action + "成功");
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+        }
+        if (!job.isFinished()) {
+            response.put("message", action + "已转为后台任务");
+            response.put("jobId", job.getJobId());
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.ACCEPTED);
+        }
+        response.put("message", action + "失败: " + job.getMessage());
+        return new ResponseEntity<>(gson.toJson(response), HttpStatus.BAD_REQUEST);
+    }
 }
\ No newline at end of file
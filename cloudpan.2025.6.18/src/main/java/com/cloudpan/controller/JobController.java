@@ -0,0 +1,51 @@
+package com.cloudpan.controller;
+
+import com.cloudpan.entity.FileJob;
+import com.cloudpan.service.JobService;
+import com.google.gson.Gson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//后台任务接口：查询进度、列出当前用户的任务、取消任务
+@RestController
+@RequestMapping("/file/jobs")
+public class JobController {
+
+    @Autowired
+    private JobService jobService;
+    private final Gson gson = new Gson();
+
+    @GetMapping
+    public ResponseEntity<?> listJobs(@RequestParam String userId) {
+        return new ResponseEntity<>(gson.toJson(jobService.listJobs(userId)), HttpStatus.OK);
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId, @RequestParam String userId) {
+        FileJob job = jobService.getJob(jobId, userId);
+        if (job == null) {
+            return notFound();
+        }
+        return new ResponseEntity<>(gson.toJson(job), HttpStatus.OK);
+    }
+
+    @DeleteMapping("/{jobId}")
+    public ResponseEntity<?> cancel(@PathVariable String jobId, @RequestParam String userId) {
+        FileJob job = jobService.cancel(jobId, userId);
+        if (job == null) {
+            return notFound();
+        }
+        return new ResponseEntity<>(gson.toJson(job), HttpStatus.OK);
+    }
+
+    private ResponseEntity<?> notFound() {
+        Map<String, String> response = new HashMap<>();
+        response.put("message", "任务不存在");
+        return new ResponseEntity<>(gson.toJson(response), HttpStatus.NOT_FOUND);
+    }
+}
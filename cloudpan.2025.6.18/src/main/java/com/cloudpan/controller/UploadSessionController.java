@@ -0,0 +1,121 @@
+package com.cloudpan.controller;
+
+import com.cloudpan.config.AuthInterceptor;
+import com.cloudpan.entity.UploadSession;
+import com.cloudpan.service.UploadSessionService;
+import com.google.gson.Gson;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
+import org.apache.hadoop.security.AccessControlException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.FileNotFoundException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+//分片上传接口：POST 初始化/续传，PUT 上传第N片，POST commit 提交，DELETE 放弃
+@RestController
+@RequestMapping("/file/upload/session")
+public class UploadSessionController {
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+    private final Gson gson = new Gson();
+
+    @PostMapping
+    public ResponseEntity<?> init(@RequestBody UploadSessionService.InitRequest request,
+                                  HttpServletRequest httpRequest) {
+        try {
+            request.setUserId(AuthInterceptor.currentUser(httpRequest));
+            UploadSession session = uploadSessionService.init(request);
+            return new ResponseEntity<>(gson.toJson(session), HttpStatus.OK);
+        } catch (Exception e) {
+            return error("上传会话创建失败", e);
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> status(@PathVariable String uploadId, @RequestParam String userId) {
+        try {
+            UploadSession session = uploadSessionService.status(uploadId, userId);
+            return new ResponseEntity<>(gson.toJson(session), HttpStatus.OK);
+        } catch (Exception e) {
+            return error("上传会话查询失败", e);
+        }
+    }
+
+    // 请求体就是分片的原始字节（application/octet-stream），在传输线程中边读边写入HDFS
+    @PutMapping("/{uploadId}/chunk/{index}")
+    public Callable<ResponseEntity<?>> uploadChunk(@PathVariable String uploadId,
+                                                   @PathVariable int index,
+                                                   @RequestParam String userId,
+                                                   HttpServletRequest request) {
+        return () -> {
+            try {
+                uploadSessionService.writeChunk(uploadId, userId, index, request.getInputStream(),
+                        request.getContentLengthLong());
+                Map<String, String> response = new HashMap<>();
+                response.put("message", "分片上传成功");
+                return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+            } catch (Exception e) {
+                return error("分片上传失败", e);
+            }
+        };
+    }
+
+    @PostMapping("/{uploadId}/commit")
+    public ResponseEntity<?> commit(@PathVariable String uploadId, @RequestParam String userId) {
+        try {
+            String result = uploadSessionService.commit(uploadId, userId);
+            return new ResponseEntity<>(result, HttpStatus.OK);
+        } catch (Exception e) {
+            return error("文件上传失败", e);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> abort(@PathVariable String uploadId, @RequestParam String userId) {
+        try {
+            uploadSessionService.abort(uploadId, userId);
+            Map<String, String> response = new HashMap<>();
+            response.put("message", "已取消上传");
+            return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
+        } catch (Exception e) {
+            return error("取消上传失败", e);
+        }
+    }
+
+    // 传输线程池已满，分片没有开始上传，客户端稍后重试这一片
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<?> transferBusy() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(gson.toJson(Collections.singletonMap("message", "传输繁忙，请稍后重试")));
+    }
+
+    private ResponseEntity<?> error(String prefix, Exception e) {
+        HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
+        if (e instanceof IllegalArgumentException) {
+            status = HttpStatus.BAD_REQUEST;
+        } else if (e instanceof AccessControlException) {
+            status = HttpStatus.FORBIDDEN;
+        } else if (e instanceof FileNotFoundException) {
+            status = HttpStatus.NOT_FOUND;
+        } else if (e instanceof FileAlreadyExistsException || e instanceof IllegalStateException) {
+            status = HttpStatus.CONFLICT;
+        } else if (e instanceof QuotaExceededException) {
+            status = HttpStatus.INSUFFICIENT_STORAGE;
+        }
+        Map<String, String> response = new HashMap<>();
+        response.put("message", prefix + ": " + e.getMessage());
+        return new ResponseEntity<>(gson.toJson(response), status);
+    }
+}
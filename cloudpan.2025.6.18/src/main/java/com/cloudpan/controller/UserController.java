@@ -12,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import com.cloudpan.service.TokenService;
 import com.cloudpan.service.UserService;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -22,6 +23,8 @@ import java.net.URI;
 public class UserController {
     @Autowired
     private UserService userService;
+    @Autowired
+    private TokenService tokenService;
 
     @PostMapping("/register")
     public ResponseEntity<?> register(@RequestBody User user) {
@@ -30,11 +33,14 @@ public class UserController {
             if (result.startsWith("注册成功")) {
                 // 从返回结果中提取userId
                 String[] parts = result.split(",");
-                return new ResponseEntity<>(new RegisterResponse("注册成功",parts[1]), HttpStatus.CREATED);
+                return new ResponseEntity<>(new RegisterResponse("注册成功",parts[1], tokenService.issue(parts[1])), HttpStatus.CREATED);
+            }
+            if (UserService.BUSY.equals(result)) {
+                return new ResponseEntity<>(new RegisterResponse(result, null, null), HttpStatus.SERVICE_UNAVAILABLE);
             }
-            return new ResponseEntity<>(new RegisterResponse(result, null), HttpStatus.BAD_REQUEST);
+            return new ResponseEntity<>(new RegisterResponse(result, null, null), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
-            return new ResponseEntity<>(new RegisterResponse("注册失败", null), HttpStatus.INTERNAL_SERVER_ERROR);
+            return new ResponseEntity<>(new RegisterResponse("注册失败", null, null), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
@@ -45,13 +51,18 @@ public class UserController {
             if (result.startsWith("登录成功")) {
                 // 从返回结果中提取userId
                 String[] parts = result.split(",");
-                return new ResponseEntity<>(new LoginResponse("登录成功", parts[1]), HttpStatus.OK);
+                // 之后的文件接口都凭令牌鉴权：Authorization: Bearer <token>
+                return new ResponseEntity<>(new LoginResponse("登录成功", parts[1], tokenService.issue(parts[1])),
+                        HttpStatus.OK);
             } else if (result.startsWith("密码错误")) {
-                return new ResponseEntity<>(new LoginResponse("密码错误", null), HttpStatus.UNAUTHORIZED);
+                return new ResponseEntity<>(new LoginResponse("密码错误", null, null), HttpStatus.UNAUTHORIZED);
+            } else if (UserService.BUSY.equals(result)) {
+                // 口令校验线程池已满，让客户端稍后重试
+                return new ResponseEntity<>(new LoginResponse(result, null, null), HttpStatus.SERVICE_UNAVAILABLE);
             }
-            return new ResponseEntity<>(new LoginResponse(result, null), HttpStatus.UNAUTHORIZED);
+            return new ResponseEntity<>(new LoginResponse(result, null, null), HttpStatus.UNAUTHORIZED);
         } catch (Exception e) {
-            return new ResponseEntity<>(new LoginResponse("登录失败", null), HttpStatus.INTERNAL_SERVER_ERROR);
+            return new ResponseEntity<>(new LoginResponse("登录失败", null, null), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
@@ -59,10 +70,12 @@ public class UserController {
     private static class UserResponse {
         private String status;
         private String userId;
+        private String token;
 
-        public UserResponse(String status, String userId) {
+        public UserResponse(String status, String userId, String token) {
             this.status = status;
             this.userId = userId;
+            this.token = token;
         }
 
         public String getStatus() {
@@ -72,17 +85,21 @@ public class UserController {
         public String getUserId() {
             return userId;
         }
+
+        public String getToken() {
+            return token;
+        }
     }
 
     private static class LoginResponse extends UserResponse {
-        public LoginResponse(String status, String userId) {
-            super(status, userId);
+        public LoginResponse(String status, String userId, String token) {
+            super(status, userId, token);
         }
     }
 
     private static class RegisterResponse extends UserResponse {
-        public RegisterResponse(String status, String userId) {
-            super(status, userId);
+        public RegisterResponse(String status, String userId, String token) {
+            super(status, userId, token);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.cloudpan.entity;
+
+import javax.persistence.*;
+
+//去重存储中的一份内容：按 SHA-256 只存一次，refCount 为引用它的逻辑文件数，降到0时删除
+@Entity
+@Table(name = "cloudpan_blob")
+public class Blob {
+    @Id
+    @Column(length = 64)
+    private String sha256;
+    // HDFS 上的实际文件，文件名带随机后缀，同一内容被删除后再上传不会与旧文件冲突
+    @Column(nullable = false, length = 1024)
+    private String path;
+    private long size;
+    private long refCount;
+    private long createdAt;
+    // 仅用于让 JPA 把新对象当作插入（主键是自己指定的），并发插入同一内容时由主键冲突判定
+    @Version
+    private Long version;
+
+    public Blob() {
+    }
+
+    public Blob(String sha256, String path, long size) {
+        this.sha256 = sha256;
+        this.path = path;
+        this.size = size;
+        this.refCount = 1;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,40 @@
+package com.cloudpan.entity;
+
+import javax.persistence.*;
+
+//逻辑文件到内容的引用：path 是用户看到的HDFS路径（不含scheme），那里只有一个0字节的占位文件
+@Entity
+@Table(name = "cloudpan_blob_ref",
+        indexes = {
+                @Index(name = "ux_cloudpan_blob_ref_path", columnList = "path", unique = true),
+                @Index(name = "ix_cloudpan_blob_ref_sha256", columnList = "sha256")
+        })
+public class BlobRef {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Column(nullable = false, length = 1024)
+    private String path;
+    @Column(nullable = false, length = 64)
+    private String sha256;
+
+    public BlobRef() {
+    }
+
+    public BlobRef(String path, String sha256) {
+        this.path = path;
+        this.sha256 = sha256;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+}
@@ -3,6 +3,9 @@ package com.cloudpan.entity;
 import java.util.Objects;
 
 public class CloudFile {
+    public static final String TYPE_FILE = "file";
+    public static final String TYPE_DIR = "dir";
+
     public String fileName;
     public Long fileSize;
     public String filePath;
@@ -10,6 +13,10 @@ public class CloudFile {
     public String uploadPath;
     // 新增本地路径属性
     public String localPath;
+    // 以下来自 FileStatus，列目录时填充
+    public Long modificationTime;
+    public String type;
+    public Short replication;
 
     public CloudFile() {
     }
@@ -48,6 +55,18 @@ public class CloudFile {
         return localPath;
     }
 
+    public Long getModificationTime() {
+        return modificationTime;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Short getReplication() {
+        return replication;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -58,12 +77,16 @@ public class CloudFile {
                 Objects.equals(filePath, cloudFile.filePath) &&
                 Objects.equals(userId, cloudFile.userId) &&
                 Objects.equals(uploadPath, cloudFile.uploadPath) &&
-                Objects.equals(localPath, cloudFile.localPath);
+                Objects.equals(localPath, cloudFile.localPath) &&
+                Objects.equals(modificationTime, cloudFile.modificationTime) &&
+                Objects.equals(type, cloudFile.type) &&
+                Objects.equals(replication, cloudFile.replication);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(fileName, fileSize, filePath, userId, uploadPath, localPath);
+        return Objects.hash(fileName, fileSize, filePath, userId, uploadPath, localPath,
+                modificationTime, type, replication);
     }
 
     public static class CloudFileBuilder {
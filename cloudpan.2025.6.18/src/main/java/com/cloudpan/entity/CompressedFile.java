@@ -0,0 +1,50 @@
+package com.cloudpan.entity;
+
+import javax.persistence.*;
+
+//压缩存储的文件：HDFS上是分块压缩后的数据，这里记录所用的编解码器和原始大小，列目录和下载时使用原始大小
+//块索引保存在文件末尾，不在数据库中
+@Entity
+@Table(name = "cloudpan_compressed_file",
+        indexes = @Index(name = "ux_cloudpan_compressed_file_path", columnList = "path", unique = true))
+public class CompressedFile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Column(nullable = false, length = 1024)
+    private String path;
+    @Column(nullable = false, length = 64)
+    private String codec;
+    private long rawSize;
+    private long storedSize;
+
+    public CompressedFile() {
+    }
+
+    public CompressedFile(String path, String codec, long rawSize, long storedSize) {
+        this.path = path;
+        this.codec = codec;
+        this.rawSize = rawSize;
+        this.storedSize = storedSize;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public long getRawSize() {
+        return rawSize;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+}
@@ -0,0 +1,200 @@
+package com.cloudpan.entity;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//后台文件任务（复制、移动、递归删除）的状态与进度，以JSON形式持久化，服务重启后未完成的任务会重新执行
+public class FileJob {
+    public static final String COPY = "COPY";
+    public static final String MOVE = "MOVE";
+    public static final String DELETE = "DELETE";
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String SUCCEEDED = "SUCCEEDED";
+    public static final String FAILED = "FAILED";
+    public static final String CANCELLED = "CANCELLED";
+
+    private String jobId;
+    private String userId;
+    private String type;
+    private String source;
+    private String target;
+    // 执行该任务的Web节点，重启恢复时各节点只认领自己的任务和已失联节点的任务
+    private String owner;
+    private volatile String state = QUEUED;
+    private volatile String message;
+    private volatile long totalBytes;
+    private volatile long totalFiles;
+    private final AtomicLong doneBytes = new AtomicLong();
+    private final AtomicLong doneFiles = new AtomicLong();
+    private long createdAt;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    // 预计剩余秒数，查询时根据已完成字节数估算，-1表示未知
+    private volatile long etaSeconds = -1;
+
+    // 以下字段只在内存中使用，不参与持久化
+    private transient volatile boolean cancelRequested;
+    private transient volatile boolean persisted;
+    private transient final CountDownLatch done = new CountDownLatch(1);
+
+    public FileJob() {
+    }
+
+    public FileJob(String jobId, String userId, String type, String source, String target) {
+        this.jobId = jobId;
+        this.userId = userId;
+        this.type = type;
+        this.source = source;
+        this.target = target;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    // 参数校验未通过、没有真正提交的任务
+    public static FileJob rejected(String type, String message) {
+        FileJob job = new FileJob(null, null, type, null, null);
+        job.finish(FAILED, message);
+        return job;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    public void setTotalFiles(long totalFiles) {
+        this.totalFiles = totalFiles;
+    }
+
+    public long getDoneBytes() {
+        return doneBytes.get();
+    }
+
+    public long getDoneFiles() {
+        return doneFiles.get();
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public boolean isFinished() {
+        return !QUEUED.equals(state) && !RUNNING.equals(state);
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    public boolean isPersisted() {
+        return persisted;
+    }
+
+    public void setPersisted(boolean persisted) {
+        this.persisted = persisted;
+    }
+
+    public void addDoneBytes(long bytes) {
+        doneBytes.addAndGet(bytes);
+    }
+
+    public void addDoneFile() {
+        doneFiles.incrementAndGet();
+    }
+
+    // 重新执行前清零进度（服务重启后恢复的任务）
+    public void reset() {
+        doneBytes.set(0);
+        doneFiles.set(0);
+        state = QUEUED;
+        startedAt = 0;
+        etaSeconds = -1;
+    }
+
+    public void start() {
+        this.startedAt = System.currentTimeMillis();
+        this.state = RUNNING;
+    }
+
+    public void finish(String state, String message) {
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+        this.etaSeconds = 0;
+        this.state = state;
+        done.countDown();
+    }
+
+    public boolean awaitFinish(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void refreshEta() {
+        long bytes = doneBytes.get();
+        if (!RUNNING.equals(state) || bytes <= 0 || totalBytes <= 0) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - startedAt;
+        etaSeconds = elapsed * (totalBytes - bytes) / bytes / 1000;
+    }
+}
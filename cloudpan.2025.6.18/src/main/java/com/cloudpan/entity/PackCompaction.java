@@ -0,0 +1,40 @@
+package com.cloudpan.entity;
+
+import javax.persistence.*;
+
+//容器的压缩状态，各Web节点共用：改写前先插入一行认领（主键冲突说明其他节点已在改写），
+//改写完成后记下退役时间，任何节点都要等宽限期过后才删除旧容器，正在读旧容器的下载不受影响
+@Entity
+@Table(name = "cloudpan_pack_compaction")
+public class PackCompaction {
+    // 旧容器路径，不含 scheme
+    @Id
+    @Column(length = 1024)
+    private String container;
+    private long claimedAt;
+    // 0 表示仍在改写
+    private long retiredAt;
+    // 仅用于让 JPA 把新对象当作插入（主键是自己指定的），并发认领同一容器时由主键冲突判定
+    @Version
+    private Long version;
+
+    public PackCompaction() {
+    }
+
+    public PackCompaction(String container, long claimedAt) {
+        this.container = container;
+        this.claimedAt = claimedAt;
+    }
+
+    public String getContainer() {
+        return container;
+    }
+
+    public long getClaimedAt() {
+        return claimedAt;
+    }
+
+    public long getRetiredAt() {
+        return retiredAt;
+    }
+}
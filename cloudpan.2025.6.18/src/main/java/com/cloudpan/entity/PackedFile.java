@@ -0,0 +1,77 @@
+package com.cloudpan.entity;
+
+import javax.persistence.*;
+
+//打包存储的小文件：内容是容器文件中 [start, start + size) 的一段，本身没有HDFS文件
+//path 和 parent 都不含 scheme；按 parent + name 建索引，列目录时按名称顺序分批读取
+@Entity
+@Table(name = "cloudpan_packed_file",
+        indexes = {
+                @Index(name = "ux_cloudpan_packed_file_path", columnList = "path", unique = true),
+                @Index(name = "ix_cloudpan_packed_file_parent", columnList = "parent,name"),
+                @Index(name = "ix_cloudpan_packed_file_container", columnList = "container")
+        })
+public class PackedFile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Column(nullable = false, length = 1024)
+    private String path;
+    @Column(nullable = false, length = 1024)
+    private String parent;
+    @Column(nullable = false)
+    private String name;
+    @Column(nullable = false, length = 1024)
+    private String container;
+    @Column(name = "slice_start")
+    private long start;
+    @Column(name = "slice_size")
+    private long size;
+    private long modificationTime;
+
+    public PackedFile() {
+    }
+
+    public PackedFile(String path, String parent, String name, String container, long start, long size,
+                      long modificationTime) {
+        this.path = path;
+        this.parent = parent;
+        this.name = name;
+        this.container = container;
+        this.start = start;
+        this.size = size;
+        this.modificationTime = modificationTime;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContainer() {
+        return container;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModificationTime() {
+        return modificationTime;
+    }
+}
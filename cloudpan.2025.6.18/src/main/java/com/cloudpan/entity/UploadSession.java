@@ -0,0 +1,110 @@
+package com.cloudpan.entity;
+
+import java.util.List;
+
+//分片上传会话，元数据以JSON形式保存在HDFS暂存目录中，服务重启后仍可续传
+public class UploadSession {
+    private String uploadId;
+    private String userId;
+    private String uploadPath;
+    private String fileName;
+    private long fileSize;
+    private long chunkSize;
+    private int totalChunks;
+    private long createdAt;
+    // 初始化时预占的配额（字节），放弃或过期时退回
+    private long reservedBytes;
+    // 已确认的分片序号，由暂存目录中的分片文件推算，只在返回给前端时填充，不写入元数据文件
+    private List<Integer> uploadedChunks;
+
+    public UploadSession() {
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUploadPath() {
+        return uploadPath;
+    }
+
+    public void setUploadPath(String uploadPath) {
+        this.uploadPath = uploadPath;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public void setTotalChunks(int totalChunks) {
+        this.totalChunks = totalChunks;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public void setReservedBytes(long reservedBytes) {
+        this.reservedBytes = reservedBytes;
+    }
+
+    public List<Integer> getUploadedChunks() {
+        return uploadedChunks;
+    }
+
+    public void setUploadedChunks(List<Integer> uploadedChunks) {
+        this.uploadedChunks = uploadedChunks;
+    }
+
+    // 第 index 个分片应有的字节数，最后一个分片可能不满
+    public long chunkLength(int index) {
+        if (index < totalChunks - 1) {
+            return chunkSize;
+        }
+        return fileSize - chunkSize * (totalChunks - 1);
+    }
+}
@@ -2,9 +2,19 @@ package com.cloudpan.entity;
 
 import com.google.gson.Gson;
 
+import javax.persistence.*;
+
+//用户表：userId 为主键，username 上有唯一索引，登录按用户名走索引查询
+@Entity
+@Table(name = "cloudpan_user",
+        indexes = @Index(name = "ux_cloudpan_user_username", columnList = "username", unique = true))
 public class User {
+    @Column(nullable = false)
     private String username;
+    @Column(nullable = false)
     private String password;
+    @Id
+    @Column(length = 64)
     private String userId;
 
     // 添加无参构造函数
@@ -0,0 +1,44 @@
+package com.cloudpan.entity;
+
+import javax.persistence.*;
+
+//用户已用空间（用户看到的字节数）：各Web节点把本节点的增量定期累加进来，核对时按实际大小修正
+@Entity
+@Table(name = "cloudpan_user_usage")
+public class UserUsage {
+    @Id
+    @Column(length = 255)
+    private String userId;
+    private long usedBytes;
+    // 单独设置的配额（字节），为空时使用 cloudpan.quota.default-bytes，0 表示不限
+    private Long quotaBytes;
+    // 上次核对的时间，同一周期内其他节点不再重复核对
+    private long reconciledAt;
+    // 仅用于让 JPA 把新对象当作插入（主键是自己指定的），并发插入同一用户时由主键冲突判定
+    @Version
+    private Long version;
+
+    public UserUsage() {
+    }
+
+    public UserUsage(String userId, long usedBytes) {
+        this.userId = userId;
+        this.usedBytes = usedBytes;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public Long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public long getReconciledAt() {
+        return reconciledAt;
+    }
+}
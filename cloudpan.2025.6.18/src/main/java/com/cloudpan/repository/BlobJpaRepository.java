@@ -0,0 +1,28 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface BlobJpaRepository extends JpaRepository<Blob, String> {
+    // 返回更新的行数，0 表示该内容不存在（或刚被删除）
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount + :delta where b.sha256 = :sha256")
+    int addRefCount(@Param("sha256") String sha256, @Param("delta") long delta);
+
+    @Query("select b from Blob b where b.sha256 in :sha256s and b.refCount <= 0")
+    List<Blob> findUnreferenced(@Param("sha256s") Collection<String> sha256s);
+
+    @Modifying
+    @Query("delete from Blob b where b.sha256 in :sha256s and b.refCount <= 0")
+    int deleteUnreferenced(@Param("sha256s") Collection<String> sha256s);
+
+    // 按逻辑路径找到它引用的内容
+    @Query("select b from Blob b, BlobRef r where r.sha256 = b.sha256 and r.path = :path")
+    Blob findByRefPath(@Param("path") String path);
+}
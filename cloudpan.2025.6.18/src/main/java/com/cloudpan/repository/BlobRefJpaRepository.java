@@ -0,0 +1,27 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.BlobRef;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface BlobRefJpaRepository extends JpaRepository<BlobRef, Long> {
+    // 路径本身及其下所有引用；prefix 为 "<path>/" 且已用 ! 转义 LIKE 通配符
+    @Query("select r from BlobRef r where r.path = :path or r.path like :prefix escape '!'")
+    List<BlobRef> findTree(@Param("path") String path, @Param("prefix") String prefix);
+
+    // 每行为 [path, size]
+    @Query("select r.path, b.size from BlobRef r, Blob b where r.sha256 = b.sha256 and r.path in :paths")
+    List<Object[]> findSizes(@Param("paths") Collection<String> paths);
+
+    // 目录改名/移动：把前缀 from 换成 to，一条语句完成
+    @Modifying
+    @Query("update BlobRef r set r.path = concat(:to, substring(r.path, :fromLength + 1)) "
+            + "where r.path = :from or r.path like :prefix escape '!'")
+    int relocate(@Param("from") String from, @Param("prefix") String prefix,
+                 @Param("fromLength") int fromLength, @Param("to") String to);
+}
@@ -0,0 +1,27 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.CompressedFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface CompressedFileJpaRepository extends JpaRepository<CompressedFile, Long> {
+    CompressedFile findByPath(String path);
+
+    List<CompressedFile> findByPathIn(Collection<String> paths);
+
+    // 路径本身及其下所有文件；prefix 为 "<path>/%" 且已用 ! 转义 LIKE 通配符
+    @Query("select c from CompressedFile c where c.path = :path or c.path like :prefix escape '!'")
+    List<CompressedFile> findTree(@Param("path") String path, @Param("prefix") String prefix);
+
+    // 改名/移动：把前缀 from 换成 to，一条语句完成
+    @Modifying
+    @Query("update CompressedFile c set c.path = concat(:to, substring(c.path, :fromLength + 1)) "
+            + "where c.path = :from or c.path like :prefix escape '!'")
+    int relocate(@Param("from") String from, @Param("prefix") String prefix,
+                 @Param("fromLength") int fromLength, @Param("to") String to);
+}
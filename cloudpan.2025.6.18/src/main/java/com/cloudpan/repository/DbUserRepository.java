@@ -0,0 +1,51 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.User;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+//内嵌数据库（H2）中的用户表：登录是一次索引查询，并发注册同名用户由唯一索引拒绝
+@Component
+public class DbUserRepository implements UserRepository {
+    private final UserJpaRepository jpaRepository;
+
+    public DbUserRepository(UserJpaRepository jpaRepository) {
+        this.jpaRepository = jpaRepository;
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        return jpaRepository.findByUsername(username).orElse(null);
+    }
+
+    @Override
+    public boolean create(User user) {
+        try {
+            // 立即刷新，唯一索引冲突在这里抛出而不是推迟到事务提交
+            jpaRepository.saveAndFlush(user);
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void update(User user) {
+        jpaRepository.save(user);
+    }
+
+    // 批量导入，用户名已存在的跳过；返回实际导入的数量
+    public int importUsers(List<User> users) {
+        Map<String, User> byUsername = new LinkedHashMap<>();
+        for (User user : users) {
+            byUsername.putIfAbsent(user.getUsername(), user);
+        }
+        for (String existing : jpaRepository.findExistingUsernames(byUsername.keySet())) {
+            byUsername.remove(existing);
+        }
+        jpaRepository.saveAll(byUsername.values());
+        return byUsername.size();
+    }
+}
@@ -0,0 +1,71 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.User;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.*;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+//旧格式：HDFS /user_data/<username>.json，每个用户一个小文件
+//保留用于数据迁移，以及 cloudpan.users.store=hdfs 时继续使用
+@Component
+public class HdfsUserRepository implements UserRepository {
+    public static final String USER_DIR = "/user_data";
+
+    private final HdfsClientPool hdfsClientPool;
+
+    public HdfsUserRepository(HdfsClientPool hdfsClientPool) {
+        this.hdfsClientPool = hdfsClientPool;
+    }
+
+    // 直接 open，文件不存在时由 FileNotFoundException 判断，省掉一次 exists
+    @Override
+    public User findByUsername(String username) throws IOException {
+        try {
+            return read(userFile(username));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    // create(overwrite=false) 由 NameNode 原子地判断文件是否已存在，没有先查后建的竞态
+    @Override
+    public boolean create(User user) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        try (OutputStreamWriter writer = new OutputStreamWriter(
+                fs.create(userFile(user.getUsername()), false), StandardCharsets.UTF_8)) {
+            writer.write(user.toJson());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void update(User user) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        try (OutputStreamWriter writer = new OutputStreamWriter(
+                fs.create(userFile(user.getUsername()), true), StandardCharsets.UTF_8)) {
+            writer.write(user.toJson());
+        }
+    }
+
+    public RemoteIterator<FileStatus> listUserFiles() throws IOException {
+        return hdfsClientPool.get().listStatusIterator(new Path(USER_DIR));
+    }
+
+    public User read(Path userFile) throws IOException {
+        try (FSDataInputStream in = hdfsClientPool.get().open(userFile)) {
+            return User.fromJson(IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Path userFile(String username) {
+        return new Path(USER_DIR, username + ".json");
+    }
+}
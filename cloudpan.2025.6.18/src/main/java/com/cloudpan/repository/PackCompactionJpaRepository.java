@@ -0,0 +1,18 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.PackCompaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface PackCompactionJpaRepository extends JpaRepository<PackCompaction, String> {
+    @Modifying
+    @Query("update PackCompaction c set c.retiredAt = :retiredAt where c.container = :container")
+    int markRetired(@Param("container") String container, @Param("retiredAt") long retiredAt);
+
+    // 其他节点可能已经删掉了这一行，返回 0 即可
+    @Modifying
+    @Query("delete from PackCompaction c where c.container = :container")
+    int release(@Param("container") String container);
+}
@@ -0,0 +1,50 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.PackedFile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface PackedFileJpaRepository extends JpaRepository<PackedFile, Long> {
+    PackedFile findByPath(String path);
+
+    boolean existsByPath(String path);
+
+    List<PackedFile> findByParentOrderByNameAsc(String parent);
+
+    // 分批按名称顺序读取一个目录，after 为上一批的最后一个名称
+    List<PackedFile> findByParentAndNameGreaterThanOrderByNameAsc(String parent, String after, Pageable page);
+
+    List<PackedFile> findByContainerOrderByStartAsc(String container);
+
+    // 路径本身及其下所有文件；prefix 为 "<path>/%" 且已用 ! 转义 LIKE 通配符
+    @Query("select p from PackedFile p where p.path = :path or p.path like :prefix escape '!'")
+    List<PackedFile> findTree(@Param("path") String path, @Param("prefix") String prefix);
+
+    // 每行为 [container, 仍被引用的字节数]
+    @Query("select p.container, sum(p.size) from PackedFile p group by p.container")
+    List<Object[]> sumSizeByContainer();
+
+    // 目录改名/移动：目录下所有文件的 path 和 parent 换前缀
+    @Modifying
+    @Query("update PackedFile p set p.path = concat(:to, substring(p.path, :fromLength + 1)), "
+            + "p.parent = concat(:to, substring(p.parent, :fromLength + 1)) where p.path like :prefix escape '!'")
+    int relocateTree(@Param("prefix") String prefix, @Param("fromLength") int fromLength, @Param("to") String to);
+
+    // 单个文件改名/移动
+    @Modifying
+    @Query("update PackedFile p set p.path = :to, p.parent = :toParent, p.name = :toName where p.path = :from")
+    int relocate(@Param("from") String from, @Param("to") String to,
+                 @Param("toParent") String toParent, @Param("toName") String toName);
+
+    // 压缩：内容搬到新容器；期间已被删除或改动过的记录不受影响
+    @Modifying
+    @Query("update PackedFile p set p.container = :to, p.start = :toStart "
+            + "where p.id = :id and p.container = :from and p.start = :fromStart")
+    int moveSlice(@Param("id") Long id, @Param("from") String from, @Param("fromStart") long fromStart,
+                  @Param("to") String to, @Param("toStart") long toStart);
+}
@@ -0,0 +1,18 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface UserJpaRepository extends JpaRepository<User, String> {
+    Optional<User> findByUsername(String username);
+
+    // 迁移时一次查出一批用户名中已存在的部分
+    @Query("select u.username from User u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+}
@@ -0,0 +1,17 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.User;
+
+import java.io.IOException;
+
+//用户存储：按用户名查找与创建用户，用户名唯一由存储自身保证，调用方不需要先查后建
+public interface UserRepository {
+    // 用户不存在时返回 null
+    User findByUsername(String username) throws IOException;
+
+    // 用户名已被占用时返回 false
+    boolean create(User user) throws IOException;
+
+    // 覆盖已有用户的记录（口令升级时使用）
+    void update(User user) throws IOException;
+}
@@ -0,0 +1,18 @@
+package com.cloudpan.repository;
+
+import com.cloudpan.entity.UserUsage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface UserUsageJpaRepository extends JpaRepository<UserUsage, String> {
+    // 返回更新的行数，0 表示该用户还没有记录
+    @Modifying
+    @Query("update UserUsage u set u.usedBytes = u.usedBytes + :delta where u.userId = :userId")
+    int addUsedBytes(@Param("userId") String userId, @Param("delta") long delta);
+
+    @Modifying
+    @Query("update UserUsage u set u.reconciledAt = :reconciledAt where u.userId = :userId")
+    int markReconciled(@Param("userId") String userId, @Param("reconciledAt") long reconciledAt);
+}
@@ -0,0 +1,267 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.OperationMetrics;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+//打包下载：边从HDFS读取边写出ZIP，不经过本地临时文件
+//  - 先收集要打包的项（只有状态，每项几百字节），文件夹用 TreeWalker 并行遍历；超过4GB或65535项时自动使用ZIP64
+//  - 写出当前文件时，后面若干个文件的开头一段已在预读线程池中并行读取，大量小文件时输出不会卡在逐个打开文件上
+//  - 内存上限为 预读文件数 × 预读字节数，与打包的总大小无关；更大的文件其余部分按缓冲区边读边写
+//  - 已压缩的内容（按文件头魔数判断）不再压缩：整个文件已预读时用 STORE，否则用不压缩的 DEFLATE 块
+@Service
+public class ArchiveService {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final HdfsClientPool hdfsClientPool;
+    private final FileService fileService;
+    private final TreeWalker treeWalker;
+    private final OperationMetrics metrics;
+    private final int maxEntries;
+    private final int prefetchFiles;
+    private final int prefetchBytes;
+    private final ExecutorService prefetchExecutor;
+
+    public ArchiveService(HdfsClientPool hdfsClientPool,
+                          FileService fileService,
+                          TreeWalker treeWalker,
+                          OperationMetrics metrics,
+                          @Value("${cloudpan.archive.max-entries:100000}") int maxEntries,
+                          @Value("${cloudpan.archive.prefetch-threads:8}") int prefetchThreads,
+                          @Value("${cloudpan.archive.prefetch-files:8}") int prefetchFiles,
+                          @Value("${cloudpan.archive.prefetch-bytes:1048576}") int prefetchBytes) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.fileService = fileService;
+        this.treeWalker = treeWalker;
+        this.metrics = metrics;
+        this.maxEntries = maxEntries;
+        this.prefetchFiles = Math.max(1, prefetchFiles);
+        this.prefetchBytes = prefetchBytes;
+        AtomicInteger counter = new AtomicInteger();
+        this.prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads, r -> {
+            Thread t = new Thread(r, "archive-prefetch-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 列出文件夹下要打包的项（含空目录），以文件夹名为顶层目录，按路径排序
+    // 文件夹不存在时抛出 FileNotFoundException，项数超过上限时抛出 IllegalStateException
+    public List<Entry> folderEntries(String userId, String uploadPath) throws IOException {
+        String rootPath = fileService.formatHdfsPath(userId, uploadPath);
+        Path root = new Path(rootPath);
+        FileSystem fs = hdfsClientPool.get();
+        if (!fs.getFileStatus(root).isDirectory()) {
+            throw new FileNotFoundException("不是文件夹: " + uploadPath);
+        }
+        // 主目录本身打包时不加顶层目录
+        String folderName = FilenameUtils.getName(rootPath.substring(fileService.userHome(userId).length()));
+        return collectTree(fs, root, folderName.isEmpty() ? "" : folderName + "/", new AtomicInteger());
+    }
+
+    // 列出选中的多个文件和文件夹，按选择顺序排列，各自以名称为顶层项，重名的加序号
+    // 任一项不存在时抛出 FileNotFoundException，项数超过上限时抛出 IllegalStateException
+    public List<Entry> selectionEntries(String userId, List<String> uploadPaths) throws IOException {
+        if (uploadPaths == null || uploadPaths.isEmpty()) {
+            throw new IllegalArgumentException("请选择要下载的文件");
+        }
+        FileSystem fs = hdfsClientPool.get();
+        String home = fileService.userHome(userId);
+        List<Entry> entries = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        AtomicInteger count = new AtomicInteger();
+        for (String uploadPath : uploadPaths) {
+            String rootPath = fileService.formatHdfsPath(userId, uploadPath);
+            String name = FilenameUtils.getName(rootPath.substring(home.length()));
+            Path root = new Path(rootPath);
+            FileStatus status;
+            try {
+                status = fs.getFileStatus(root);
+            } catch (FileNotFoundException e) {
+                status = null;
+            }
+            if (status != null && status.isDirectory()) {
+                name = uniqueName(name.isEmpty() ? userId : name, false, usedNames);
+                countEntry(count);
+                entries.add(new Entry(name + "/", status));
+                entries.addAll(collectTree(fs, root, name + "/", count));
+            } else {
+                // 单个文件（包括打包存储的小文件），不存在时抛出 FileNotFoundException
+                FileStatus file = fileService.getDownloadStatus(userId, uploadPath);
+                countEntry(count);
+                entries.add(new Entry(uniqueName(name, true, usedNames), file));
+            }
+        }
+        return entries;
+    }
+
+    private List<Entry> collectTree(FileSystem fs, Path root, String prefix, AtomicInteger count)
+            throws IOException {
+        String base = Path.getPathWithoutSchemeAndAuthority(root).toString();
+        List<Entry> entries = Collections.synchronizedList(new ArrayList<>());
+        treeWalker.walk(root, dir -> fileService.listReadable(fs, dir), status -> {
+            countEntry(count);
+            String relative = prefix + Path.getPathWithoutSchemeAndAuthority(status.getPath()).toString()
+                    .substring(base.length() + 1);
+            entries.add(new Entry(status.isDirectory() ? relative + "/" : relative, status));
+        }, () -> false);
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Entry::getName));
+        return sorted;
+    }
+
+    private void countEntry(AtomicInteger count) {
+        if (count.incrementAndGet() > maxEntries) {
+            throw new IllegalStateException("要打包的文件过多，无法打包下载（上限 " + maxEntries + " 项）");
+        }
+    }
+
+    // 重名时加序号：a.txt、a (2).txt；文件夹 docs、docs (2)
+    private static String uniqueName(String name, boolean file, Set<String> usedNames) {
+        String candidate = name;
+        String extension = file ? FilenameUtils.getExtension(name) : "";
+        String stem = extension.isEmpty() ? name : name.substring(0, name.length() - extension.length() - 1);
+        for (int i = 2; !usedNames.add(candidate); i++) {
+            candidate = stem + " (" + i + ")" + (extension.isEmpty() ? "" : "." + extension);
+        }
+        return candidate;
+    }
+
+    // 逐项写出ZIP：当前文件写出时，后面 prefetchFiles 个文件的开头已在并行读取
+    public void writeZip(List<Entry> entries, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+        Map<Integer, Future<Head>> heads = new HashMap<>();
+        int next = 0;
+        Timer.Sample sample = metrics.start();
+        LongTaskTimer.Sample active = metrics.startDownload();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                // 预读窗口向前滑动
+                for (; next < entries.size() && next < i + prefetchFiles; next++) {
+                    Entry upcoming = entries.get(next);
+                    if (!upcoming.getStatus().isDirectory()) {
+                        heads.put(next, prefetchExecutor.submit(() -> readHead(upcoming)));
+                    }
+                }
+                Entry entry = entries.get(i);
+                ZipEntry zipEntry = new ZipEntry(entry.getName());
+                zipEntry.setTime(entry.getStatus().getModificationTime());
+                if (entry.getStatus().isDirectory()) {
+                    zip.putNextEntry(zipEntry);
+                    zip.closeEntry();
+                    continue;
+                }
+                Head head = await(heads.remove(i));
+                long length = head.status.getLen();
+                boolean compressed = CompressionService.looksCompressed(head.data, head.data.length);
+                if (compressed && head.data.length == length) {
+                    // 整个文件都在内存中，先算出CRC，原样存储
+                    CRC32 crc = new CRC32();
+                    crc.update(head.data);
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(length);
+                    zipEntry.setCompressedSize(length);
+                    zipEntry.setCrc(crc.getValue());
+                } else {
+                    // 下载速度通常受网络限制，可压缩的用最快级别；已压缩的大文件写不压缩的块，几乎不耗CPU
+                    zip.setLevel(compressed ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+                }
+                zip.putNextEntry(zipEntry);
+                zip.write(head.data);
+                if (length > head.data.length) {
+                    fileService.writeRange(head.status, head.data.length, length - head.data.length, zip);
+                }
+                zip.closeEntry();
+            }
+            zip.finish();
+            zip.flush();
+            metrics.success(sample, OperationMetrics.ARCHIVE);
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(sample, OperationMetrics.ARCHIVE, e);
+            throw e;
+        } finally {
+            active.stop();
+            // 客户端中断时丢弃已经发出的预读
+            for (Future<Head> future : heads.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Head readHead(Entry entry) throws IOException {
+        FileStatus status = fileService.readable(entry.getStatus());
+        int length = (int) Math.min(status.getLen(), prefetchBytes);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(length);
+        if (length > 0) {
+            fileService.writeRange(status, 0, length, data);
+        }
+        return new Head(status, data.toByteArray());
+    }
+
+    private static Head await(Future<Head> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("打包下载被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    // 预读的结果：可读的文件状态和文件开头（小文件即全部内容）
+    private static class Head {
+        final FileStatus status;
+        final byte[] data;
+
+        Head(FileStatus status, byte[] data) {
+            this.status = status;
+            this.data = data;
+        }
+    }
+
+    public static class Entry {
+        private final String name;
+        private final FileStatus status;
+
+        public Entry(String name, FileStatus status) {
+            this.name = name;
+            this.status = status;
+        }
+
+        // ZIP中的路径，目录以 / 结尾
+        public String getName() {
+            return name;
+        }
+
+        public FileStatus getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.OperationMetrics;
+import com.cloudpan.entity.FileJob;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//批量删除、移动、复制：一次请求处理多个路径，逐项返回结果
+//  - 存在性检查按父目录合并：每个父目录只列一次（可命中目录列表缓存），代替逐项 exists；目标目录也只列一次
+//  - 删除、移动只是NameNode上的元数据操作，在有界线程池中并行直接执行
+//  - 复制可能搬运大量数据，整批一次交给任务引擎（一次同步等待、按一次提交计入排队上限），
+//    很快完成的直接返回结果，慢的转为后台任务并返回 jobId
+@Service
+public class BatchService {
+    private final HdfsClientPool hdfsClientPool;
+    private final FileService fileService;
+    private final JobService jobService;
+    private final ListingCache listingCache;
+    private final OperationMetrics metrics;
+    private final int maxItems;
+    private final ExecutorService executor;
+    private final Logger logger = LoggerFactory.getLogger(BatchService.class);
+
+    public BatchService(HdfsClientPool hdfsClientPool,
+                        FileService fileService,
+                        JobService jobService,
+                        ListingCache listingCache,
+                        OperationMetrics metrics,
+                        @Value("${cloudpan.batch.threads:8}") int threads,
+                        @Value("${cloudpan.batch.max-items:1000}") int maxItems) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.fileService = fileService;
+        this.jobService = jobService;
+        this.listingCache = listingCache;
+        this.metrics = metrics;
+        this.maxItems = maxItems;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public List<ItemResult> delete(BatchRequest request) throws IOException {
+        return run(FileJob.DELETE, request);
+    }
+
+    public List<ItemResult> move(BatchRequest request) throws IOException {
+        return run(FileJob.MOVE, request);
+    }
+
+    public List<ItemResult> copy(BatchRequest request) throws IOException {
+        return run(FileJob.COPY, request);
+    }
+
+    private List<ItemResult> run(String type, BatchRequest request) throws IOException {
+        String userId = request.getUserId();
+        List<String> paths = request.getPaths();
+        if (paths == null || paths.isEmpty()) {
+            throw new IllegalArgumentException("请选择要操作的文件");
+        }
+        if (paths.size() > maxItems) {
+            throw new IllegalArgumentException("一次最多操作 " + maxItems + " 项");
+        }
+        String home = fileService.userHome(userId);
+        FileSystem fs = hdfsClientPool.get();
+
+        Path targetDir = null;
+        Set<String> targetNames = new HashSet<>();
+        if (!FileJob.DELETE.equals(type)) {
+            if (request.getTargetUploadPath() == null) {
+                throw new IllegalArgumentException("缺少目标目录");
+            }
+            targetDir = new Path(fileService.formatHdfsPath(userId, request.getTargetUploadPath()));
+            fs.mkdirs(targetDir);
+            // 目标目录不用缓存：漏看一个刚出现的同名目录会让 rename 把源移进它里面
+            listingCache.invalidate(targetDir, false);
+            listingCache.invalidateParent(targetDir);
+            for (FileStatus status : fileService.listDirectory(targetDir)) {
+                targetNames.add(status.getPath().getName());
+            }
+        }
+
+        List<ItemResult> results = new ArrayList<>(paths.size());
+        Map<Path, Set<String>> siblings = new HashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        // 待复制的项，最后整批提交
+        List<Path> copySources = new ArrayList<>();
+        List<Path> copyTargets = new ArrayList<>();
+        List<ItemResult> copyResults = new ArrayList<>();
+        try {
+            for (String path : paths) {
+                ItemResult result = new ItemResult(path);
+                results.add(result);
+                Path source;
+                try {
+                    source = new Path(fileService.formatHdfsPath(userId, path));
+                } catch (IllegalArgumentException e) {
+                    result.finish(FileJob.FAILED, e.getMessage());
+                    continue;
+                }
+                if (HdfsOps.key(source).equals(HdfsOps.key(new Path(home)))) {
+                    result.finish(FileJob.FAILED, "不能操作主目录");
+                    continue;
+                }
+                // 同一父目录下的源只列一次
+                Set<String> names = siblings.get(source.getParent());
+                if (names == null) {
+                    try {
+                        names = new HashSet<>();
+                        for (FileStatus status : fileService.listDirectory(source.getParent())) {
+                            names.add(status.getPath().getName());
+                        }
+                    } catch (IOException e) {
+                        result.finish(FileJob.FAILED, e.getMessage());
+                        continue;
+                    }
+                    siblings.put(source.getParent(), names);
+                }
+                if (!names.contains(source.getName())) {
+                    result.finish(FileJob.FAILED, "文件不存在");
+                    continue;
+                }
+
+                Path target = null;
+                if (targetDir != null) {
+                    if (HdfsOps.isWithin(targetDir, source)) {
+                        result.finish(FileJob.FAILED, "不能移动或复制到自身或其子目录中");
+                        continue;
+                    }
+                    // 目标目录中已有的和本批中已占用的名称都不能再用
+                    if (!targetNames.add(source.getName())) {
+                        result.finish(FileJob.FAILED, "目标文件已存在");
+                        continue;
+                    }
+                    target = new Path(targetDir, source.getName());
+                }
+                if (FileJob.COPY.equals(type)) {
+                    copySources.add(source);
+                    copyTargets.add(target);
+                    copyResults.add(result);
+                    continue;
+                }
+                Path finalTarget = target;
+                futures.add(executor.submit(() -> execute(type, userId, fs, source, finalTarget, result)));
+            }
+            if (!copySources.isEmpty()) {
+                copy(userId, copySources, copyTargets, copyResults);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("批量操作被中断");
+        } catch (ExecutionException e) {
+            // execute 自己捕获了所有异常，不会到这里
+            throw new IOException(e.getCause());
+        } finally {
+            // 每个受影响的目录只失效一次
+            for (Path parent : siblings.keySet()) {
+                listingCache.invalidate(parent, false);
+            }
+            if (targetDir != null) {
+                listingCache.invalidate(targetDir, false);
+            }
+        }
+        return results;
+    }
+
+    // 删除、移动直接执行；复制由任务引擎执行和计时，见 copy
+    private void execute(String type, String userId, FileSystem fs, Path source, Path target, ItemResult result) {
+        String operation = type.toLowerCase(Locale.ROOT);
+        Timer.Sample sample = metrics.start();
+        try {
+            if (FileJob.DELETE.equals(type)) {
+                jobService.delete(userId, fs, source);
+            } else {
+                jobService.move(fs, source, target);
+            }
+            listingCache.invalidate(source, true);
+            result.finish(FileJob.SUCCEEDED, null);
+            metrics.success(sample, operation);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("批量{}失败 {}: {}", type, source, e.getMessage());
+            metrics.failure(sample, operation, e);
+            result.finish(FileJob.FAILED, e.getMessage());
+        }
+    }
+
+    private void copy(String userId, List<Path> sources, List<Path> targets, List<ItemResult> results) {
+        List<FileJob> jobs;
+        try {
+            jobs = jobService.submitAllAndWait(userId, FileJob.COPY, sources, targets);
+        } catch (RuntimeException e) {
+            // 该用户排队的任务已达上限，整批没有提交
+            logger.warn("批量复制失败: {}", e.getMessage());
+            for (ItemResult result : results) {
+                result.finish(FileJob.FAILED, e.getMessage());
+            }
+            return;
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            FileJob job = jobs.get(i);
+            if (job.isFinished()) {
+                results.get(i).finish(job.getState(), job.getMessage());
+            } else {
+                results.get(i).background(job.getJobId());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public static class BatchRequest {
+        private String userId;
+        private List<String> paths;
+        private String targetUploadPath;
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public void setUserId(String userId) {
+            this.userId = userId;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+
+        public String getTargetUploadPath() {
+            return targetUploadPath;
+        }
+
+        public void setTargetUploadPath(String targetUploadPath) {
+            this.targetUploadPath = targetUploadPath;
+        }
+    }
+
+    // 单项结果：state 为 SUCCEEDED / FAILED，转为后台的复制为 QUEUED 并带 jobId
+    public static class ItemResult {
+        private final String path;
+        private volatile String state;
+        private volatile String message;
+        private volatile String jobId;
+
+        ItemResult(String path) {
+            this.path = path;
+        }
+
+        void finish(String state, String message) {
+            this.state = state;
+            this.message = message;
+        }
+
+        void background(String jobId) {
+            this.state = FileJob.QUEUED;
+            this.jobId = jobId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.cloudpan.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+//传输缓冲区池：固定数量、固定大小的字节数组循环复用，上传下载不再每次分配新数组
+//缓冲区全部借出时调用方阻塞等待，相当于限制同时进行的传输数，服务器过载时对客户端形成背压
+//FSDataOutputStream 只接受 byte[]，用直接内存反而多一次拷贝，所以这里用堆内数组
+@Component
+public class BufferPool {
+    private final int bufferSize;
+    private final long acquireTimeoutMillis;
+    private final BlockingQueue<byte[]> buffers;
+
+    @Autowired
+    public BufferPool(@Value("${cloudpan.io.buffer-size:131072}") int bufferSize,
+                      @Value("${cloudpan.io.buffer-count:64}") int bufferCount,
+                      @Value("${cloudpan.io.buffer-timeout-ms:30000}") long acquireTimeoutMillis) {
+        this.bufferSize = bufferSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.buffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            buffers.add(new byte[bufferSize]);
+        }
+    }
+
+    public byte[] acquire() throws IOException {
+        try {
+            byte[] buffer = buffers.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (buffer == null) {
+                throw new IOException("服务器繁忙，请稍后重试");
+            }
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待传输缓冲区时被中断");
+        }
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int available() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,465 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.CompressedFile;
+import com.cloudpan.repository.CompressedFileJpaRepository;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.io.compress.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//透明压缩：上传时按块压缩写入HDFS，下载时解压，对调用方而言文件内容和大小不变
+//  - 编解码器取自 Hadoop 的 CompressionCodecFactory，按 cloudpan.compression.codecs 的顺序选第一个可用的（本地库缺失的跳过）
+//  - 先看文件头识别常见的已压缩格式（图片、音视频、压缩包），再试压第一块，压缩率不够的文件原样保存
+//  - 每块独立压缩，文件末尾是各块的偏移索引，Range 下载只解压覆盖到的块
+//文件格式：[块0][块1]...[索引: 每块起始偏移 long × 块数][索引偏移 long][原始大小 long][块数 int][原始块大小 int][魔数 int]
+@Service
+public class CompressionService {
+    private static final int MAGIC = 0x43504331;
+    private static final int TRAILER_BYTES = 8 + 8 + 4 + 4 + 4;
+    private static final int RESOLVE_BATCH = 500;
+    // 常见已压缩格式的文件头：{偏移, 字节...}
+    private static final int[][] COMPRESSED_SIGNATURES = {
+            {0, 0xFF, 0xD8, 0xFF},                          // JPEG
+            {0, 0x89, 'P', 'N', 'G'},                       // PNG
+            {0, 'G', 'I', 'F', '8'},                        // GIF
+            {0, 'P', 'K', 0x03, 0x04},                      // ZIP、docx/xlsx/pptx、jar、apk
+            {0, 0x1F, 0x8B},                                // gzip
+            {0, 'B', 'Z', 'h'},                             // bzip2
+            {0, 0xFD, '7', 'z', 'X', 'Z', 0x00},            // xz
+            {0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C},          // 7z
+            {0, 'R', 'a', 'r', '!'},                        // rar
+            {0, 0x28, 0xB5, 0x2F, 0xFD},                    // zstd
+            {0, 'I', 'D', '3'},                             // mp3
+            {0, 'O', 'g', 'g', 'S'},                        // ogg
+            {0, 'f', 'L', 'a', 'C'},                        // flac
+            {0, 0x1A, 0x45, 0xDF, 0xA3},                    // mkv、webm
+            {4, 'f', 't', 'y', 'p'},                        // mp4、mov、heic
+            {8, 'W', 'E', 'B', 'P'},                        // webp
+    };
+
+    private final HdfsClientPool hdfsClientPool;
+    private final CompressedFileJpaRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final String codecNames;
+    private final int blockSize;
+    private final double maxRatio;
+    // 读取时按文件记录的名称找编解码器，配置改过之后旧文件仍然可读
+    private final Map<String, CompressionCodec> codecs = new ConcurrentHashMap<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private CompressionCodecFactory codecFactory;
+    private CompressionCodec codec;
+    // 是否需要查询压缩记录：开启了压缩，或数据库里已有压缩文件
+    private volatile boolean indexed;
+
+    private final LongAdder compressedUploads = new LongAdder();
+    private final LongAdder skippedUploads = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(CompressionService.class);
+
+    public CompressionService(HdfsClientPool hdfsClientPool,
+                              CompressedFileJpaRepository repository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${cloudpan.compression.enabled:false}") boolean enabled,
+                              @Value("${cloudpan.compression.codecs:zstandard,lz4,snappy,gzip}") String codecNames,
+                              @Value("${cloudpan.compression.block-size:1048576}") int blockSize,
+                              @Value("${cloudpan.compression.max-ratio:0.9}") double maxRatio) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.repository = repository;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.codecNames = codecNames;
+        this.blockSize = blockSize;
+        this.maxRatio = maxRatio;
+    }
+
+    // 不带数据库的实例：不压缩，也没有记录需要查询，供基准程序直接构造 FileService 使用
+    public static CompressionService withoutIndex(HdfsClientPool hdfsClientPool) {
+        return new CompressionService(hdfsClientPool, null, null, false, "", 0, 0);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (repository == null) {
+            return;
+        }
+        codecFactory = new CompressionCodecFactory(hdfsClientPool.getConf());
+        if (enabled) {
+            codec = selectCodec();
+            if (codec == null) {
+                logger.warn("没有可用的压缩编解码器 ({})，上传不压缩", codecNames);
+            }
+        }
+        indexed = codec != null || repository.count() > 0;
+    }
+
+    public boolean isEnabled() {
+        return codec != null;
+    }
+
+    private CompressionCodec selectCodec() {
+        for (String name : codecNames.split(",")) {
+            CompressionCodec candidate = codecFactory.getCodecByName(name.trim());
+            if (candidate == null) {
+                continue;
+            }
+            try {
+                // 本地库缺失的编解码器在第一次使用时才报错，这里先试压一次
+                Compressor compressor = CodecPool.getCompressor(candidate);
+                try {
+                    compress(candidate, compressor, new byte[]{1, 2, 3}, 3, new ByteArrayOutputStream());
+                } finally {
+                    CodecPool.returnCompressor(compressor);
+                }
+                logger.info("上传压缩使用 {}", candidate.getClass().getSimpleName());
+                return candidate;
+            } catch (IOException | RuntimeException | LinkageError e) {
+                logger.info("压缩编解码器 {} 不可用: {}", name, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    // 写入 target：可压缩的内容分块压缩并登记，已压缩格式或压缩率不够的原样写入
+    public void write(FileSystem fs, Path target, InputStream in) throws IOException {
+        byte[] raw = new byte[blockSize];
+        int length = IOUtils.read(in, raw);
+        if (length == 0 || looksCompressed(raw, length)) {
+            writePlain(fs, target, raw, length, in);
+            return;
+        }
+        Compressor compressor = CodecPool.getCompressor(codec);
+        try {
+            ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize);
+            long cpuBegin = cpuTime();
+            byte[] compressed = compress(codec, compressor, raw, length, block);
+            long cpu = cpuTime() - cpuBegin;
+            if (compressed.length > length * maxRatio) {
+                writePlain(fs, target, raw, length, in);
+                return;
+            }
+
+            List<Long> offsets = new ArrayList<>();
+            long rawSize = 0;
+            long storedSize;
+            // create 放在 try 外：目标已存在时原样抛出，不能把别人的文件当成写了一半的删掉
+            FSDataOutputStream created = fs.create(target, false);
+            try (FSDataOutputStream out = created) {
+                while (true) {
+                    offsets.add(out.getPos());
+                    out.write(compressed);
+                    rawSize += length;
+                    length = IOUtils.read(in, raw);
+                    if (length == 0) {
+                        break;
+                    }
+                    cpuBegin = cpuTime();
+                    compressed = compress(codec, compressor, raw, length, block);
+                    cpu += cpuTime() - cpuBegin;
+                }
+                long indexOffset = out.getPos();
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                out.writeLong(indexOffset);
+                out.writeLong(rawSize);
+                out.writeInt(offsets.size());
+                out.writeInt(blockSize);
+                out.writeInt(MAGIC);
+                storedSize = out.getPos();
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(fs, target);
+                throw e;
+            }
+            try {
+                repository.saveAndFlush(new CompressedFile(HdfsOps.key(target), codecName(codec), rawSize, storedSize));
+            } catch (RuntimeException e) {
+                deleteQuietly(fs, target);
+                throw e;
+            }
+            indexed = true;
+            compressedUploads.increment();
+            rawBytes.add(rawSize);
+            storedBytes.add(storedSize);
+            cpuNanos.add(cpu);
+            logger.info("压缩上传 {}: {} -> {} 字节（{}%），压缩耗CPU {} ms", target.getName(), rawSize, storedSize,
+                    rawSize == 0 ? 100 : storedSize * 100 / rawSize, TimeUnit.NANOSECONDS.toMillis(cpu));
+        } finally {
+            CodecPool.returnCompressor(compressor);
+        }
+    }
+
+    // 已读出的第一块加上剩余的输入流，原样写入
+    private void writePlain(FileSystem fs, Path target, byte[] head, int length, InputStream in) throws IOException {
+        skippedUploads.increment();
+        FSDataOutputStream created = fs.create(target, false);
+        try (FSDataOutputStream out = created) {
+            out.write(head, 0, length);
+            int bytesRead;
+            while ((bytesRead = in.read(head)) > 0) {
+                out.write(head, 0, bytesRead);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(fs, target);
+            throw e;
+        }
+    }
+
+    // 按文件头的魔数判断是否已是压缩格式（图片、音视频、压缩包等），打包下载也据此决定是否再压缩
+    static boolean looksCompressed(byte[] data, int length) {
+        for (int[] signature : COMPRESSED_SIGNATURES) {
+            int offset = signature[0];
+            if (length < offset + signature.length - 1) {
+                continue;
+            }
+            boolean match = true;
+            for (int i = 1; i < signature.length && match; i++) {
+                match = (data[offset + i - 1] & 0xFF) == signature[i];
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 每块独立压缩：复用同一个 Compressor，每块开始前 reset
+    private static byte[] compress(CompressionCodec codec, Compressor compressor, byte[] raw, int length,
+                                   ByteArrayOutputStream block) throws IOException {
+        block.reset();
+        if (compressor != null) {
+            compressor.reset();
+        }
+        try (CompressionOutputStream out = codec.createOutputStream(block, compressor)) {
+            out.write(raw, 0, length);
+            out.finish();
+        }
+        return block.toByteArray();
+    }
+
+    // 压缩存储的文件换成原始大小的状态，其他文件原样返回
+    public FileStatus resolve(FileStatus status) {
+        if (!indexed || status.isDirectory()) {
+            return status;
+        }
+        CompressedFile file = repository.findByPath(HdfsOps.key(status.getPath()));
+        return file == null ? status : new CompressedStatus(file, status);
+    }
+
+    // 列目录：按批查出压缩文件的原始大小
+    public FileStatus[] withRawSizes(FileStatus[] statuses) {
+        if (!indexed) {
+            return statuses;
+        }
+        Map<String, Integer> byKey = new HashMap<>();
+        for (int i = 0; i < statuses.length; i++) {
+            if (!statuses[i].isDirectory() && statuses[i].getLen() > 0) {
+                byKey.put(HdfsOps.key(statuses[i].getPath()), i);
+            }
+        }
+        if (byKey.isEmpty()) {
+            return statuses;
+        }
+        FileStatus[] result = statuses.clone();
+        for (CompressedFile file : repository.findByPathIn(byKey.keySet())) {
+            int index = byKey.get(file.getPath());
+            result[index] = new CompressedStatus(file, statuses[index]);
+        }
+        return result;
+    }
+
+    public RemoteIterator<FileStatus> withRawSizes(RemoteIterator<FileStatus> iterator) {
+        if (!indexed) {
+            return iterator;
+        }
+        return StatusBatches.map(iterator, RESOLVE_BATCH, this::withRawSizes);
+    }
+
+    // 把原始内容的 [start, start + length) 写入输出流：先读文件末尾的索引，只读取并解压覆盖到的块
+    public void writeRange(CompressedStatus status, long start, long length, OutputStream out) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        CompressionCodec fileCodec = codecFor(status.getCodec());
+        FileSystem fs = hdfsClientPool.get();
+        try (FSDataInputStream in = fs.open(status.getPath())) {
+            ByteBuffer trailer = ByteBuffer.wrap(readAt(in, status.getStoredLength() - TRAILER_BYTES, TRAILER_BYTES));
+            long indexOffset = trailer.getLong();
+            long rawSize = trailer.getLong();
+            int blockCount = trailer.getInt();
+            int fileBlockSize = trailer.getInt();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("压缩文件已损坏: " + status.getPath());
+            }
+            int first = (int) (start / fileBlockSize);
+            int last = (int) ((start + length - 1) / fileBlockSize);
+            // 只读用到的索引项，多读一项作为最后一块的结束位置
+            int entries = Math.min(last + 2, blockCount) - first;
+            ByteBuffer index = ByteBuffer.wrap(readAt(in, indexOffset + 8L * first, 8 * entries));
+            long[] offsets = new long[last - first + 2];
+            for (int i = 0; i < entries; i++) {
+                offsets[i] = index.getLong();
+            }
+            if (last + 1 >= blockCount) {
+                offsets[last - first + 1] = indexOffset;
+            }
+
+            Decompressor decompressor = CodecPool.getDecompressor(fileCodec);
+            try {
+                byte[] raw = new byte[fileBlockSize];
+                byte[] compressed = new byte[0];
+                long end = start + length;
+                for (int blockIndex = first; blockIndex <= last; blockIndex++) {
+                    long blockStart = (long) blockIndex * fileBlockSize;
+                    int rawLength = (int) Math.min(fileBlockSize, rawSize - blockStart);
+                    int storedLength = (int) (offsets[blockIndex - first + 1] - offsets[blockIndex - first]);
+                    if (compressed.length < storedLength) {
+                        compressed = new byte[storedLength];
+                    }
+                    in.readFully(offsets[blockIndex - first], compressed, 0, storedLength);
+                    if (decompressor != null) {
+                        decompressor.reset();
+                    }
+                    try (CompressionInputStream blockIn = fileCodec.createInputStream(
+                            new ByteArrayInputStream(compressed, 0, storedLength), decompressor)) {
+                        IOUtils.readFully(blockIn, raw, 0, rawLength);
+                    }
+                    int from = (int) Math.max(0, start - blockStart);
+                    int to = (int) Math.min(rawLength, end - blockStart);
+                    out.write(raw, from, to - from);
+                }
+            } finally {
+                CodecPool.returnDecompressor(decompressor);
+            }
+        }
+    }
+
+    private static byte[] readAt(FSDataInputStream in, long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(position, bytes, 0, length);
+        return bytes;
+    }
+
+    // 删除文件或目录之后调用
+    public void release(Path path) {
+        if (!indexed) {
+            return;
+        }
+        String key = HdfsOps.key(path);
+        transactionTemplate.execute(tx -> {
+            repository.deleteInBatch(repository.findTree(key, HdfsOps.likePrefix(key)));
+            return null;
+        });
+    }
+
+    // 改名、移动：在HDFS rename 成功之后调用
+    public void relocate(Path from, Path to) {
+        if (!indexed) {
+            return;
+        }
+        String fromKey = HdfsOps.key(from);
+        String toKey = HdfsOps.key(to);
+        transactionTemplate.execute(tx ->
+                repository.relocate(fromKey, HdfsOps.likePrefix(fromKey), fromKey.length(), toKey));
+    }
+
+    // 复制按字节原样复制压缩数据，复制完成后补上记录
+    public void duplicate(Path from, Path to) {
+        if (!indexed) {
+            return;
+        }
+        String fromKey = HdfsOps.key(from);
+        String toKey = HdfsOps.key(to);
+        transactionTemplate.execute(tx -> {
+            List<CompressedFile> files = repository.findTree(fromKey, HdfsOps.likePrefix(fromKey));
+            List<CompressedFile> copies = new ArrayList<>(files.size());
+            for (CompressedFile file : files) {
+                copies.add(new CompressedFile(toKey + file.getPath().substring(fromKey.length()), file.getCodec(),
+                        file.getRawSize(), file.getStoredSize()));
+            }
+            repository.saveAll(copies);
+            return null;
+        });
+    }
+
+    // 累计的压缩上传次数、原样保存次数、压缩率（百分比，压缩后/压缩前）与压缩耗费的CPU时间
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long raw = rawBytes.sum();
+        long stored = storedBytes.sum();
+        stats.put("codec", codec == null ? null : codecName(codec));
+        stats.put("compressedUploads", compressedUploads.sum());
+        stats.put("skippedUploads", skippedUploads.sum());
+        stats.put("rawBytes", raw);
+        stats.put("storedBytes", stored);
+        stats.put("ratioPercent", raw == 0 ? 100 : stored * 100 / raw);
+        stats.put("cpuMillis", TimeUnit.NANOSECONDS.toMillis(cpuNanos.sum()));
+        return stats;
+    }
+
+    private CompressionCodec codecFor(String name) throws IOException {
+        CompressionCodec fileCodec = codecs.computeIfAbsent(name, n -> codecFactory.getCodecByName(n));
+        if (fileCodec == null) {
+            throw new IOException("不支持的压缩格式: " + name);
+        }
+        return fileCodec;
+    }
+
+    private static String codecName(CompressionCodec codec) {
+        String name = codec.getClass().getSimpleName();
+        return name.endsWith("Codec") ? name.substring(0, name.length() - "Codec".length()).toLowerCase(Locale.ROOT)
+                : name.toLowerCase(Locale.ROOT);
+    }
+
+    // 当前线程消耗的CPU时间，不支持时退化为墙钟时间
+    private long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private void deleteQuietly(FileSystem fs, Path path) {
+        try {
+            fs.delete(path, false);
+        } catch (IOException e) {
+            logger.warn("删除 {} 失败: {}", path, e.getMessage());
+        }
+    }
+
+    // 对外表现为原始大小的普通文件；读取时按块解压
+    public static class CompressedStatus extends FileStatus {
+        private final String codec;
+        private final long storedLength;
+
+        CompressedStatus(CompressedFile file, FileStatus stored) {
+            super(file.getRawSize(), false, stored.getReplication(), stored.getBlockSize(),
+                    stored.getModificationTime(), stored.getPath());
+            this.codec = file.getCodec();
+            this.storedLength = stored.getLen();
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public long getStoredLength() {
+            return storedLength;
+        }
+    }
+}
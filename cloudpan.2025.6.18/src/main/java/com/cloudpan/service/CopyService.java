@@ -0,0 +1,226 @@
+package com.cloudpan.service;
+
+import com.cloudpan.entity.FileJob;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//复制引擎：按大小选择最省的方式，由任务引擎（JobService）在后台线程中调用
+//  小文件       单流复制（缓冲池）
+//  大文件       按块对齐切成多段，多线程定位读并行写入分段文件，最后用 concat 只改元数据拼成目标文件
+//  目录         并行遍历（TreeWalker）建立目录结构，文件级并行度有上限
+//HDFS 3.1 没有服务端的块级复制，数据仍要经过本机；真正不经过Web节点需要 DistCp（MapReduce 作业），这里不引入
+@Service
+public class CopyService {
+    private final BufferPool bufferPool;
+    private final TreeWalker treeWalker;
+    private final long parallelThreshold;
+    private final long partSize;
+    private final ExecutorService partExecutor;
+    private final ExecutorService fileExecutor;
+
+    public CopyService(BufferPool bufferPool,
+                       TreeWalker treeWalker,
+                       @Value("${cloudpan.copy.parallel-threshold:268435456}") long parallelThreshold,
+                       @Value("${cloudpan.copy.part-size:134217728}") long partSize,
+                       @Value("${cloudpan.copy.part-threads:4}") int partThreads,
+                       @Value("${cloudpan.copy.file-threads:8}") int fileThreads) {
+        this.bufferPool = bufferPool;
+        this.treeWalker = treeWalker;
+        this.parallelThreshold = parallelThreshold;
+        this.partSize = partSize;
+        // 线程池按层次分开（任务线程 -> 文件 -> 分段），上层等待下层时不会互相占满导致死锁
+        this.partExecutor = Executors.newFixedThreadPool(partThreads, namedThreads("copy-part"));
+        this.fileExecutor = Executors.newFixedThreadPool(fileThreads, namedThreads("copy-file"));
+    }
+
+    // 统计总字节数和文件数，用于进度与剩余时间估算；目录只需一次 getContentSummary
+    public void measure(FileSystem fs, FileStatus source, FileJob job) throws IOException {
+        if (source.isDirectory()) {
+            ContentSummary summary = fs.getContentSummary(source.getPath());
+            job.setTotalBytes(summary.getLength());
+            job.setTotalFiles(summary.getFileCount());
+        } else {
+            job.setTotalBytes(source.getLen());
+            job.setTotalFiles(1);
+        }
+    }
+
+    // source 已确认存在，target 是任务独占的暂存路径（JobService 最后再改名为目标）
+    public void copy(FileSystem fs, FileStatus source, Path target, FileJob job) throws IOException {
+        if (source.isDirectory()) {
+            copyTree(fs, source.getPath(), target, job);
+        } else {
+            copyFile(fs, source, target, job);
+        }
+    }
+
+    // 目录：多个目录同时列出并创建目录结构，文件复制边遍历边提交给有界的文件线程池
+    private void copyTree(FileSystem fs, Path sourceDir, Path targetDir, FileJob job) throws IOException {
+        Collection<Future<?>> futures = new ConcurrentLinkedQueue<>();
+        String sourceRoot = Path.getPathWithoutSchemeAndAuthority(sourceDir).toString();
+        try {
+            fs.mkdirs(targetDir);
+            treeWalker.walk(sourceDir, fs::listStatusIterator, child -> {
+                // 子目录的项在其目录项之后才被访问，目标目录此时已创建
+                String relative = Path.getPathWithoutSchemeAndAuthority(child.getPath()).toString()
+                        .substring(sourceRoot.length() + 1);
+                Path childTarget = new Path(targetDir, relative);
+                if (child.isDirectory()) {
+                    fs.mkdirs(childTarget);
+                } else {
+                    futures.add(fileExecutor.submit(() -> {
+                        copyFile(fs, child, childTarget, job);
+                        return null;
+                    }));
+                }
+            }, job::isCancelRequested);
+            awaitAll(futures);
+        } finally {
+            cancelAll(futures);
+        }
+    }
+
+    void copyFile(FileSystem fs, FileStatus source, Path target, FileJob job) throws IOException {
+        if (source.getLen() >= parallelThreshold && fs instanceof DistributedFileSystem) {
+            copyRanges(fs, source, target, job);
+        } else {
+            copyStream(fs, source, target, job);
+        }
+        job.addDoneFile();
+    }
+
+    private void copyStream(FileSystem fs, FileStatus source, Path target, FileJob job) throws IOException {
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataInputStream in = fs.open(source.getPath());
+             FSDataOutputStream out = create(fs, target, source)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                checkCancelled(job);
+                out.write(buffer, 0, bytesRead);
+                job.addDoneBytes(bytesRead);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    // 分段并行复制：各段写入同目录下的临时分段文件，全部完成后 concat 合并并改名为目标文件
+    private void copyRanges(FileSystem fs, FileStatus source, Path target, FileJob job) throws IOException {
+        long blockSize = source.getBlockSize();
+        // 分段按块大小对齐，concat 后除最后一块外都是满块
+        long part = Math.max(1, (partSize + blockSize - 1) / blockSize) * blockSize;
+        long length = source.getLen();
+        int parts = (int) ((length + part - 1) / part);
+
+        Path workDir = new Path(target.getParent(), "." + target.getName() + ".copying-" + UUID.randomUUID());
+        fs.mkdirs(workDir);
+        Path[] partPaths = new Path[parts];
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < parts; i++) {
+                long offset = i * part;
+                long partLength = Math.min(part, length - offset);
+                Path partPath = new Path(workDir, "part-" + i);
+                partPaths[i] = partPath;
+                futures.add(partExecutor.submit(() -> {
+                    copyRange(fs, source, offset, partLength, partPath, job);
+                    return null;
+                }));
+            }
+            awaitAll(futures);
+
+            if (parts > 1) {
+                Path[] rest = new Path[parts - 1];
+                System.arraycopy(partPaths, 1, rest, 0, rest.length);
+                fs.concat(partPaths[0], rest);
+            }
+            // 与其他提交点一样不替换：目标已存在时失败，不会把结果移进同名目录
+            HdfsOps.renameNoReplace(fs, partPaths[0], target);
+        } finally {
+            cancelAll(futures);
+            fs.delete(workDir, true);
+        }
+    }
+
+    private void copyRange(FileSystem fs, FileStatus source, long offset, long length, Path partPath,
+                           FileJob job) throws IOException {
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataInputStream in = fs.open(source.getPath());
+             FSDataOutputStream out = create(fs, partPath, source)) {
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                checkCancelled(job);
+                int n = (int) Math.min(buffer.length, end - position);
+                in.readFully(position, buffer, 0, n);
+                out.write(buffer, 0, n);
+                job.addDoneBytes(n);
+                position += n;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    // 目标沿用源文件的副本数和块大小，concat 要求所有分段块大小一致
+    private FSDataOutputStream create(FileSystem fs, Path path, FileStatus source) throws IOException {
+        return fs.create(path, false, bufferPool.getBufferSize(), source.getReplication(), source.getBlockSize());
+    }
+
+    private void awaitAll(Collection<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("复制被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private void cancelAll(Collection<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    // 每写一个缓冲区检查一次取消标记，分段线程和文件线程都能及时停下
+    private void checkCancelled(FileJob job) throws InterruptedIOException {
+        if (job.isCancelRequested()) {
+            throw new InterruptedIOException("任务已取消");
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fileExecutor.shutdownNow();
+        partExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,364 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.Blob;
+import com.cloudpan.entity.BlobRef;
+import com.cloudpan.repository.BlobJpaRepository;
+import com.cloudpan.repository.BlobRefJpaRepository;
+import org.apache.hadoop.fs.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+//按内容去重的存储层：相同内容（SHA-256）在HDFS上只保存一份，位于 /blobs/<前两位>/<sha256>-<随机后缀>
+//用户路径上只放一个0字节的占位文件，占位文件到内容的引用和每份内容的引用计数保存在数据库中
+//  - cloudpan.dedup.enabled 只决定新上传是否去重；读取、删除、移动、复制始终查引用表，开关切换前后的文件都能正常使用
+//  - 引用表中没有记录的0字节文件就是普通的空文件
+//  - 内容删除发生在引用计数降到0的同一事务之后，同时再上传相同内容会写入新的随机文件名，互不影响
+@Service
+public class DedupService {
+    private static final String BLOB_DIR = "/blobs";
+    private static final String TEMP_DIR = "/blobs/tmp";
+    // 列目录时每批查询多少个0字节文件的实际大小
+    private static final int RESOLVE_BATCH = 500;
+
+    private final HdfsClientPool hdfsClientPool;
+    private final BufferPool bufferPool;
+    private final BlobJpaRepository blobRepository;
+    private final BlobRefJpaRepository refRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Logger logger = LoggerFactory.getLogger(DedupService.class);
+
+    public DedupService(HdfsClientPool hdfsClientPool,
+                        BufferPool bufferPool,
+                        BlobJpaRepository blobRepository,
+                        BlobRefJpaRepository refRepository,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${cloudpan.dedup.enabled:false}") boolean enabled) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.bufferPool = bufferPool;
+        this.blobRepository = blobRepository;
+        this.refRepository = refRepository;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+    }
+
+    // 不带数据库的实例：不去重，也没有引用需要维护，供基准程序直接构造 FileService 使用
+    public static DedupService withoutIndex(HdfsClientPool hdfsClientPool, BufferPool bufferPool) {
+        return new DedupService(hdfsClientPool, bufferPool, null, null, null, false);
+    }
+
+    public boolean isEnabled() {
+        return enabled && refRepository != null;
+    }
+
+    // 边读边写入临时文件，同时计算SHA-256；内容已存在时丢弃临时文件，只增加引用
+    public void store(InputStream in, Path logical) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        MessageDigest digest = sha256();
+        Path temp = new Path(TEMP_DIR, UUID.randomUUID().toString());
+        long size = 0;
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataOutputStream out = fs.create(temp, false)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, bytesRead);
+                out.write(buffer, 0, bytesRead);
+                size += bytesRead;
+            }
+        } catch (IOException e) {
+            deleteQuietly(fs, temp);
+            throw e;
+        } finally {
+            bufferPool.release(buffer);
+        }
+        commit(fs, temp, hex(digest.digest()), size, logical, false);
+    }
+
+    // 已经在HDFS上的完整文件（分片上传的合并结果）：顺序读一遍计算哈希后纳入内容存储
+    // 分片各自的哈希无法合成整个文件的SHA-256，所以这一遍读取省不掉
+    // 失败时合并结果留在原处，提交重试时直接使用，不需要重新上传分片
+    public void adopt(Path assembled, Path logical) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        MessageDigest digest = sha256();
+        long size = 0;
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataInputStream in = fs.open(assembled)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, bytesRead);
+                size += bytesRead;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        commit(fs, assembled, hex(digest.digest()), size, logical, true);
+    }
+
+    // 秒传：服务器已有相同哈希和大小的内容时直接建立引用，返回 false 表示需要正常上传
+    // 注意知道哈希即可取得内容，这是秒传固有的取舍，大小必须一致只能挡住最简单的猜测
+    public boolean instantUpload(String sha256, long size, Path logical) throws IOException {
+        if (!isEnabled()) {
+            return false;
+        }
+        String sha = sha256 == null ? "" : sha256.toLowerCase(Locale.ROOT);
+        if (!sha.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("sha256不合法");
+        }
+        Optional<Blob> blob = blobRepository.findById(sha);
+        if (!blob.isPresent() || blob.get().getSize() != size) {
+            return false;
+        }
+        FileSystem fs = hdfsClientPool.get();
+        createPlaceholder(fs, logical);
+        try {
+            if (Boolean.TRUE.equals(transactionTemplate.execute(tx -> addExisting(sha, logical)))) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            deleteQuietly(fs, logical);
+            throw e;
+        }
+        // 查询之后内容恰好被删除
+        deleteQuietly(fs, logical);
+        return false;
+    }
+
+    // 下载时把占位文件换成内容文件的状态：长度取内容，修改时间取占位文件，ETag 随逻辑文件变化
+    public FileStatus resolve(FileStatus status) {
+        if (refRepository == null || status.isDirectory() || status.getLen() != 0) {
+            return status;
+        }
+        Blob blob = blobRepository.findByRefPath(HdfsOps.key(status.getPath()));
+        if (blob == null) {
+            return status;
+        }
+        return new FileStatus(blob.getSize(), false, status.getReplication(), status.getBlockSize(),
+                status.getModificationTime(), new Path(blob.getPath()));
+    }
+
+    // 列目录：0字节文件批量查出实际大小，其余原样返回；按大小排序和显示都使用逻辑大小
+    public FileStatus[] withLogicalSizes(FileStatus[] statuses) {
+        if (refRepository == null) {
+            return statuses;
+        }
+        FileStatus[] result = statuses.clone();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < result.length; i++) {
+            if (!result[i].isDirectory() && result[i].getLen() == 0) {
+                pending.add(i);
+            }
+            if (pending.size() == RESOLVE_BATCH || (i == result.length - 1 && !pending.isEmpty())) {
+                resolveSizes(result, pending);
+                pending.clear();
+            }
+        }
+        return result;
+    }
+
+    public RemoteIterator<FileStatus> withLogicalSizes(RemoteIterator<FileStatus> iterator) {
+        if (refRepository == null) {
+            return iterator;
+        }
+        return StatusBatches.map(iterator, RESOLVE_BATCH, this::withLogicalSizes);
+    }
+
+    // 删除文件或目录之后调用：释放其下所有引用，计数降到0的内容在事务提交后删除
+    public void release(Path path) {
+        if (refRepository == null) {
+            return;
+        }
+        String key = HdfsOps.key(path);
+        List<Blob> unreferenced = transactionTemplate.execute(tx -> {
+            List<BlobRef> refs = refRepository.findTree(key, HdfsOps.likePrefix(key));
+            if (refs.isEmpty()) {
+                return Collections.<Blob>emptyList();
+            }
+            refRepository.deleteInBatch(refs);
+            Map<String, Long> counts = new HashMap<>();
+            for (BlobRef ref : refs) {
+                counts.merge(ref.getSha256(), 1L, Long::sum);
+            }
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                blobRepository.addRefCount(entry.getKey(), -entry.getValue());
+            }
+            List<Blob> orphans = blobRepository.findUnreferenced(counts.keySet());
+            if (!orphans.isEmpty()) {
+                blobRepository.deleteUnreferenced(counts.keySet());
+            }
+            return orphans;
+        });
+        deleteBlobs(unreferenced);
+    }
+
+    // 改名、移动：引用随路径前缀一起改，一条 UPDATE 完成，和目录下有多少文件无关
+    // 在HDFS rename 成功之后调用，目标前缀下不会有别的引用被一起改走
+    public void relocate(Path from, Path to) {
+        if (refRepository == null) {
+            return;
+        }
+        String fromKey = HdfsOps.key(from);
+        String toKey = HdfsOps.key(to);
+        transactionTemplate.execute(tx ->
+                refRepository.relocate(fromKey, HdfsOps.likePrefix(fromKey), fromKey.length(), toKey));
+    }
+
+    // 复制完成后调用：复制出来的占位文件引用同一份内容，计数相应增加
+    public void duplicate(Path from, Path to) {
+        if (refRepository == null) {
+            return;
+        }
+        String fromKey = HdfsOps.key(from);
+        String toKey = HdfsOps.key(to);
+        transactionTemplate.execute(tx -> {
+            List<BlobRef> refs = refRepository.findTree(fromKey, HdfsOps.likePrefix(fromKey));
+            Map<String, Long> counts = new HashMap<>();
+            List<BlobRef> copies = new ArrayList<>(refs.size());
+            for (BlobRef ref : refs) {
+                copies.add(new BlobRef(toKey + ref.getPath().substring(fromKey.length()), ref.getSha256()));
+                counts.merge(ref.getSha256(), 1L, Long::sum);
+            }
+            refRepository.saveAll(copies);
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                blobRepository.addRefCount(entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    // 先建占位文件占住路径，再登记引用；内容已存在则丢弃 source，否则把 source 改名为内容文件
+    // keepSource：失败时保留 source（已改名进内容存储的改回原处），否则删除
+    private void commit(FileSystem fs, Path source, String sha, long size, Path logical,
+                        boolean keepSource) throws IOException {
+        try {
+            createPlaceholder(fs, logical);
+        } catch (IOException e) {
+            if (!keepSource) {
+                deleteQuietly(fs, source);
+            }
+            throw e;
+        }
+        Path blobPath = null;
+        try {
+            if (Boolean.TRUE.equals(transactionTemplate.execute(tx -> addExisting(sha, logical)))) {
+                deleteQuietly(fs, source);
+                return;
+            }
+            blobPath = new Path(BLOB_DIR + "/" + sha.substring(0, 2) + "/" + sha + "-" + UUID.randomUUID());
+            fs.mkdirs(blobPath.getParent());
+            if (!fs.rename(source, blobPath)) {
+                throw new IOException("保存内容失败: " + sha);
+            }
+            Blob blob = new Blob(sha, blobPath.toString(), size);
+            try {
+                transactionTemplate.execute(tx -> {
+                    blobRepository.saveAndFlush(blob);
+                    refRepository.save(new BlobRef(HdfsOps.key(logical), sha));
+                    return null;
+                });
+            } catch (DataIntegrityViolationException e) {
+                // 另一个请求同时上传了相同内容并先登记成功，本次写入的这一份多余
+                if (!Boolean.TRUE.equals(transactionTemplate.execute(tx -> addExisting(sha, logical)))) {
+                    throw e;
+                }
+                deleteQuietly(fs, blobPath);
+            }
+            logger.debug("新内容 {} ({} 字节)", sha, size);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(fs, logical);
+            if (!keepSource) {
+                deleteQuietly(fs, source);
+            } else if (blobPath != null && renameQuietly(fs, blobPath, source)) {
+                blobPath = null;
+            }
+            if (blobPath != null) {
+                deleteQuietly(fs, blobPath);
+            }
+            throw e;
+        }
+    }
+
+    private Boolean addExisting(String sha, Path logical) {
+        if (blobRepository.addRefCount(sha, 1) == 0) {
+            return false;
+        }
+        refRepository.save(new BlobRef(HdfsOps.key(logical), sha));
+        return true;
+    }
+
+    private void createPlaceholder(FileSystem fs, Path logical) throws IOException {
+        fs.create(logical, false).close();
+    }
+
+    private void resolveSizes(FileStatus[] statuses, List<Integer> indexes) {
+        Map<String, Integer> byKey = new HashMap<>();
+        for (int index : indexes) {
+            byKey.put(HdfsOps.key(statuses[index].getPath()), index);
+        }
+        for (Object[] row : refRepository.findSizes(byKey.keySet())) {
+            int index = byKey.get((String) row[0]);
+            FileStatus status = statuses[index];
+            statuses[index] = new FileStatus((Long) row[1], false, status.getReplication(), status.getBlockSize(),
+                    status.getModificationTime(), status.getPath());
+        }
+    }
+
+    private void deleteBlobs(List<Blob> blobs) {
+        if (blobs.isEmpty()) {
+            return;
+        }
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            for (Blob blob : blobs) {
+                deleteQuietly(fs, new Path(blob.getPath()));
+            }
+        } catch (IOException e) {
+            logger.warn("删除内容文件失败: {}", e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(FileSystem fs, Path path) {
+        try {
+            fs.delete(path, false);
+        } catch (IOException e) {
+            logger.warn("删除 {} 失败: {}", path, e.getMessage());
+        }
+    }
+
+    // 源文件不存在（改名未发生）时返回 false
+    private boolean renameQuietly(FileSystem fs, Path from, Path to) {
+        try {
+            return fs.rename(from, to);
+        } catch (IOException e) {
+            logger.warn("改名 {} 失败: {}", from, e.getMessage());
+            return false;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
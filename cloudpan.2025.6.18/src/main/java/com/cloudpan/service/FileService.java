@@ -1,336 +1,702 @@
 package com.cloudpan.service;
 
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.OperationMetrics;
 import com.cloudpan.entity.CloudFile;
-import com.google.gson.Gson;
-import org.apache.hadoop.conf.Configuration;
+import com.cloudpan.entity.FileJob;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.fs.*;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
-import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 @Service
 public class FileService {
-    private static final String HDFS_ROOT = "hdfs://mycluster/";
-    private static final String LOCAL_DOWNLOAD_DIR = "D:\\download\\";
-
-    private final Configuration conf;
-    private final Gson gson;
+    // 所有用户主目录的父目录
+    private static final String USER_ROOT = "users";
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String SORT_NAME = "name";
+    private static final String SORT_SIZE = "size";
+    private static final String SORT_MTIME = "mtime";
+
+    private final HdfsClientPool hdfsClientPool;
+    private final BufferPool bufferPool;
+    private final JobService jobService;
+    private final ListingCache listingCache;
+    private final DedupService dedupService;
+    private final PackService packService;
+    private final CompressionService compressionService;
+    private final PreviewService previewService;
+    private final TreeWalker treeWalker;
+    private final QuotaService quotaService;
+    private final OperationMetrics metrics;
     private final Logger logger = LoggerFactory.getLogger(FileService.class);
 
-    public FileService() {
-        this.conf = loadConfig();
-        this.gson = new Gson();
-
-        // 确保本地目录存在
-        ensureLocalDirectoryExists(LOCAL_DOWNLOAD_DIR);
+    public FileService(HdfsClientPool hdfsClientPool, BufferPool bufferPool, JobService jobService,
+                       ListingCache listingCache, DedupService dedupService, PackService packService,
+                       CompressionService compressionService, PreviewService previewService,
+                       TreeWalker treeWalker, QuotaService quotaService, OperationMetrics metrics) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.bufferPool = bufferPool;
+        this.jobService = jobService;
+        this.listingCache = listingCache;
+        this.dedupService = dedupService;
+        this.packService = packService;
+        this.compressionService = compressionService;
+        this.previewService = previewService;
+        this.treeWalker = treeWalker;
+        this.quotaService = quotaService;
+        this.metrics = metrics;
     }
 
-    private Configuration loadConfig() {
-        Configuration conf = new Configuration();
-        conf.addResource(new Path("src/main/resources/hadoop/core-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/hdfs-site.xml"));
-        return conf;
+    private void checkUserId(String userId) {
+        if (userId == null) {
+            throw new IllegalArgumentException("userId cannot be null");
+        }
     }
 
-    private void ensureLocalDirectoryExists(String path) {
-        File dir = new File(path);
-        if (!dir.exists()) {
-            if (!dir.mkdirs()) {
-                logger.error("无法创建本地目录: {}", path);
+    // 客户端传入的是主目录内的路径（如 /docs/a.txt），这里拼成 <根>/users/<userId>/docs/a.txt
+    // 不允许 .. 和完整URI，用户只能访问自己的主目录；纯字符串处理，鉴权不需要额外的NameNode请求
+    String formatHdfsPath(String userId, String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path cannot be null");
+        }
+        if (path.contains("://")) {
+            throw new IllegalArgumentException("请使用主目录内的路径: " + path);
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                throw new IllegalArgumentException("路径不能包含 ..: " + path);
             }
+            normalized.append('/').append(segment);
         }
+        return userHome(userId) + normalized;
     }
 
-    private void checkUserId(String userId) {
-        if (userId == null) {
-            throw new IllegalArgumentException("userId cannot be null");
+    String userHome(String userId) {
+        checkUserId(userId);
+        if (userId.isEmpty() || userId.contains("/") || userId.startsWith(".")) {
+            throw new IllegalArgumentException("userId不合法");
         }
+        return hdfsClientPool.getRoot() + USER_ROOT + "/" + userId;
     }
 
-    private String formatHdfsPath(String path) {
-        if (path == null) {
-            throw new IllegalArgumentException("path cannot be null");
+    // 把HDFS上的完整路径还原成主目录内的路径，返回给客户端
+    private String toUserPath(String userId, Path path) {
+        String home = Path.getPathWithoutSchemeAndAuthority(new Path(userHome(userId))).toString();
+        String full = Path.getPathWithoutSchemeAndAuthority(path).toString();
+        if (full.equals(home)) {
+            return "/";
         }
+        return full.startsWith(home + "/") ? full.substring(home.length()) : full;
+    }
 
-        // 确保路径以hdfs://mycluster开头
-        if (!path.startsWith("hdfs://")) {
-            return HDFS_ROOT + (path.startsWith("/") ? path.substring(1) : path);
+    // 上传结果以异常区分：同名文件已存在抛出 FileAlreadyExistsException，超出配额抛出 DSQuotaExceededException
+    public void upload(CloudFile.CloudFileBuilder cloudFileBuilder, InputStream fileStream) throws IOException {
+        Timer.Sample sample = metrics.start();
+        LongTaskTimer.Sample active = metrics.startUpload();
+        CountingInputStream counted = new CountingInputStream(fileStream);
+        try {
+            store(cloudFileBuilder, counted, sample);
+        } finally {
+            active.stop();
+            metrics.bytesIn(counted.getByteCount());
         }
-        return path;
     }
 
-    public String upload(CloudFile.CloudFileBuilder cloudFileBuilder, InputStream fileStream) {
+    private void store(CloudFile.CloudFileBuilder cloudFileBuilder, InputStream fileStream, Timer.Sample sample)
+            throws IOException {
         String userId = cloudFileBuilder.userId;
         checkUserId(userId);
         String uploadPath = cloudFileBuilder.uploadPath;
         if (uploadPath == null) {
             throw new IllegalArgumentException("uploadPath cannot be null");
         }
-        uploadPath = formatHdfsPath(uploadPath);
+        uploadPath = formatHdfsPath(userId, uploadPath);
 
         CloudFile cloudFile = cloudFileBuilder.build();
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
+        try {
+            // 共享的长期客户端，不能关闭
+            FileSystem fs = hdfsClientPool.get();
             Path targetPath = new Path(uploadPath, cloudFile.fileName);
-            if (!fs.exists(targetPath.getParent())) {
-                fs.mkdirs(targetPath.getParent());
+            // 打包存储的文件只在索引中，先查索引（数据库）；HDFS上的同名文件由 create(overwrite=false) 原子地判断
+            // create 会自动建出缺少的父目录，不再事先 exists + mkdirs
+            if (packService.contains(targetPath)) {
+                throw new FileAlreadyExistsException(targetPath.toString());
             }
-            if (fs.exists(targetPath)) {
-                return gson.toJson(new ResponseData("文件已存在，上传失败"));
+            // 边读边记入已用空间，超出配额时中止；请求体的大小事先未知，不能只在开始时检查
+            QuotaService.Metered metered = quotaService.meter(userId, fileStream);
+            fileStream = metered;
+            boolean stored = false;
+            try {
+                if (packService.isEnabled()) {
+                    // 先读入不超过阈值的一段：读完了就是小文件，打包存储；否则把已读的部分接回输入流照常写入
+                    byte[] head = new byte[packService.getThresholdBytes() + 1];
+                    int length = IOUtils.read(fileStream, head);
+                    if (length <= packService.getThresholdBytes()) {
+                        // 只写索引，没有HDFS文件替它占住路径，这里要查一次
+                        if (HdfsOps.statOrNull(fs, targetPath) != null) {
+                            throw new FileAlreadyExistsException(targetPath.toString());
+                        }
+                        fs.mkdirs(targetPath.getParent());
+                        packService.pack(userId, targetPath, head, length);
+                        stored = true;
+                        preparePreview(userId, targetPath);
+                        metrics.success(sample, OperationMetrics.UPLOAD);
+                        return;
+                    }
+                    fileStream = new SequenceInputStream(new ByteArrayInputStream(head, 0, length), fileStream);
+                }
+                if (dedupService.isEnabled()) {
+                    // 去重模式：边写边算哈希，相同内容只保存一份，用户路径上只留占位文件
+                    dedupService.store(fileStream, targetPath);
+                } else if (compressionService.isEnabled()) {
+                    // 可压缩的内容分块压缩后写入，已压缩的媒体和压缩包原样写入
+                    compressionService.write(fs, targetPath, fileStream);
+                } else {
+                    write(fs, targetPath, fileStream);
+                }
+                stored = true;
+            } finally {
+                if (!stored) {
+                    metered.refund();
+                }
+                // 上传中途失败也可能留下文件，无论成败都失效所在目录；父目录可能是刚建出来的
+                listingCache.invalidateParent(targetPath);
+                listingCache.invalidateParent(targetPath.getParent());
             }
-            try (FSDataOutputStream out = fs.create(targetPath)) {
-                byte[] buffer = new byte[1024 * 8];
+            preparePreview(userId, targetPath);
+            metrics.success(sample, OperationMetrics.UPLOAD);
+        } catch (FileAlreadyExistsException e) {
+            metrics.rejected(sample, OperationMetrics.UPLOAD);
+            throw e;
+        } catch (DSQuotaExceededException e) {
+            metrics.rejected(sample, OperationMetrics.UPLOAD);
+            logger.info("用户 {} 上传被拒绝: {}", userId, e.getMessage());
+            throw e;
+        } catch (IOException e) {
+            metrics.failure(sample, OperationMetrics.UPLOAD, e);
+            logger.error("文件上传失败: {}", e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    // 输入流可以直接来自请求体，边读边写；HDFS写入变慢时读取随之变慢，不会在内存中堆积
+    // create 成功后文件一定是本次建的：客户端中断、超出大小限制或配额、管线出错时删掉写了一半的文件，
+    // 否则重试会因同名文件已存在而失败，留下的也是不完整的内容
+    private void write(FileSystem fs, Path targetPath, InputStream fileStream) throws IOException {
+        byte[] buffer = bufferPool.acquire();
+        try {
+            FSDataOutputStream out = fs.create(targetPath, false);
+            try {
                 int bytesRead;
                 while ((bytesRead = fileStream.read(buffer)) > 0) {
                     out.write(buffer, 0, bytesRead);
                 }
+                out.close();
+            } catch (IOException | RuntimeException e) {
+                IOUtils.closeQuietly(out);
+                try {
+                    fs.delete(targetPath, false);
+                } catch (IOException deleteFailure) {
+                    logger.warn("删除未写完的文件 {} 失败: {}", targetPath, deleteFailure.getMessage());
+                }
+                throw e;
             }
-            return gson.toJson(new ResponseData("文件上传成功"));
-        } catch (IOException e) {
-            logger.error("文件上传失败: {}", e.getMessage(), e);
-            return gson.toJson(new ResponseData("文件上传失败: " + e.getMessage()));
+        } finally {
+            bufferPool.release(buffer);
         }
     }
 
-    public String download(DownloadRequest request) {
-        String userId = request.getUserId();
+    // 秒传：服务器已有这份内容时只建立引用，返回 false 表示内容未知、需要正常上传
+    public boolean instantUpload(String userId, String uploadPath, String fileName, String sha256, long size)
+            throws IOException {
         checkUserId(userId);
-        String uploadPath = request.getUploadPath();
-        uploadPath = formatHdfsPath(uploadPath);
-
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
-            Path hdfsPath = new Path(uploadPath);
-            if (!fs.exists(hdfsPath)) {
-                return gson.toJson(new ResponseData("文件下载失败，文件不存在"));
+        if (fileName == null || fileName.isEmpty() || fileName.contains("/")
+                || ".".equals(fileName) || "..".equals(fileName)) {
+            throw new IllegalArgumentException("文件名不合法");
+        }
+        Path targetPath = new Path(formatHdfsPath(userId, uploadPath), fileName);
+        if (!dedupService.isEnabled()) {
+            return false;
+        }
+        // 秒传不经过上传流，按声明的大小记账（去重服务会核对大小与已有内容一致）
+        quotaService.reserve(userId, size);
+        boolean stored = false;
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            fs.mkdirs(targetPath.getParent());
+            stored = dedupService.instantUpload(sha256, size, targetPath);
+            return stored;
+        } finally {
+            if (!stored) {
+                quotaService.record(userId, -size);
             }
+            listingCache.invalidateParent(targetPath);
+            listingCache.invalidateParent(targetPath.getParent());
+        }
+    }
 
-            // 确保下载目录存在
-            File localDir = new File(LOCAL_DOWNLOAD_DIR);
-            if (!localDir.exists()) {
-                if (!localDir.mkdirs()) {
-                    logger.error("无法创建下载目录: {}", LOCAL_DOWNLOAD_DIR);
-                    return gson.toJson(new ResponseData("文件下载失败，无法创建下载目录"));
-                }
+    // 查询待下载文件的状态（大小、修改时间），文件不存在或是目录时抛出 FileNotFoundException
+    public FileStatus getDownloadStatus(String userId, String uploadPath) throws IOException {
+        checkUserId(userId);
+        uploadPath = formatHdfsPath(userId, uploadPath);
+
+        FileSystem fs = hdfsClientPool.get();
+        FileStatus status;
+        try {
+            status = fs.getFileStatus(new Path(uploadPath));
+        } catch (FileNotFoundException e) {
+            status = packService.find(new Path(uploadPath));
+            if (status == null) {
+                throw e;
             }
+            return status;
+        }
+        if (status.isDirectory()) {
+            throw new FileNotFoundException("不能下载目录: " + uploadPath);
+        }
+        // 去重存储的占位文件换成内容文件，之后的读取直接打开内容文件；压缩存储的文件换成原始大小
+        return compressionService.resolve(dedupService.resolve(status));
+    }
 
-            // 构建本地文件路径
-            String fileName = hdfsPath.getName();
-            File localFile = new File(localDir, fileName);
+    // 上传完成后在后台生成预览，不占用上传请求的时间
+    void preparePreview(String userId, Path targetPath) {
+        String userPath = toUserPath(userId, targetPath);
+        previewService.prepare(targetPath.getName(), () -> previewTarget(userId, userPath));
+    }
 
-            logger.info("开始下载文件: {}", uploadPath);
-            logger.info("本地保存路径: {}", localFile.getAbsolutePath());
+    // 缩略图或文本预览，文件类型不支持预览时返回 null
+    public PreviewService.Preview preview(String userId, String uploadPath) throws IOException {
+        String fileName = FilenameUtils.getName(uploadPath);
+        if (!previewService.supports(fileName)) {
+            return null;
+        }
+        return previewService.get(previewTarget(userId, uploadPath));
+    }
 
-            try (FSDataInputStream in = fs.open(hdfsPath);
-                 FileOutputStream out = new FileOutputStream(localFile)) {
+    // 预览按用户路径、大小和修改时间标识，内容从下载用的同一条路径读取，打包、去重、压缩存储的文件都适用
+    private PreviewService.Target previewTarget(String userId, String uploadPath) throws IOException {
+        FileStatus status = getDownloadStatus(userId, uploadPath);
+        return new PreviewService.Target(FilenameUtils.getName(uploadPath), formatHdfsPath(userId, uploadPath),
+                status.getLen(), status.getModificationTime(),
+                (length, out) -> writeRange(status, 0, Math.min(length, status.getLen()), out));
+    }
 
-                byte[] buffer = new byte[1024 * 8];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, bytesRead);
-                }
-            }
+    // 把文件的 [start, start + length) 区间直接从HDFS写入输出流，不经过本地磁盘
+    // 使用定位读（readFully(position, ...)），断点续传和分段并行下载互不影响
+    // 打包存储的小文件读容器中对应的一段，压缩存储的文件只解压覆盖到的块
+    public void writeRange(FileStatus status, long start, long length, OutputStream out) throws IOException {
+        // 按实际写出的字节计数，客户端中途断开时只算已发送的部分
+        CountingOutputStream counted = new CountingOutputStream(out);
+        try {
+            copyRange(status, start, length, counted);
+        } finally {
+            metrics.bytesOut(counted.getByteCount());
+        }
+    }
 
-            logger.info("文件下载成功: {}", localFile.getAbsolutePath());
-            return gson.toJson(new ResponseData("文件下载成功,请检查D:\\download路径"));
-        } catch (IOException e) {
-            logger.error("文件下载失败: {}", e.getMessage(), e);
-            return gson.toJson(new ResponseData("文件下载失败: " + e.getMessage()));
+    private void copyRange(FileStatus status, long start, long length, OutputStream out) throws IOException {
+        if (status instanceof CompressionService.CompressedStatus) {
+            compressionService.writeRange((CompressionService.CompressedStatus) status, start, length, out);
+            return;
+        }
+        FileSystem fs = hdfsClientPool.get();
+        Path path = status.getPath();
+        long base = 0;
+        if (status instanceof PackService.PackedStatus) {
+            path = ((PackService.PackedStatus) status).getContainer();
+            base = ((PackService.PackedStatus) status).getStart();
+        }
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataInputStream in = fs.open(path)) {
+            long position = base + start;
+            long end = position + length;
+            while (position < end) {
+                int n = (int) Math.min(buffer.length, end - position);
+                in.readFully(position, buffer, 0, n);
+                out.write(buffer, 0, n);
+                position += n;
+            }
+        } finally {
+            bufferPool.release(buffer);
         }
     }
 
-    public String delete(DeleteRequest request) {
+    // 删除（目录递归删除）在后台任务线程中执行，很快完成时直接返回结果
+    public FileJob delete(DeleteRequest request) {
         String userId = request.getUserId();
         checkUserId(userId);
         String uploadPath = request.getUploadPath();
-        uploadPath = formatHdfsPath(uploadPath);
-
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
-            Path hdfsPath = new Path(uploadPath);
-            if (!fs.exists(hdfsPath)) {
-                return gson.toJson(new ResponseData("文件删除失败，文件不存在"));
-            }
-
-            // 检查是否为目录，如果是目录则递归删除
-            boolean isDir = fs.getFileStatus(hdfsPath).isDirectory();
-            boolean success = fs.delete(hdfsPath, isDir);
-
-            return success
-                    ? gson.toJson(new ResponseData("文件/目录删除成功"))
-                    : gson.toJson(new ResponseData("文件/目录删除失败"));
-        } catch (IOException e) {
-            logger.error("文件删除失败: {}", e.getMessage(), e);
-            return gson.toJson(new ResponseData("文件删除失败: " + e.getMessage()));
+        uploadPath = formatHdfsPath(userId, uploadPath);
+        // 与重命名、批量操作一致，主目录本身不能删除（uploadPath 为 / 时）
+        if (uploadPath.equals(userHome(userId))) {
+            return FileJob.rejected(FileJob.DELETE, "不能删除主目录");
         }
+
+        // 不再事先 exists：递归删除本身会报告路径不存在，任务以“文件不存在”失败
+        return jobService.submitAndWait(userId, FileJob.DELETE, new Path(uploadPath), null);
     }
 
+    // 先查目录列表缓存；未命中时只发一次 listStatus，目录不存在由 FileNotFoundException 判断
     public List<CloudFile> listFiles(String userId, String path) {
         checkUserId(userId);
         if (path == null) {
             throw new IllegalArgumentException("path cannot be null");
         }
-        path = formatHdfsPath(path);
+        path = formatHdfsPath(userId, path);
         List<CloudFile> fileList = new ArrayList<>();
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
-            Path targetPath = new Path(path);
-            if (!fs.exists(targetPath)) {
-                return fileList;
-            }
-            FileStatus[] fileStatuses = fs.listStatus(targetPath);
+        Timer.Sample sample = metrics.start();
+        try {
+            FileStatus[] fileStatuses = listDirectory(new Path(path));
             for (FileStatus status : fileStatuses) {
-                CloudFile tempFile = new CloudFile();
-                tempFile.fileName = status.getPath().getName();
-                tempFile.fileSize = status.getLen();
-                tempFile.filePath = status.getPath().toString();
-                tempFile.userId = userId;
-                tempFile.uploadPath = path;
-                fileList.add(tempFile);
+                fileList.add(toCloudFile(status, userId, path));
             }
+            metrics.success(sample, OperationMetrics.LIST);
         } catch (IOException e) {
+            metrics.failure(sample, OperationMetrics.LIST, e);
             logger.error("获取文件列表失败: {}", e.getMessage(), e);
             return fileList;
         }
         return fileList;
     }
 
+    // 整个目录的列表（含打包存储的文件，逻辑大小），目录不存在时为空；批量操作也用它代替逐项 exists
+    FileStatus[] listDirectory(Path dir) throws IOException {
+        FileStatus[] fileStatuses = listingCache.get(dir);
+        if (fileStatuses == null) {
+            long generation = listingCache.beginLoad();
+            try {
+                fileStatuses = dedupService.withLogicalSizes(
+                        compressionService.withRawSizes(hdfsClientPool.get().listStatus(dir)));
+            } catch (FileNotFoundException e) {
+                fileStatuses = new FileStatus[0];
+            }
+            fileStatuses = packService.withPackedEntries(dir, fileStatuses);
+            listingCache.put(dir, fileStatuses, generation);
+        }
+        return fileStatuses;
+    }
+
+    // 分页列目录，每项交给 sink 输出，返回下一页的游标（null 表示已是最后一页）
+    // 游标是上一页最后一项的排序键，任何一页都只在内存中保留不超过 limit 项：
+    //  - HDFS 按名称升序返回目录项，按名称升序时边遍历边输出，取满一页即停止
+    //  - 其他排序必须看完整个目录，但只用一个大小为 limit 的堆保留当前最靠前的若干项
+    public String listPage(ListQuery query, Consumer<CloudFile> sink) throws IOException {
+        checkUserId(query.getUserId());
+        String path = formatHdfsPath(query.getUserId(), query.getPath());
+        String sort = query.getSort() == null ? SORT_NAME : query.getSort();
+        if (!SORT_NAME.equals(sort) && !SORT_SIZE.equals(sort) && !SORT_MTIME.equals(sort)) {
+            throw new IllegalArgumentException("不支持的排序字段: " + sort);
+        }
+        boolean descending = "desc".equalsIgnoreCase(query.getOrder());
+        int limit = Math.max(1, Math.min(query.getLimit(), MAX_PAGE_SIZE));
+        ListCursor after = query.getCursor() == null || query.getCursor().isEmpty()
+                ? null : ListCursor.decode(query.getCursor());
+        String prefix = query.getPrefix() == null || query.getPrefix().isEmpty() ? null : query.getPrefix();
+
+        FileSystem fs = hdfsClientPool.get();
+        Timer.Sample sample = metrics.start();
+        try {
+            RemoteIterator<FileStatus> iterator = listLogical(fs, new Path(path));
+            String next;
+            if (fs instanceof DistributedFileSystem && SORT_NAME.equals(sort) && !descending) {
+                next = streamByName(iterator, after, prefix, limit, query.getUserId(), path, sink);
+            } else {
+                next = topByKey(iterator, sort, descending, after, prefix, limit, query.getUserId(), path, sink);
+            }
+            metrics.success(sample, OperationMetrics.LIST);
+            return next;
+        } catch (FileNotFoundException e) {
+            // 与 listFiles 一致：目录不存在视为空目录
+            metrics.success(sample, OperationMetrics.LIST);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(sample, OperationMetrics.LIST, e);
+            throw e;
+        }
+    }
+
+    // 逐项列目录：合并打包存储的文件，大小换成用户看到的大小（去重内容、压缩前）
+    private RemoteIterator<FileStatus> listLogical(FileSystem fs, Path dir) throws IOException {
+        return packService.withPackedEntries(dir,
+                dedupService.withLogicalSizes(compressionService.withRawSizes(fs.listStatusIterator(dir))));
+    }
+
+    // 逐项列目录用于读取内容：打包、压缩存储的文件已是可读的状态，去重的占位文件保持原样，读取前经 readable 换成内容文件
+    RemoteIterator<FileStatus> listReadable(FileSystem fs, Path dir) throws IOException {
+        return packService.withPackedEntries(dir, compressionService.withRawSizes(fs.listStatusIterator(dir)));
+    }
+
+    FileStatus readable(FileStatus status) {
+        if (status instanceof PackService.PackedStatus || status instanceof CompressionService.CompressedStatus) {
+            return status;
+        }
+        return dedupService.resolve(status);
+    }
+
+    // 文件夹大小：文件数、目录数和总字节数（用户看到的大小）
+    // 没有启用去重、打包、压缩时HDFS中的大小就是用户看到的大小，一次 getContentSummary 由 NameNode 汇总
+    // 否则并行遍历整棵树，逐目录换算
+    public Map<String, Long> folderSize(String userId, String uploadPath) throws IOException {
+        checkUserId(userId);
+        Path root = new Path(formatHdfsPath(userId, uploadPath));
+        FileSystem fs = hdfsClientPool.get();
+        Map<String, Long> result = new LinkedHashMap<>();
+        FileStatus rootStatus;
+        try {
+            rootStatus = fs.getFileStatus(root);
+        } catch (FileNotFoundException e) {
+            rootStatus = null;
+        }
+        if (rootStatus == null || !rootStatus.isDirectory()) {
+            // 单个文件（包括打包存储的小文件），不存在时抛出 FileNotFoundException
+            result.put("files", 1L);
+            result.put("directories", 0L);
+            result.put("bytes", getDownloadStatus(userId, uploadPath).getLen());
+            return result;
+        }
+        if (!dedupService.isEnabled() && !packService.isEnabled() && !compressionService.isEnabled()) {
+            ContentSummary summary = fs.getContentSummary(root);
+            result.put("files", summary.getFileCount());
+            // ContentSummary 的目录数包含根目录本身
+            result.put("directories", summary.getDirectoryCount() - 1);
+            result.put("bytes", summary.getLength());
+            return result;
+        }
+        LongAdder files = new LongAdder();
+        LongAdder directories = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        treeWalker.walk(root, dir -> listLogical(fs, dir), status -> {
+            if (status.isDirectory()) {
+                directories.increment();
+            } else {
+                files.increment();
+                bytes.add(status.getLen());
+            }
+        }, () -> false);
+        result.put("files", files.sum());
+        result.put("directories", directories.sum());
+        result.put("bytes", bytes.sum());
+        return result;
+    }
+
+    private String streamByName(RemoteIterator<FileStatus> iterator, ListCursor after, String prefix, int limit,
+                                String userId, String path, Consumer<CloudFile> sink) throws IOException {
+        int emitted = 0;
+        FileStatus last = null;
+        while (iterator.hasNext()) {
+            FileStatus status = iterator.next();
+            String name = status.getPath().getName();
+            if (after != null && name.compareTo(after.name) <= 0) {
+                continue;
+            }
+            if (prefix != null && !name.startsWith(prefix)) {
+                // 已越过前缀所在的区间，后面不会再有匹配项
+                if (name.compareTo(prefix) > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (emitted == limit) {
+                return new ListCursor(0, last.getPath().getName()).encode();
+            }
+            sink.accept(toCloudFile(status, userId, path));
+            emitted++;
+            last = status;
+        }
+        return null;
+    }
+
+    private String topByKey(RemoteIterator<FileStatus> iterator, String sort, boolean descending, ListCursor after,
+                            String prefix, int limit, String userId, String path,
+                            Consumer<CloudFile> sink) throws IOException {
+        Comparator<FileStatus> order = (a, b) -> compareKeys(sortKey(sort, a), a.getPath().getName(),
+                sortKey(sort, b), b.getPath().getName(), descending);
+        // 堆顶是保留项中排在最后的一项；多保留一项用来判断是否还有下一页
+        PriorityQueue<FileStatus> heap = new PriorityQueue<>(limit + 2, order.reversed());
+        while (iterator.hasNext()) {
+            FileStatus status = iterator.next();
+            String name = status.getPath().getName();
+            if (prefix != null && !name.startsWith(prefix)) {
+                continue;
+            }
+            if (after != null && compareKeys(sortKey(sort, status), name, after.key, after.name, descending) <= 0) {
+                continue;
+            }
+            heap.add(status);
+            if (heap.size() > limit + 1) {
+                heap.poll();
+            }
+        }
+        List<FileStatus> page = new ArrayList<>(heap);
+        page.sort(order);
+        boolean more = page.size() > limit;
+        for (int i = 0; i < Math.min(limit, page.size()); i++) {
+            sink.accept(toCloudFile(page.get(i), userId, path));
+        }
+        if (!more) {
+            return null;
+        }
+        FileStatus last = page.get(limit - 1);
+        return new ListCursor(sortKey(sort, last), last.getPath().getName()).encode();
+    }
+
+    private static long sortKey(String sort, FileStatus status) {
+        if (SORT_SIZE.equals(sort)) {
+            return status.getLen();
+        }
+        if (SORT_MTIME.equals(sort)) {
+            return status.getModificationTime();
+        }
+        return 0;
+    }
+
+    // 先比排序键，相同时按名称，保证顺序唯一、游标不会漏项或重复
+    private static int compareKeys(long keyA, String nameA, long keyB, String nameB, boolean descending) {
+        int result = Long.compare(keyA, keyB);
+        if (result == 0) {
+            result = nameA.compareTo(nameB);
+        }
+        return descending ? -result : result;
+    }
+
+    private CloudFile toCloudFile(FileStatus status, String userId, String path) {
+        CloudFile cloudFile = new CloudFile();
+        cloudFile.fileName = status.getPath().getName();
+        cloudFile.fileSize = status.getLen();
+        cloudFile.filePath = toUserPath(userId, status.getPath());
+        cloudFile.userId = userId;
+        cloudFile.uploadPath = toUserPath(userId, new Path(path));
+        cloudFile.modificationTime = status.getModificationTime();
+        cloudFile.type = status.isDirectory() ? CloudFile.TYPE_DIR : CloudFile.TYPE_FILE;
+        cloudFile.replication = status.getReplication();
+        return cloudFile;
+    }
+
     public boolean renameFile(RenameRequest request) {
         String userId = request.getUserId();
         checkUserId(userId);
         String uploadPath = request.getUploadPath();
         String newFileName = request.getNewFileName();
-        uploadPath = formatHdfsPath(uploadPath);
+        if (newFileName == null || newFileName.isEmpty() || newFileName.contains("/")
+                || ".".equals(newFileName) || "..".equals(newFileName)) {
+            throw new IllegalArgumentException("文件名不合法");
+        }
+        uploadPath = formatHdfsPath(userId, uploadPath);
+        if (uploadPath.equals(userHome(userId))) {
+            throw new IllegalArgumentException("不能重命名主目录");
+        }
 
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
+        Timer.Sample sample = metrics.start();
+        try {
+            FileSystem fs = hdfsClientPool.get();
             Path oldPath = new Path(uploadPath);
             Path newPath = new Path(uploadPath.substring(0, uploadPath.lastIndexOf('/') + 1) + newFileName);
-            if (fs.exists(newPath)) {
-                return false;
+            try {
+                // 与移动相同：不替换的改名一次完成检查和改名，打包存储的小文件只改索引
+                jobService.move(fs, oldPath, newPath);
+                metrics.success(sample, OperationMetrics.RENAME);
+                return true;
+            } finally {
+                listingCache.invalidateParent(oldPath);
+                listingCache.invalidate(oldPath, true);
             }
-            boolean result = fs.rename(oldPath, newPath);
-            return result;
+        } catch (FileAlreadyExistsException | FileNotFoundException e) {
+            metrics.rejected(sample, OperationMetrics.RENAME);
+            logger.info("文件重命名失败: {}", e.getMessage());
+            return false;
         } catch (IOException e) {
+            metrics.failure(sample, OperationMetrics.RENAME, e);
             logger.error("文件重命名失败: {}", e.getMessage(), e);
             return false;
         }
     }
 
-    public boolean copyFile(CopyRequest request) {
+    // 返回复制任务：小文件已同步完成，大文件/大目录转为后台任务
+    public FileJob copyFile(CopyRequest request) {
         String sourceUserId = request.getSourceUserId();
         checkUserId(sourceUserId);
         String sourceUploadPath = request.getSourceUploadPath();
         String targetUploadPath = request.getTargetUploadPath();
 
-        sourceUploadPath = formatHdfsPath(sourceUploadPath);
-        targetUploadPath = formatHdfsPath(targetUploadPath);
+        sourceUploadPath = formatHdfsPath(sourceUserId, sourceUploadPath);
+        targetUploadPath = formatHdfsPath(sourceUserId, targetUploadPath);
 
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
+        try {
+            FileSystem fs = hdfsClientPool.get();
             Path sourcePath = new Path(sourceUploadPath);
-            if (!fs.exists(sourcePath)) {
-                logger.error("复制失败，源文件不存在: {}", sourceUploadPath);
-                return false;
+            // 复制到自身或其子目录中会把新建的目标再复制进去，没有尽头
+            if (HdfsOps.isWithin(new Path(targetUploadPath, sourcePath.getName()), sourcePath)) {
+                return FileJob.rejected(FileJob.COPY, "不能复制到自身或其子目录中");
+            }
+            // 一次 getFileStatus 判断源是否存在，不在HDFS上时再查打包索引
+            boolean packed = false;
+            if (HdfsOps.statOrNull(fs, sourcePath) == null) {
+                packed = packService.contains(sourcePath);
+                if (!packed) {
+                    logger.error("复制失败，源文件不存在: {}", sourceUploadPath);
+                    return FileJob.rejected(FileJob.COPY, "源文件不存在");
+                }
             }
 
             // 构建目标路径
             String fileName = sourcePath.getName();
             Path targetPath = new Path(targetUploadPath, fileName);
 
-            // 确保目标目录存在
-            if (!fs.exists(targetPath.getParent())) {
+            // 复制的文件和目录由 create / mkdirs 自动建出父目录；只复制索引的小文件需要父目录事先存在
+            if (packed) {
                 fs.mkdirs(targetPath.getParent());
             }
 
-            // 检查目标文件是否已存在
-            if (fs.exists(targetPath)) {
+            // 目标已存在时提交前就拒绝，不用复制完才发现；任务最后不替换的改名会再原子地判断一次
+            if (packService.contains(targetPath) || HdfsOps.statOrNull(fs, targetPath) != null) {
                 logger.error("复制失败，目标文件已存在: {}", targetPath);
-                return false;
-            }
-
-            // 使用流复制处理HDFS内的文件复制
-            try (FSDataInputStream in = fs.open(sourcePath);
-                 FSDataOutputStream out = fs.create(targetPath)) {
-
-                byte[] buffer = new byte[1024 * 8];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, bytesRead);
-                }
+                return FileJob.rejected(FileJob.COPY, "目标文件已存在");
             }
 
-            logger.info("文件复制成功: {} 到 {}", sourcePath, targetPath);
-            return true;
+            // 由复制引擎按大小选择单流或分段并行，目录递归复制
+            return jobService.submitAndWait(sourceUserId, FileJob.COPY, sourcePath, targetPath);
         } catch (IOException e) {
             logger.error("文件复制失败: {}", e.getMessage(), e);
-            return false;
+            return FileJob.rejected(FileJob.COPY, e.getMessage());
         }
     }
 
-    public boolean moveFile(MoveRequest request) {
+    public FileJob moveFile(MoveRequest request) {
         String sourceUserId = request.getSourceUserId();
         checkUserId(sourceUserId);
         String sourceUploadPath = request.getSourceUploadPath();
         String targetUploadPath = request.getTargetUploadPath();
 
-        sourceUploadPath = formatHdfsPath(sourceUploadPath);
-        targetUploadPath = formatHdfsPath(targetUploadPath);
-
-        try (FileSystem fs = FileSystem.get(URI.create(HDFS_ROOT), conf)) {
-            Path sourcePath = new Path(sourceUploadPath);
-            if (!fs.exists(sourcePath)) {
-                logger.error("移动失败，源文件不存在: {}", sourceUploadPath);
-                return false;
-            }
-
-            // 构建目标路径
-            String fileName = sourcePath.getName();
-            Path targetPath = new Path(targetUploadPath, fileName);
-
-            // 确保目标目录存在
-            if (!fs.exists(targetPath.getParent())) {
-                fs.mkdirs(targetPath.getParent());
-            }
-
-            // 检查目标文件是否已存在
-            if (fs.exists(targetPath)) {
-                logger.error("移动失败，目标文件已存在: {}", targetPath);
-                return false;
-            }
+        sourceUploadPath = formatHdfsPath(sourceUserId, sourceUploadPath);
+        targetUploadPath = formatHdfsPath(sourceUserId, targetUploadPath);
 
-            // 移动文件
-            boolean success = fs.rename(sourcePath, targetPath);
+        Path sourcePath = new Path(sourceUploadPath);
+        Path targetPath = new Path(targetUploadPath, sourcePath.getName());
 
-            logger.info("文件移动成功: {} 到 {}", sourcePath, targetPath);
-            return success;
-        } catch (IOException e) {
-            logger.error("文件移动失败: {}", e.getMessage(), e);
-            return false;
-        }
+        // 源、目标、父目录都不事先查询：不替换的改名在一次 RPC 中判断，源不存在或目标已存在时任务失败并带原因
+        return jobService.submitAndWait(sourceUserId, FileJob.MOVE, sourcePath, targetPath);
     }
 
     // 内部类定义
-    public static class DownloadRequest {
-        private String userId;
-        private String uploadPath;
-
-        public String getUserId() {
-            return userId;
-        }
-
-        public void setUserId(String userId) {
-            this.userId = userId;
-        }
-
-        public String getUploadPath() {
-            return uploadPath;
-        }
-
-        public void setUploadPath(String uploadPath) {
-            this.uploadPath = uploadPath;
-        }
-    }
-
     public static class DeleteRequest {
         private String userId;
         private String uploadPath;
@@ -468,11 +834,136 @@ public class FileService {
 
     }
 
-    private static class ResponseData {
-        private String message;
+    public static class InstantUploadRequest {
+        private String uploadPath;
+        private String fileName;
+        private String sha256;
+        private long fileSize;
+
+        public String getUploadPath() {
+            return uploadPath;
+        }
+
+        public void setUploadPath(String uploadPath) {
+            this.uploadPath = uploadPath;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public void setFileName(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public void setFileSize(long fileSize) {
+            this.fileSize = fileSize;
+        }
+    }
+
+    public static class ListQuery {
+        private String userId;
+        private String path;
+        private String cursor;
+        private int limit = 100;
+        // name / size / mtime
+        private String sort;
+        // asc / desc
+        private String order;
+        private String prefix;
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public void setUserId(String userId) {
+            this.userId = userId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
 
-        public ResponseData(String message) {
-            this.message = message;
+        public String getCursor() {
+            return cursor;
+        }
+
+        public void setCursor(String cursor) {
+            this.cursor = cursor;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void setLimit(int limit) {
+            this.limit = limit;
+        }
+
+        public String getSort() {
+            return sort;
+        }
+
+        public void setSort(String sort) {
+            this.sort = sort;
+        }
+
+        public String getOrder() {
+            return order;
+        }
+
+        public void setOrder(String order) {
+            this.order = order;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    // 分页游标：排序键 + 名称，编码为URL安全的Base64，对客户端不透明
+    private static class ListCursor {
+        final long key;
+        final String name;
+
+        ListCursor(long key, String name) {
+            this.key = key;
+            this.name = name;
+        }
+
+        String encode() {
+            byte[] bytes = (key + "/" + name).getBytes(StandardCharsets.UTF_8);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        }
+
+        static ListCursor decode(String cursor) {
+            try {
+                String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int slash = value.indexOf('/');
+                return new ListCursor(Long.parseLong(value.substring(0, slash)), value.substring(slash + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
         }
     }
 }
\ No newline at end of file
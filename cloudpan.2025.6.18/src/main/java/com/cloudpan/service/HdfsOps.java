@@ -0,0 +1,88 @@
+package com.cloudpan.service;
+
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+//"先查再做"改成一次原子操作：多数请求只需要一次 NameNode RPC，出错时才补查
+//  - 创建用 create(overwrite=false)，已存在时抛出 FileAlreadyExistsException
+//  - 查询用一次 getFileStatus，不存在由 FileNotFoundException 表示，不再 exists + getFileStatus
+//  - 改名用 rename(Options.Rename.NONE)，目标已存在时原子地失败
+final class HdfsOps {
+    // 与去重、打包、压缩索引的查询中的 escape '!' 一致
+    private static final char LIKE_ESCAPE = '!';
+
+    private HdfsOps() {
+    }
+
+    // 比较路径和索引表中保存的路径：不带 scheme 和 authority，hdfs://mycluster/a 与 /a 相同，切换 NameNode 地址不影响
+    static String key(Path path) {
+        return Path.getPathWithoutSchemeAndAuthority(path).toString();
+    }
+
+    // 索引表中 "<key>/" 开头的所有路径（目录树的查询、改名、释放），转义 LIKE 通配符
+    static String likePrefix(String key) {
+        StringBuilder prefix = new StringBuilder(key.length() + 2);
+        for (char c : key.toCharArray()) {
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                prefix.append(LIKE_ESCAPE);
+            }
+            prefix.append(c);
+        }
+        return prefix.append("/%").toString();
+    }
+
+    // path 是 dir 本身或在 dir 之下：复制到这样的目标时，新建的目标会出现在源目录树里被反复复制
+    static boolean isWithin(Path path, Path dir) {
+        String pathKey = key(path);
+        String dirKey = key(dir);
+        return pathKey.equals(dirKey) || pathKey.startsWith(dirKey.endsWith("/") ? dirKey : dirKey + "/");
+    }
+
+    // 一次 getFileStatus，不存在时返回 null
+    static FileStatus statOrNull(FileSystem fs, Path path) throws IOException {
+        try {
+            return fs.getFileStatus(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    // 不替换的改名：目标已存在时抛出 FileAlreadyExistsException，不会像 rename(src, dst) 那样把源移进同名目录
+    // 源不存在时抛出 FileNotFoundException；目标的父目录不存在时补建后重试一次
+    static void renameNoReplace(FileSystem fs, Path source, Path target) throws IOException {
+        if (!(fs instanceof DistributedFileSystem)) {
+            // 其他文件系统（基准程序用的本地目录）没有公开的带选项改名，退回先查再改
+            if (fs.exists(target)) {
+                throw new FileAlreadyExistsException("目标文件已存在: " + target);
+            }
+            fs.mkdirs(target.getParent());
+            if (!fs.rename(source, target)) {
+                if (!fs.exists(source)) {
+                    throw new FileNotFoundException("源文件不存在: " + source);
+                }
+                throw new IOException("改名失败: " + source);
+            }
+            return;
+        }
+        DistributedFileSystem dfs = (DistributedFileSystem) fs;
+        try {
+            dfs.rename(source, target, Options.Rename.NONE);
+        } catch (FileAlreadyExistsException e) {
+            throw new FileAlreadyExistsException("目标文件已存在: " + target);
+        } catch (FileNotFoundException e) {
+            // 源不存在和目标父目录不存在都是这个异常，只在出错时多查一次
+            if (!dfs.exists(source)) {
+                throw new FileNotFoundException("源文件不存在: " + source);
+            }
+            dfs.mkdirs(target.getParent());
+            try {
+                dfs.rename(source, target, Options.Rename.NONE);
+            } catch (FileAlreadyExistsException again) {
+                throw new FileAlreadyExistsException("目标文件已存在: " + target);
+            }
+        }
+    }
+}
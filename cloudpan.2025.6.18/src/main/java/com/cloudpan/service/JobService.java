@@ -0,0 +1,633 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.NodeIdentity;
+import com.cloudpan.config.OperationMetrics;
+import com.cloudpan.entity.FileJob;
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+//后台任务引擎：复制、移动、递归删除都在这里执行，不占用Tomcat请求线程
+//  - 固定数量的工作线程，每个用户一个队列，工作线程轮流从各用户队列取任务，一个用户提交大量任务不会饿死其他用户
+//  - 请求线程提交后只等待很短时间，在此时间内完成的任务直接返回结果，否则返回任务ID由前端轮询
+//  - 转为后台的任务状态写入HDFS /job_state，服务重启后未完成的任务会重新执行
+//  - 多个Web节点共用 /job_state：任务记录所属节点，各节点定期更新 /job_state/nodes/<节点> 的修改时间作为租约；
+//    重启时只恢复自己的任务，租约过期的节点留下的任务由先在 /job_state/claims 建出认领标记的节点接管
+@Service
+public class JobService {
+    private static final String STATE_DIR = "/job_state";
+    private static final String NODE_DIR = STATE_DIR + "/nodes";
+    private static final String CLAIM_DIR = STATE_DIR + "/claims";
+    private static final String JOB_SUFFIX = ".json";
+    private static final long JOB_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final HdfsClientPool hdfsClientPool;
+    private final CopyService copyService;
+    private final ListingCache listingCache;
+    private final DedupService dedupService;
+    private final PackService packService;
+    private final CompressionService compressionService;
+    private final QuotaService quotaService;
+    private final OperationMetrics metrics;
+    private final String nodeId;
+    private final long heartbeatMillis;
+    private final long leaseMillis;
+    private final int workerCount;
+    private final int maxQueuedPerUser;
+    private final long syncWaitMillis;
+    private final Gson gson = new Gson();
+    private final Logger logger = LoggerFactory.getLogger(JobService.class);
+
+    private final Map<String, FileJob> jobs = new ConcurrentHashMap<>();
+    // 按用户排队，LinkedHashMap 的顺序即轮转顺序；由 queueLock 保护
+    private final LinkedHashMap<String, ArrayDeque<FileJob>> queues = new LinkedHashMap<>();
+    private final Object queueLock = new Object();
+    // 正在执行各任务的工作线程，取消时用于中断
+    private final Map<String, Thread> runners = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledExecutorService heartbeat;
+    private long lastOrphanScan;
+    private volatile boolean stopping;
+
+    public JobService(HdfsClientPool hdfsClientPool,
+                      CopyService copyService,
+                      ListingCache listingCache,
+                      DedupService dedupService,
+                      PackService packService,
+                      CompressionService compressionService,
+                      QuotaService quotaService,
+                      OperationMetrics metrics,
+                      NodeIdentity nodeIdentity,
+                      @Value("${cloudpan.jobs.heartbeat-seconds:30}") long heartbeatSeconds,
+                      @Value("${cloudpan.jobs.lease-seconds:120}") long leaseSeconds,
+                      @Value("${cloudpan.jobs.workers:4}") int workerCount,
+                      @Value("${cloudpan.jobs.max-queued-per-user:100}") int maxQueuedPerUser,
+                      @Value("${cloudpan.jobs.sync-wait-ms:500}") long syncWaitMillis) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.copyService = copyService;
+        this.listingCache = listingCache;
+        this.dedupService = dedupService;
+        this.packService = packService;
+        this.compressionService = compressionService;
+        this.quotaService = quotaService;
+        this.metrics = metrics;
+        this.nodeId = nodeIdentity.getId();
+        this.heartbeatMillis = TimeUnit.SECONDS.toMillis(heartbeatSeconds);
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.workerCount = workerCount;
+        this.maxQueuedPerUser = maxQueuedPerUser;
+        this.syncWaitMillis = syncWaitMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        // 先续租再恢复，其他节点不会在这期间把本节点当成已失联
+        renewLease();
+        recover();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::workLoop, "file-job-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        if (heartbeatMillis > 0) {
+            heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "file-job-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            heartbeat.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 提交任务并等待一小段时间：很快完成的操作对调用方而言仍是同步的，慢操作立即返回
+    public FileJob submitAndWait(String userId, String type, Path source, Path target) {
+        return submitAllAndWait(userId, type, Collections.singletonList(source),
+                Collections.singletonList(target)).get(0);
+    }
+
+    // 一批同类任务（批量复制）：整批一起入队，按一次提交计入排队上限，所有任务共用一次同步等待，
+    // 上千项的批量不会逐项等待，也不会排到一半因上限失败；结果与 sources 一一对应
+    public List<FileJob> submitAllAndWait(String userId, String type, List<Path> sources, List<Path> targets) {
+        List<FileJob> batch = new ArrayList<>(sources.size());
+        List<FileJob> accepted = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            Path source = sources.get(i);
+            Path target = targets.get(i);
+            // 调用方已各自检查，这里兜底：这样的复制没有尽头，失败后的清理还会删掉源
+            if (FileJob.COPY.equals(type) && HdfsOps.isWithin(target, source)) {
+                batch.add(FileJob.rejected(type, "不能复制到自身或其子目录中"));
+                continue;
+            }
+            FileJob job = new FileJob(UUID.randomUUID().toString(), userId, type,
+                    source.toString(), target == null ? null : target.toString());
+            job.setOwner(nodeId);
+            batch.add(job);
+            accepted.add(job);
+        }
+        if (accepted.isEmpty()) {
+            return batch;
+        }
+        enqueue(userId, accepted);
+        long deadline = System.currentTimeMillis() + syncWaitMillis;
+        try {
+            for (FileJob job : accepted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !job.awaitFinish(remaining)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (FileJob job : accepted) {
+            synchronized (job) {
+                if (!job.isFinished()) {
+                    job.setPersisted(true);
+                    persist(job);
+                }
+            }
+        }
+        return batch;
+    }
+
+    public FileJob getJob(String jobId, String userId) {
+        FileJob job = jobs.get(jobId);
+        if (job == null || !job.getUserId().equals(userId)) {
+            return null;
+        }
+        job.refreshEta();
+        return job;
+    }
+
+    public List<FileJob> listJobs(String userId) {
+        List<FileJob> result = new ArrayList<>();
+        for (FileJob job : jobs.values()) {
+            if (job.getUserId().equals(userId)) {
+                job.refreshEta();
+                result.add(job);
+            }
+        }
+        result.sort(Comparator.comparingLong(FileJob::getCreatedAt).reversed());
+        return result;
+    }
+
+    // 排队中的任务直接移出队列；执行中的任务设置取消标记并中断工作线程
+    public FileJob cancel(String jobId, String userId) {
+        FileJob job = getJob(jobId, userId);
+        if (job == null || job.isFinished()) {
+            return job;
+        }
+        job.requestCancel();
+        boolean dequeued;
+        synchronized (queueLock) {
+            ArrayDeque<FileJob> queue = queues.get(userId);
+            dequeued = queue != null && queue.remove(job);
+            if (queue != null && queue.isEmpty()) {
+                queues.remove(userId);
+            }
+        }
+        if (dequeued) {
+            complete(job, FileJob.CANCELLED, "任务已取消");
+        } else {
+            // 与工作线程注销 runner 在同一把锁下进行，保证不会中断到下一个任务
+            synchronized (job) {
+                Thread runner = runners.get(jobId);
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+        return job;
+    }
+
+    private void enqueue(FileJob job) {
+        enqueue(job.getUserId(), Collections.singletonList(job));
+    }
+
+    // 排队上限按提交次数计：该用户排队的任务未达上限时，一次提交的任务全部入队
+    private void enqueue(String userId, List<FileJob> batch) {
+        purgeFinishedJobs();
+        synchronized (queueLock) {
+            ArrayDeque<FileJob> queue = queues.get(userId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(userId, queue);
+            }
+            if (queue.size() >= maxQueuedPerUser) {
+                throw new IllegalStateException("排队中的任务过多，请稍后再试");
+            }
+            for (FileJob job : batch) {
+                jobs.put(job.getJobId(), job);
+                queue.add(job);
+            }
+            queueLock.notifyAll();
+        }
+    }
+
+    // 取出轮转顺序中第一个用户的队首任务，该用户如还有任务则移到末尾
+    private FileJob take() throws InterruptedException {
+        synchronized (queueLock) {
+            while (queues.isEmpty()) {
+                queueLock.wait();
+            }
+            Iterator<Map.Entry<String, ArrayDeque<FileJob>>> iterator = queues.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<FileJob>> first = iterator.next();
+            iterator.remove();
+            FileJob job = first.getValue().poll();
+            if (!first.getValue().isEmpty()) {
+                queues.put(first.getKey(), first.getValue());
+            }
+            return job;
+        }
+    }
+
+    private void workLoop() {
+        while (!stopping) {
+            FileJob job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            runners.put(job.getJobId(), Thread.currentThread());
+            try {
+                execute(job);
+            } finally {
+                synchronized (job) {
+                    runners.remove(job.getJobId());
+                }
+                // 清除取消时可能残留的中断标记，避免影响下一个任务
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void execute(FileJob job) {
+        // 出队后、登记 runner 前被取消的任务
+        if (job.isCancelRequested()) {
+            complete(job, FileJob.CANCELLED, "任务已取消");
+            return;
+        }
+        job.start();
+        synchronized (job) {
+            if (job.isPersisted()) {
+                persist(job);
+            }
+        }
+        Path source = new Path(job.getSource());
+        // 任务类型的小写即操作名：copy / move / delete
+        String operation = job.getType().toLowerCase(Locale.ROOT);
+        Timer.Sample sample = metrics.start();
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            switch (job.getType()) {
+                case FileJob.COPY:
+                    // 按源的大小预占配额，超出时复制不会开始；失败时退回
+                    long reserved = quotaService.reserve(job.getUserId(), fs, source);
+                    try {
+                        copy(fs, source, new Path(job.getTarget()), job);
+                    } catch (IOException | RuntimeException e) {
+                        quotaService.record(job.getUserId(), -reserved);
+                        throw e;
+                    }
+                    break;
+                case FileJob.MOVE:
+                    job.setTotalFiles(1);
+                    move(fs, source, new Path(job.getTarget()));
+                    job.addDoneFile();
+                    break;
+                case FileJob.DELETE:
+                    job.setTotalFiles(1);
+                    delete(job.getUserId(), fs, source);
+                    job.addDoneFile();
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的任务类型: " + job.getType());
+            }
+            complete(job, FileJob.SUCCEEDED, null);
+            metrics.success(sample, operation);
+        } catch (IOException | RuntimeException e) {
+            if (stopping) {
+                // 服务关闭导致的中断：保持持久化状态为执行中，重启后重新执行
+                logger.info("服务关闭，任务 {} 将在重启后继续", job.getJobId());
+                return;
+            }
+            if (job.isCancelRequested()) {
+                cleanUpCopyTarget(job);
+                complete(job, FileJob.CANCELLED, "任务已取消");
+            } else {
+                logger.error("任务 {} 失败: {}", job.getJobId(), e.getMessage(), e);
+                metrics.failure(sample, operation, e);
+                cleanUpCopyTarget(job);
+                complete(job, FileJob.FAILED, e.getMessage());
+            }
+        }
+    }
+
+    // 提交时确认过目标不存在，但任务可能排队一段时间，期间用户可能在目标处新建了文件或目录
+    // 所以先复制到本任务独占的暂存路径，最后不替换地改名为目标：目标已存在时失败，不会合并进用户的目录
+    private void copy(FileSystem fs, Path source, Path target, FileJob job) throws IOException {
+        if (packService.contains(source)) {
+            // 打包存储的小文件只复制索引，HDFS上的同名项要单独确认
+            job.setTotalFiles(1);
+            if (packService.contains(target) || HdfsOps.statOrNull(fs, target) != null) {
+                throw new FileAlreadyExistsException("目标文件已存在: " + target);
+            }
+            packService.duplicate(source, target);
+            job.addDoneFile();
+            return;
+        }
+        FileStatus status = fs.getFileStatus(source);
+        copyService.measure(fs, status, job);
+        Path staging = stagingPath(job);
+        copyService.copy(fs, status, staging, job);
+        // 复制出来的占位文件引用同一份内容，目录下打包存储的文件复制索引，压缩数据原样复制后补上记录
+        // 索引先登记在暂存路径下，失败时随暂存路径一起清理
+        dedupService.duplicate(source, staging);
+        packService.duplicate(source, staging);
+        compressionService.duplicate(source, staging);
+        HdfsOps.renameNoReplace(fs, staging, target);
+        // 改名成功后目标处原本没有东西，按前缀改只会改到本任务登记的索引
+        dedupService.relocate(staging, target);
+        packService.relocate(staging, target);
+        compressionService.relocate(staging, target);
+    }
+
+    // 与目标同目录，改名只是一次元数据操作；名字带任务ID，只属于这个任务
+    private static Path stagingPath(FileJob job) {
+        Path target = new Path(job.getTarget());
+        return new Path(target.getParent(), "." + target.getName() + ".copy-" + job.getJobId());
+    }
+
+    // 移动和删除都只是NameNode上的一次元数据操作（目录也一样），批量操作（BatchService）不经任务队列直接调用
+    // 调用方负责失效目录列表缓存
+    // 源和目标是否存在不事先查询，由不替换的改名原子地判断，常见情况只有一次RPC
+    void move(FileSystem fs, Path source, Path target) throws IOException {
+        // 打包存储的文件不在HDFS上，改名看不到，先查索引（数据库）
+        if (packService.contains(target)) {
+            throw new FileAlreadyExistsException("目标文件已存在: " + target);
+        }
+        if (packService.contains(source)) {
+            // 只改索引，HDFS上的同名项要单独确认
+            if (HdfsOps.statOrNull(fs, target) != null) {
+                throw new FileAlreadyExistsException("目标文件已存在: " + target);
+            }
+            if (!target.getParent().equals(source.getParent())) {
+                fs.mkdirs(target.getParent());
+            }
+            packService.relocate(source, target);
+            return;
+        }
+        // 先改名再改引用：目标已存在时改名失败，引用还没动；目标处已有的引用不会被一起改走
+        HdfsOps.renameNoReplace(fs, source, target);
+        try {
+            dedupService.relocate(source, target);
+            packService.relocate(source, target);
+            compressionService.relocate(source, target);
+        } catch (RuntimeException e) {
+            // 引用没改完：文件改回原处，已改的引用按前缀改回
+            // 改名成功说明目标处原本没有东西，目标前缀下只有本次改过去的引用
+            HdfsOps.renameNoReplace(fs, target, source);
+            dedupService.relocate(target, source);
+            packService.relocate(target, source);
+            compressionService.relocate(target, source);
+            throw e;
+        }
+    }
+
+    // 启用配额时先算出要删除的大小（多一次 getContentSummary），删除成功后从已用空间中扣除
+    void delete(String userId, FileSystem fs, Path source) throws IOException {
+        long bytes = quotaService.sizeOf(fs, source);
+        // 打包存储的小文件没有HDFS文件，只删索引；递归删除只在路径不存在时返回 false，不需要事先查询
+        if (!packService.contains(source) && !fs.delete(source, true)) {
+            throw new FileNotFoundException("文件不存在: " + source);
+        }
+        // 先删文件再释放引用：中途失败最多多留一份内容，不会出现指向已删内容的文件
+        dedupService.release(source);
+        packService.release(source);
+        compressionService.release(source);
+        quotaService.record(userId, -bytes);
+    }
+
+    private void complete(FileJob job, String state, String message) {
+        // 先失效目录列表缓存再公布结果，前端看到任务结束后刷新列表一定是新的
+        invalidateListings(job);
+        synchronized (job) {
+            job.finish(state, message);
+            if (job.isPersisted()) {
+                persist(job);
+            }
+        }
+    }
+
+    // 失败或取消的任务也可能已改动了一部分，一律失效
+    private void invalidateListings(FileJob job) {
+        if (job.getSource() != null && !FileJob.COPY.equals(job.getType())) {
+            Path source = new Path(job.getSource());
+            listingCache.invalidateParent(source);
+            listingCache.invalidate(source, true);
+        }
+        if (job.getTarget() != null) {
+            Path target = new Path(job.getTarget());
+            listingCache.invalidateParent(target);
+            listingCache.invalidate(target, true);
+        }
+    }
+
+    // 复制失败或取消时只删除本任务的暂存路径和登记在它下面的索引，目标路径上的内容不是本任务写的，不碰
+    private void cleanUpCopyTarget(FileJob job) {
+        if (!FileJob.COPY.equals(job.getType())) {
+            return;
+        }
+        Path staging = stagingPath(job);
+        try {
+            hdfsClientPool.get().delete(staging, true);
+            dedupService.release(staging);
+            packService.release(staging);
+            compressionService.release(staging);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("清理未完成的复制失败: {}", e.getMessage());
+        }
+    }
+
+    private void persist(FileJob job) {
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            try (OutputStreamWriter writer = new OutputStreamWriter(
+                    fs.create(new Path(STATE_DIR, job.getJobId() + JOB_SUFFIX), true), StandardCharsets.UTF_8)) {
+                writer.write(gson.toJson(job));
+            }
+        } catch (IOException e) {
+            logger.warn("保存任务状态失败 {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+
+    // 启动时恢复：本节点未完成的任务清零进度后重新排队，已结束的任务在保留期内仍可查询；
+    // 其他节点的任务只在它的租约过期后接管，正在运行的任务不会被清理目标、重复执行
+    private void recover() {
+        lastOrphanScan = System.currentTimeMillis();
+        scan(true);
+    }
+
+    // 定期续租；每过一个租约期查一次失联节点留下的任务
+    private void heartbeat() {
+        renewLease();
+        long now = System.currentTimeMillis();
+        if (now - lastOrphanScan >= leaseMillis) {
+            lastOrphanScan = now;
+            scan(false);
+        }
+    }
+
+    private void renewLease() {
+        if (heartbeatMillis <= 0) {
+            return;
+        }
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            Path lease = new Path(NODE_DIR, nodeId);
+            try {
+                fs.setTimes(lease, System.currentTimeMillis(), -1);
+            } catch (FileNotFoundException e) {
+                fs.create(lease, true).close();
+            }
+        } catch (IOException e) {
+            logger.warn("更新任务租约失败: {}", e.getMessage());
+        }
+    }
+
+    private void scan(boolean startup) {
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            Path stateDir = new Path(STATE_DIR);
+            if (!fs.exists(stateDir)) {
+                return;
+            }
+            Map<String, Long> leases = leases(fs);
+            long now = System.currentTimeMillis();
+            for (FileStatus status : fs.listStatus(stateDir)) {
+                String name = status.getPath().getName();
+                if (!status.isFile() || !name.endsWith(JOB_SUFFIX)
+                        || jobs.containsKey(name.substring(0, name.length() - JOB_SUFFIX.length()))) {
+                    continue;
+                }
+                FileJob job;
+                try (FSDataInputStream in = fs.open(status.getPath())) {
+                    job = gson.fromJson(IOUtils.toString(in, StandardCharsets.UTF_8), FileJob.class);
+                } catch (FileNotFoundException e) {
+                    // 列出之后被所属节点清理了
+                    continue;
+                }
+                job.setPersisted(true);
+                boolean mine = nodeId.equals(job.getOwner());
+                if (job.isFinished()) {
+                    if (now - job.getFinishedAt() > JOB_RETENTION_MILLIS) {
+                        fs.delete(status.getPath(), false);
+                        fs.delete(new Path(CLAIM_DIR, job.getJobId()), true);
+                    } else if (mine && startup) {
+                        jobs.put(job.getJobId(), job);
+                    }
+                } else if ((mine && startup) || (!mine && leaseExpired(leases, job.getOwner(), now)
+                        && claim(fs, job))) {
+                    if (FileJob.RUNNING.equals(job.getState())) {
+                        cleanUpCopyTarget(job);
+                    }
+                    job.reset();
+                    if (!mine) {
+                        logger.info("接管失联节点 {} 的任务 {}", job.getOwner(), job.getJobId());
+                        job.setOwner(nodeId);
+                        persist(job);
+                    }
+                    logger.info("恢复未完成的任务 {}: {} {}", job.getJobId(), job.getType(), job.getSource());
+                    enqueue(job);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("恢复后台任务失败: {}", e.getMessage());
+        }
+    }
+
+    // 各节点最后一次续租的时间
+    private Map<String, Long> leases(FileSystem fs) throws IOException {
+        Map<String, Long> leases = new HashMap<>();
+        try {
+            for (FileStatus status : fs.listStatus(new Path(NODE_DIR))) {
+                leases.put(status.getPath().getName(), status.getModificationTime());
+            }
+        } catch (FileNotFoundException e) {
+            // 还没有节点续过租
+        }
+        return leases;
+    }
+
+    // 没有所属节点的旧任务视为已失联；关闭了租约（heartbeat-seconds=0）的节点不接管其他节点的任务
+    private boolean leaseExpired(Map<String, Long> leases, String owner, long now) {
+        if (owner == null) {
+            return true;
+        }
+        if (heartbeatMillis <= 0) {
+            return false;
+        }
+        Long renewed = leases.get(owner);
+        return renewed == null || now - renewed > leaseMillis;
+    }
+
+    // 不覆盖地创建认领标记，同一任务同一个失联节点只有一个节点能建成
+    private boolean claim(FileSystem fs, FileJob job) throws IOException {
+        String previous = job.getOwner() == null ? "unknown" : job.getOwner();
+        try {
+            fs.create(new Path(new Path(CLAIM_DIR, job.getJobId()), previous), false).close();
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private void purgeFinishedJobs() {
+        long now = System.currentTimeMillis();
+        Iterator<FileJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            FileJob job = iterator.next();
+            if (job.isFinished() && now - job.getFinishedAt() > JOB_RETENTION_MILLIS) {
+                iterator.remove();
+                if (job.isPersisted()) {
+                    try {
+                        FileSystem fs = hdfsClientPool.get();
+                        fs.delete(new Path(STATE_DIR, job.getJobId() + JOB_SUFFIX), false);
+                        fs.delete(new Path(CLAIM_DIR, job.getJobId()), true);
+                    } catch (IOException e) {
+                        logger.warn("删除过期任务状态失败: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+}
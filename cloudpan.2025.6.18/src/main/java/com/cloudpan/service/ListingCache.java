@@ -0,0 +1,136 @@
+package com.cloudpan.service;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//目录列表缓存：前端每次操作后都会刷新列表，命中时不再访问NameNode
+//  - LRU + TTL，条目数有上限；键为规范化后的目录路径（去掉scheme和末尾的/）
+//  - 上传、删除、重命名、复制、移动在写入后精确失效受影响的父目录（以及被删除/移走的子树）
+//  - 其他Web节点的写入不会通知到本机，由TTL兜底
+@Component
+public class ListingCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    // 每次失效加一；加载开始后发生过失效的结果不写入缓存，避免并发的旧结果覆盖失效
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ListingCache(@Value("${cloudpan.listing-cache.max-entries:10000}") int maxEntries,
+                        @Value("${cloudpan.listing-cache.ttl-seconds:30}") long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ListingCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // 返回缓存的列表，null 表示未命中；目录不存在时缓存的是空数组
+    public FileStatus[] get(Path dir) {
+        String key = key(dir);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt <= ttlMillis) {
+                hits.increment();
+                return entry.statuses;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    // 加载前取得的版本号，配合 put 使用
+    public long beginLoad() {
+        return generation.get();
+    }
+
+    public void put(Path dir, FileStatus[] statuses, long loadGeneration) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (generation.get() == loadGeneration) {
+                entries.put(key(dir), new Entry(statuses, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    // 文件或子目录发生变化：失效它所在的目录
+    public void invalidateParent(Path path) {
+        Path parent = path.getParent();
+        if (parent != null) {
+            invalidate(parent, false);
+        }
+    }
+
+    // 失效一个目录；subtree 为 true 时连同其下所有已缓存的子目录（删除、移走目录时使用）
+    public void invalidate(Path dir, boolean subtree) {
+        String key = key(dir);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        synchronized (entries) {
+            generation.incrementAndGet();
+            invalidations.increment();
+            entries.remove(key);
+            if (subtree) {
+                Iterator<String> iterator = entries.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().startsWith(prefix)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        // 命中率（百分比），即少发的NameNode列表请求所占比例
+        stats.put("hitRatePercent", hitCount + missCount == 0 ? 0 : hitCount * 100 / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        stats.put("invalidations", invalidations.sum());
+        synchronized (entries) {
+            stats.put("size", (long) entries.size());
+        }
+        return stats;
+    }
+
+    private static String key(Path dir) {
+        return Path.getPathWithoutSchemeAndAuthority(dir).toString();
+    }
+
+    private static class Entry {
+        final FileStatus[] statuses;
+        final long loadedAt;
+
+        Entry(FileStatus[] statuses, long loadedAt) {
+            this.statuses = statuses;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.PackCompaction;
+import com.cloudpan.entity.PackedFile;
+import com.cloudpan.repository.PackCompactionJpaRepository;
+import com.cloudpan.repository.PackedFileJpaRepository;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//小文件打包：低于阈值的文件追加到用户的容器文件 /packs/<userId>/<节点>-<时间>-<序号>.pack，不再各占一个NameNode inode
+//文件在容器中的位置记录在数据库索引里，读取用定位读；列目录时与HDFS的目录项合并，对调用方而言仍是普通文件
+//  - 每个Web节点每个用户同时只写一个容器，输出流保持打开，每个文件写完 hsync 后再登记索引
+//  - 删除只删索引，空出的字节由后台压缩回收：垃圾比例超过阈值的容器把仍在用的片段搬到新容器
+//  - 各节点都会压缩，改写前在数据库中认领容器（cloudpan_pack_compaction），同一容器只有一个节点改写，
+//    退役时间也记在这里，任何节点都要等宽限期过后才删除旧容器
+//  - cloudpan.pack.enabled 只决定新上传是否打包，已打包的文件始终可以读取、删除、移动
+@Service
+public class PackService {
+    private static final String PACK_DIR = "/packs";
+    private static final String SUFFIX = ".pack";
+    private static final int LIST_BATCH = 500;
+    // 压缩后旧容器保留一段时间再删，正在进行的下载不受影响
+    private static final long RETIRE_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // 认领后这么久仍未改写完，视为改写的节点已退出，放弃认领
+    private static final long STALE_CLAIM_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final HdfsClientPool hdfsClientPool;
+    private final BufferPool bufferPool;
+    private final PackedFileJpaRepository repository;
+    private final PackCompactionJpaRepository compactionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int thresholdBytes;
+    private final long containerBytes;
+    private final long compactIntervalMinutes;
+    private final double garbageRatio;
+    // 本节点写入的容器名前缀，多个Web节点不会写同一个容器
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong sequence = new AtomicLong();
+    // 用户 -> 本节点正在写的容器
+    private final Map<String, Container> containers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService compactor;
+    private final Logger logger = LoggerFactory.getLogger(PackService.class);
+
+    public PackService(HdfsClientPool hdfsClientPool,
+                       BufferPool bufferPool,
+                       PackedFileJpaRepository repository,
+                       PackCompactionJpaRepository compactionRepository,
+                       PlatformTransactionManager transactionManager,
+                       @Value("${cloudpan.pack.enabled:false}") boolean enabled,
+                       @Value("${cloudpan.pack.threshold-bytes:262144}") int thresholdBytes,
+                       @Value("${cloudpan.pack.container-bytes:268435456}") long containerBytes,
+                       @Value("${cloudpan.pack.compact-interval-minutes:60}") long compactIntervalMinutes,
+                       @Value("${cloudpan.pack.compact-garbage-ratio:0.5}") double garbageRatio) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.bufferPool = bufferPool;
+        this.repository = repository;
+        this.compactionRepository = compactionRepository;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.thresholdBytes = thresholdBytes;
+        this.containerBytes = containerBytes;
+        this.compactIntervalMinutes = compactIntervalMinutes;
+        this.garbageRatio = garbageRatio;
+    }
+
+    // 不带数据库的实例：不打包，也没有索引需要查询，供基准程序直接构造 FileService 使用
+    public static PackService withoutIndex(HdfsClientPool hdfsClientPool, BufferPool bufferPool) {
+        return new PackService(hdfsClientPool, bufferPool, null, null, null, false, 0, 0, 0, 0);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (repository == null || compactIntervalMinutes <= 0) {
+            return;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pack-compactor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactQuietly,
+                compactIntervalMinutes, compactIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        for (Container container : containers.values()) {
+            synchronized (container) {
+                container.close();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && repository != null;
+    }
+
+    public int getThresholdBytes() {
+        return thresholdBytes;
+    }
+
+    // 追加到用户当前的容器，hsync 之后登记索引；中途失败只会在容器里留下没有索引指向的字节
+    // 索引在释放容器锁之前写入：否则其他上传可能先让容器换新并关闭，另一个节点的整理看到已关闭、没有引用的容器就会删掉它
+    public void pack(String userId, Path logical, byte[] data, int length) throws IOException {
+        String key = HdfsOps.key(logical);
+        if (repository.existsByPath(key)) {
+            throw new FileAlreadyExistsException("文件已存在: " + logical.getName());
+        }
+        FileSystem fs = hdfsClientPool.get();
+        Container container = containers.computeIfAbsent(userId, id -> new Container());
+        synchronized (container) {
+            if (container.out == null || container.out.getPos() + length > containerBytes) {
+                container.close();
+                container.path = new Path(PACK_DIR + "/" + userId + "/" + nodeId + "-"
+                        + System.currentTimeMillis() + "-" + sequence.incrementAndGet() + SUFFIX);
+                container.out = fs.create(container.path, false);
+            }
+            long start = container.out.getPos();
+            try {
+                container.out.write(data, 0, length);
+                container.out.hsync();
+            } catch (IOException e) {
+                // 写失败的容器不再追加，下一个文件换新容器
+                container.close();
+                throw e;
+            }
+            try {
+                repository.saveAndFlush(new PackedFile(key, HdfsOps.key(logical.getParent()), logical.getName(),
+                        HdfsOps.key(container.path), start, length, System.currentTimeMillis()));
+            } catch (DataIntegrityViolationException e) {
+                throw new FileAlreadyExistsException("文件已存在: " + logical.getName());
+            }
+        }
+    }
+
+    public boolean contains(Path path) {
+        return repository != null && repository.existsByPath(HdfsOps.key(path));
+    }
+
+    // 打包存储的文件状态，不存在时返回 null
+    public PackedStatus find(Path path) {
+        if (repository == null) {
+            return null;
+        }
+        PackedFile file = repository.findByPath(HdfsOps.key(path));
+        return file == null ? null : toStatus(file);
+    }
+
+    // listFiles 一次取整个目录
+    public FileStatus[] withPackedEntries(Path dir, FileStatus[] statuses) {
+        if (repository == null) {
+            return statuses;
+        }
+        List<PackedFile> packed = repository.findByParentOrderByNameAsc(HdfsOps.key(dir));
+        if (packed.isEmpty()) {
+            return statuses;
+        }
+        FileStatus[] result = Arrays.copyOf(statuses, statuses.length + packed.size());
+        for (int i = 0; i < packed.size(); i++) {
+            result[statuses.length + i] = toStatus(packed.get(i));
+        }
+        return result;
+    }
+
+    // listPage 逐项遍历：HDFS目录项与索引中的文件都按名称升序，归并后仍是名称升序，按名称分页不受影响
+    public RemoteIterator<FileStatus> withPackedEntries(Path dir, RemoteIterator<FileStatus> iterator) {
+        if (repository == null) {
+            return iterator;
+        }
+        String parent = HdfsOps.key(dir);
+        return new RemoteIterator<FileStatus>() {
+            private final ArrayDeque<PackedFile> batch = new ArrayDeque<>();
+            private String lastName = "";
+            private boolean exhausted;
+            private FileStatus pendingHdfs;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                return peekPacked() != null || peekHdfs() != null;
+            }
+
+            @Override
+            public FileStatus next() throws IOException {
+                PackedFile packed = peekPacked();
+                FileStatus hdfs = peekHdfs();
+                if (packed == null && hdfs == null) {
+                    throw new NoSuchElementException();
+                }
+                if (hdfs == null || (packed != null && packed.getName().compareTo(hdfs.getPath().getName()) < 0)) {
+                    return toStatus(batch.poll());
+                }
+                pendingHdfs = null;
+                return hdfs;
+            }
+
+            private FileStatus peekHdfs() throws IOException {
+                if (pendingHdfs == null && iterator.hasNext()) {
+                    pendingHdfs = iterator.next();
+                }
+                return pendingHdfs;
+            }
+
+            private PackedFile peekPacked() {
+                if (batch.isEmpty() && !exhausted) {
+                    List<PackedFile> read = repository.findByParentAndNameGreaterThanOrderByNameAsc(
+                            parent, lastName, PageRequest.of(0, LIST_BATCH));
+                    batch.addAll(read);
+                    if (read.size() < LIST_BATCH) {
+                        exhausted = true;
+                    } else {
+                        lastName = read.get(read.size() - 1).getName();
+                    }
+                }
+                return batch.peek();
+            }
+        };
+    }
+
+    // 删除文件或目录之后调用：删除其下所有索引，字节留给压缩回收
+    public void release(Path path) {
+        if (repository == null) {
+            return;
+        }
+        String key = HdfsOps.key(path);
+        transactionTemplate.execute(tx -> {
+            List<PackedFile> files = repository.findTree(key, HdfsOps.likePrefix(key));
+            repository.deleteInBatch(files);
+            return null;
+        });
+    }
+
+    // 改名、移动：单个打包文件直接改索引；目录下的打包文件随前缀一起改，一条 UPDATE 完成
+    public void relocate(Path from, Path to) {
+        if (repository == null) {
+            return;
+        }
+        String fromKey = HdfsOps.key(from);
+        String toKey = HdfsOps.key(to);
+        transactionTemplate.execute(tx -> {
+            repository.relocate(fromKey, toKey, HdfsOps.key(to.getParent()), to.getName());
+            return repository.relocateTree(HdfsOps.likePrefix(fromKey), fromKey.length(), toKey);
+        });
+    }
+
+    // 复制：新索引指向同一段内容，不复制字节；压缩时共享的片段只写一次
+    public void duplicate(Path from, Path to) {
+        if (repository == null) {
+            return;
+        }
+        String fromKey = HdfsOps.key(from);
+        String toKey = HdfsOps.key(to);
+        transactionTemplate.execute(tx -> {
+            List<PackedFile> files = repository.findTree(fromKey, HdfsOps.likePrefix(fromKey));
+            List<PackedFile> copies = new ArrayList<>(files.size());
+            long now = System.currentTimeMillis();
+            for (PackedFile file : files) {
+                String path = toKey + file.getPath().substring(fromKey.length());
+                String parent = path.substring(0, path.lastIndexOf('/'));
+                copies.add(new PackedFile(path, parent.isEmpty() ? "/" : parent,
+                        path.substring(path.lastIndexOf('/') + 1),
+                        file.getContainer(), file.getStart(), file.getSize(), now));
+            }
+            repository.saveAll(copies);
+            return null;
+        });
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("容器压缩失败: {}", e.getMessage(), e);
+        }
+    }
+
+    // 一轮压缩：删除已无引用的容器，改写垃圾比例过高的容器
+    // 跳过本节点正在写的容器，以及仍未关闭的容器（其他节点正在写的）
+    public void compact() throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        Map<String, Long> live = new HashMap<>();
+        for (Object[] row : repository.sumSizeByContainer()) {
+            live.put((String) row[0], (Long) row[1]);
+        }
+        // 在引用统计之后读：看到某容器已无引用时，改写它的节点提交的退役记录一定也已可见
+        Map<String, PackCompaction> compactions = new HashMap<>();
+        for (PackCompaction compaction : compactionRepository.findAll()) {
+            compactions.put(compaction.getContainer(), compaction);
+        }
+        Set<String> writing = new HashSet<>();
+        for (Container container : containers.values()) {
+            synchronized (container) {
+                if (container.path != null) {
+                    writing.add(HdfsOps.key(container.path));
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        long minAge = TimeUnit.MINUTES.toMillis(compactIntervalMinutes);
+        RemoteIterator<LocatedFileStatus> iterator;
+        try {
+            iterator = fs.listFiles(new Path(PACK_DIR), true);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        int deleted = 0;
+        int rewritten = 0;
+        while (iterator.hasNext()) {
+            LocatedFileStatus status = iterator.next();
+            String name = HdfsOps.key(status.getPath());
+            if (!name.endsWith(SUFFIX) || writing.contains(name) || !isClosed(fs, status, now - minAge)) {
+                continue;
+            }
+            long used = live.getOrDefault(name, 0L);
+            PackCompaction compaction = compactions.remove(name);
+            if (compaction != null && compaction.getRetiredAt() == 0) {
+                // 正在被某个节点改写
+                if (now - compaction.getClaimedAt() >= STALE_CLAIM_MILLIS) {
+                    release(name);
+                }
+                continue;
+            }
+            boolean graceOver = compaction == null || now - compaction.getRetiredAt() >= RETIRE_GRACE_MILLIS;
+            if (used == 0) {
+                if (graceOver) {
+                    fs.delete(status.getPath(), false);
+                    if (compaction != null) {
+                        release(name);
+                    }
+                    deleted++;
+                }
+            } else if (compaction != null) {
+                // 改写期间新复制出的片段仍指向旧容器，宽限期过后去掉记录，下一轮按垃圾比例重新判断
+                if (graceOver) {
+                    release(name);
+                }
+            } else if (status.getLen() - used >= status.getLen() * garbageRatio && claim(name, now)) {
+                try {
+                    rewrite(fs, status.getPath(), name);
+                } catch (IOException | RuntimeException e) {
+                    release(name);
+                    throw e;
+                }
+                rewritten++;
+            }
+        }
+        // 容器已被其他节点删除，只剩下记录
+        for (PackCompaction compaction : compactions.values()) {
+            if (compaction.getRetiredAt() > 0 && now - compaction.getRetiredAt() >= RETIRE_GRACE_MILLIS) {
+                release(compaction.getContainer());
+            }
+        }
+        if (deleted > 0 || rewritten > 0) {
+            logger.info("容器压缩完成：删除 {} 个，改写 {} 个", deleted, rewritten);
+        }
+    }
+
+    private void release(String container) {
+        transactionTemplate.execute(tx -> compactionRepository.release(container));
+    }
+
+    // 插入认领记录，主键冲突说明其他节点已认领
+    private boolean claim(String container, long now) {
+        try {
+            transactionTemplate.execute(tx -> compactionRepository.saveAndFlush(new PackCompaction(container, now)));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    // HDFS 可以直接问 NameNode 文件是否已关闭；其他文件系统以一个压缩周期内没有修改为准
+    private static boolean isClosed(FileSystem fs, FileStatus status, long modifiedBefore) throws IOException {
+        if (fs instanceof DistributedFileSystem) {
+            return ((DistributedFileSystem) fs).isFileClosed(status.getPath());
+        }
+        return status.getModificationTime() < modifiedBefore;
+    }
+
+    // 仍在用的片段按顺序搬到同一用户目录下的新容器，索引逐条改指向，成功后旧容器进入待删状态
+    private void rewrite(FileSystem fs, Path source, String sourceKey) throws IOException {
+        List<PackedFile> files = repository.findByContainerOrderByStartAsc(sourceKey);
+        Path target = new Path(source.getParent(), nodeId + "-" + System.currentTimeMillis() + "-"
+                + sequence.incrementAndGet() + SUFFIX);
+        String targetKey = HdfsOps.key(target);
+        // 旧偏移 -> 新偏移，复制产生的共享片段只写一次
+        Map<Long, Long> moved = new HashMap<>();
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataInputStream in = fs.open(source);
+             FSDataOutputStream out = fs.create(target, false)) {
+            for (PackedFile file : files) {
+                if (moved.containsKey(file.getStart())) {
+                    continue;
+                }
+                moved.put(file.getStart(), out.getPos());
+                long position = file.getStart();
+                long end = position + file.getSize();
+                while (position < end) {
+                    int n = (int) Math.min(buffer.length, end - position);
+                    in.readFully(position, buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    position += n;
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        transactionTemplate.execute(tx -> {
+            for (PackedFile file : files) {
+                repository.moveSlice(file.getId(), sourceKey, file.getStart(), targetKey, moved.get(file.getStart()));
+            }
+            compactionRepository.markRetired(sourceKey, System.currentTimeMillis());
+            return null;
+        });
+        logger.debug("容器 {} 已改写为 {}", sourceKey, targetKey);
+    }
+
+    private PackedStatus toStatus(PackedFile file) {
+        short replication = (short) hdfsClientPool.getConf().getInt("dfs.replication", 3);
+        return new PackedStatus(file.getSize(), replication, file.getModificationTime(), new Path(file.getPath()),
+                new Path(file.getContainer()), file.getStart());
+    }
+
+    // 对外表现为普通文件，getPath() 是用户路径；读取内容时改读容器中的那一段
+    public static class PackedStatus extends FileStatus {
+        private final Path container;
+        private final long start;
+
+        PackedStatus(long length, short replication, long modificationTime, Path path, Path container, long start) {
+            super(length, false, replication, 0, modificationTime, path);
+            this.container = container;
+            this.start = start;
+        }
+
+        public Path getContainer() {
+            return container;
+        }
+
+        public long getStart() {
+            return start;
+        }
+    }
+
+    private static class Container {
+        Path path;
+        FSDataOutputStream out;
+
+        void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(PackService.class).warn("关闭容器 {} 失败: {}", path, e.getMessage());
+                }
+            }
+            out = null;
+            path = null;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//缩略图与文本预览：上传完成后在后台生成，列表页直接显示缩略图，不必下载原文件
+//  - 生成结果保存在HDFS /previews 下，名称由 用户+路径+大小+修改时间 的哈希决定，文件改动后自然换成新的预览
+//  - 本机磁盘上有一个按字节数限制的LRU缓存，命中时不访问HDFS
+//  - 生成在有界线程池中进行，队列满时丢弃后台任务，不影响上传；用户打开预览时缺失的再按需生成
+//  - 预览可以随时重新生成，超过保留期的定期清除，已删除或改名文件留下的预览由此回收
+@Service
+public class PreviewService {
+    private static final String PREVIEW_DIR = "/previews";
+    private static final String THUMBNAIL_SUFFIX = ".jpg";
+    private static final String TEXT_SUFFIX = ".txt";
+    public static final String THUMBNAIL_TYPE = "image/jpeg";
+    public static final String TEXT_TYPE = "text/plain;charset=UTF-8";
+    private static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "bmp"));
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "txt", "md", "log", "csv", "json", "xml", "yml", "yaml", "properties", "ini", "conf",
+            "java", "js", "ts", "py", "go", "c", "h", "cpp", "sh", "sql", "html", "css"));
+    private static final long GENERATE_TIMEOUT_SECONDS = 10;
+
+    private final HdfsClientPool hdfsClientPool;
+    private final boolean enabled;
+    private final int thumbnailSize;
+    private final int textBytes;
+    private final long maxImageBytes;
+    private final long retentionDays;
+    private final ThreadPoolExecutor executor;
+    private final DiskCache diskCache;
+    private ScheduledExecutorService sweeper;
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(PreviewService.class);
+
+    public PreviewService(HdfsClientPool hdfsClientPool,
+                          @Value("${cloudpan.preview.enabled:true}") boolean enabled,
+                          @Value("${cloudpan.preview.threads:2}") int threads,
+                          @Value("${cloudpan.preview.queue:256}") int queue,
+                          @Value("${cloudpan.preview.thumbnail-size:256}") int thumbnailSize,
+                          @Value("${cloudpan.preview.text-bytes:4096}") int textBytes,
+                          @Value("${cloudpan.preview.max-image-bytes:20971520}") long maxImageBytes,
+                          @Value("${cloudpan.preview.cache-dir:./data/preview-cache}") String cacheDir,
+                          @Value("${cloudpan.preview.cache-bytes:268435456}") long cacheBytes,
+                          @Value("${cloudpan.preview.retention-days:30}") long retentionDays) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.enabled = enabled;
+        this.thumbnailSize = thumbnailSize;
+        this.textBytes = textBytes;
+        this.maxImageBytes = maxImageBytes;
+        this.retentionDays = retentionDays;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+            Thread t = new Thread(r, "preview-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.diskCache = new DiskCache(new File(cacheDir), cacheBytes);
+    }
+
+    // 不启动Spring时使用（基准程序），不生成预览
+    public static PreviewService disabled(HdfsClientPool hdfsClientPool) {
+        return new PreviewService(hdfsClientPool, false, 1, 1, 256, 4096, 0, "", 0, 0);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        diskCache.load();
+        if (retentionDays > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "preview-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweep, 1, 24, TimeUnit.HOURS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    public boolean supports(String fileName) {
+        if (!enabled) {
+            return false;
+        }
+        String extension = FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT);
+        return IMAGE_EXTENSIONS.contains(extension) || TEXT_EXTENSIONS.contains(extension);
+    }
+
+    // 上传完成后调用：在后台查询文件状态并生成预览；线程池忙时直接放弃，之后按需生成
+    public void prepare(String fileName, Callable<Target> target) {
+        if (!supports(fileName)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    ensure(target.call());
+                } catch (Exception e) {
+                    logger.debug("生成预览失败 {}: {}", fileName, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    // 取预览：本机缓存命中时直接返回，否则交给线程池生成并等待；线程池已满时抛出 RejectedExecutionException
+    // 返回 null 表示该文件无法生成预览（不支持的类型、损坏的图片等）
+    public Preview get(Target target) throws IOException {
+        String name = artifactName(target);
+        if (name == null) {
+            return null;
+        }
+        byte[] cached = diskCache.get(name);
+        if (cached != null) {
+            return new Preview(name, target, cached);
+        }
+        Future<Preview> future = executor.submit(() -> ensure(target));
+        try {
+            return future.get(GENERATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RejectedExecutionException("生成预览超时");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("生成预览被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // 依次查本机缓存、HDFS上已生成的预览，都没有时生成并写入两处
+    private Preview ensure(Target target) throws IOException {
+        String name = artifactName(target);
+        if (name == null) {
+            return null;
+        }
+        byte[] data = diskCache.get(name);
+        if (data != null) {
+            return new Preview(name, target, data);
+        }
+        FileSystem fs = hdfsClientPool.get();
+        Path artifact = new Path(PREVIEW_DIR + "/" + name.substring(0, 2) + "/" + name);
+        try (FSDataInputStream in = fs.open(artifact)) {
+            data = IOUtils.toByteArray(in);
+        } catch (FileNotFoundException e) {
+            data = name.endsWith(THUMBNAIL_SUFFIX) ? thumbnail(target) : textPreview(target);
+            if (data == null) {
+                return null;
+            }
+            try (FSDataOutputStream out = fs.create(artifact, true)) {
+                out.write(data);
+            }
+            generated.increment();
+        }
+        diskCache.put(name, data);
+        return new Preview(name, target, data);
+    }
+
+    // 按缩略图的大小隔行隔列采样解码，大图也只占用缩略图量级的内存
+    private byte[] thumbnail(Target target) throws IOException {
+        if (target.length > maxImageBytes) {
+            return null;
+        }
+        ByteArrayOutputStream source = new ByteArrayOutputStream((int) target.length);
+        target.source.writeTo(target.length, source);
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(source.toByteArray()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int step = Math.max(1, Math.max(width, height) / (thumbnailSize * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                double scale = Math.min(1.0, (double) thumbnailSize / Math.max(image.getWidth(), image.getHeight()));
+                int thumbWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+                int thumbHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+                // JPEG 不支持透明通道，先铺白底
+                BufferedImage thumb = new BufferedImage(thumbWidth, thumbHeight, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = thumb.createGraphics();
+                try {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, thumbWidth, thumbHeight);
+                    g.drawImage(image, 0, 0, thumbWidth, thumbHeight, null);
+                } finally {
+                    g.dispose();
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(thumb, "jpg", out);
+                return out.toByteArray();
+            } catch (IOException | RuntimeException e) {
+                // 损坏或不支持的图片不生成预览
+                logger.debug("无法生成缩略图: {}", e.getMessage());
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // 文本预览：前 textBytes 个字节按UTF-8解码，截断处不完整的字符丢弃
+    private byte[] textPreview(Target target) throws IOException {
+        int length = (int) Math.min(target.length, textBytes);
+        ByteArrayOutputStream source = new ByteArrayOutputStream(length);
+        target.source.writeTo(length, source);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer text = CharBuffer.allocate(length);
+        decoder.decode(ByteBuffer.wrap(source.toByteArray()), text, false);
+        text.flip();
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 预览名：内容身份（用户、路径、大小、修改时间）的哈希加类型后缀，不支持的类型返回 null
+    private String artifactName(Target target) {
+        String extension = FilenameUtils.getExtension(target.fileName).toLowerCase(Locale.ROOT);
+        String suffix = IMAGE_EXTENSIONS.contains(extension) ? THUMBNAIL_SUFFIX
+                : TEXT_EXTENSIONS.contains(extension) ? TEXT_SUFFIX : null;
+        if (suffix == null) {
+            return null;
+        }
+        String identity = target.identity + "\n" + target.length + "\n" + target.modificationTime
+                + "\n" + thumbnailSize + "\n" + textBytes;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(suffix.length() + 40);
+            for (int i = 0; i < 20; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return sb.append(suffix).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        int deleted = 0;
+        try {
+            FileSystem fs = hdfsClientPool.get();
+            RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(new Path(PREVIEW_DIR), true);
+            while (iterator.hasNext()) {
+                LocatedFileStatus status = iterator.next();
+                if (status.getModificationTime() < cutoff) {
+                    fs.delete(status.getPath(), false);
+                    deleted++;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("清理过期预览失败: {}", e.getMessage());
+        }
+        if (deleted > 0) {
+            logger.info("已清理 {} 个过期预览", deleted);
+        }
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("generated", generated.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("queued", (long) executor.getQueue().size());
+        stats.putAll(diskCache.stats());
+        return stats;
+    }
+
+    // 读取原文件 [0, length) 的方式，由 FileService 提供，打包、去重、压缩存储的文件都能读
+    public interface Source {
+        void writeTo(long length, OutputStream out) throws IOException;
+    }
+
+    public static class Target {
+        final String fileName;
+        final String identity;
+        final long length;
+        final long modificationTime;
+        final Source source;
+
+        public Target(String fileName, String identity, long length, long modificationTime, Source source) {
+            this.fileName = fileName;
+            this.identity = identity;
+            this.length = length;
+            this.modificationTime = modificationTime;
+            this.source = source;
+        }
+    }
+
+    public static class Preview {
+        private final String name;
+        private final long modificationTime;
+        private final byte[] data;
+
+        Preview(String name, Target target, byte[] data) {
+            this.name = name;
+            this.modificationTime = target.modificationTime;
+            this.data = data;
+        }
+
+        // 预览名本身就是内容的版本，直接用作 ETag
+        public String getName() {
+            return name;
+        }
+
+        public String getContentType() {
+            return name.endsWith(THUMBNAIL_SUFFIX) ? THUMBNAIL_TYPE : TEXT_TYPE;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    // 本机磁盘上的LRU缓存：按访问顺序淘汰，总字节数不超过上限；启动时按文件修改时间恢复顺序
+    private static class DiskCache {
+        private final File dir;
+        private final long maxBytes;
+        private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long totalBytes;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final Logger logger = LoggerFactory.getLogger(DiskCache.class);
+
+        DiskCache(File dir, long maxBytes) {
+            this.dir = dir;
+            this.maxBytes = maxBytes;
+        }
+
+        void load() {
+            if (maxBytes <= 0 || (!dir.isDirectory() && !dir.mkdirs())) {
+                return;
+            }
+            File[] files = dir.listFiles((d, name) -> !name.endsWith(".tmp"));
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            synchronized (entries) {
+                for (File file : files) {
+                    entries.put(file.getName(), file.length());
+                    totalBytes += file.length();
+                }
+                evict();
+            }
+        }
+
+        byte[] get(String name) {
+            synchronized (entries) {
+                if (entries.get(name) == null) {
+                    misses.increment();
+                    return null;
+                }
+            }
+            try {
+                byte[] data = Files.readAllBytes(new File(dir, name).toPath());
+                hits.increment();
+                return data;
+            } catch (IOException e) {
+                // 刚被淘汰或被外部删除
+                synchronized (entries) {
+                    Long size = entries.remove(name);
+                    if (size != null) {
+                        totalBytes -= size;
+                    }
+                }
+                misses.increment();
+                return null;
+            }
+        }
+
+        // 先写临时文件再改名，读取方不会看到写了一半的文件
+        void put(String name, byte[] data) {
+            if (maxBytes <= 0) {
+                return;
+            }
+            try {
+                File temp = File.createTempFile("preview", ".tmp", dir);
+                Files.write(temp.toPath(), data);
+                Files.move(temp.toPath(), new File(dir, name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("写入预览缓存失败: {}", e.getMessage());
+                return;
+            }
+            synchronized (entries) {
+                Long previous = entries.put(name, (long) data.length);
+                totalBytes += data.length - (previous == null ? 0 : previous);
+                evict();
+            }
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                iterator.remove();
+                totalBytes -= eldest.getValue();
+                if (!new File(dir, eldest.getKey()).delete()) {
+                    logger.debug("删除预览缓存文件失败: {}", eldest.getKey());
+                }
+            }
+        }
+
+        Map<String, Long> stats() {
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("cacheHits", hits.sum());
+            stats.put("cacheMisses", misses.sum());
+            synchronized (entries) {
+                stats.put("cacheEntries", (long) entries.size());
+                stats.put("cacheBytes", totalBytes);
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.UserUsage;
+import com.cloudpan.repository.UserUsageJpaRepository;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//用户配额：已用空间由内存中的账本增量维护，写入前的检查只读内存，上传路径上不增加任何 NameNode 请求
+//  - 上传、复制、删除的字节数记入该用户的 LongAdder（分段计数，同一用户的并发上传互不争用），后台定期把增量累加到数据库
+//  - 先记账再检查：同一用户的并发写入互相可见，超出配额的一方退回并抛出 DSQuotaExceededException
+//  - 后台核对：逐个主目录按实际大小重新计算（与文件夹大小同一算法），修正异常退出丢失的增量、其他节点的偏差等
+//  - 字节数是用户看到的大小：去重的文件各自计入，压缩的文件按原始大小，打包的小文件按自身大小
+@Service
+public class QuotaService {
+    private static final String USER_ROOT = "users";
+    // 服务启动后多久开始第一轮核对
+    private static final long FIRST_RECONCILE_DELAY_MINUTES = 1;
+
+    private final HdfsClientPool hdfsClientPool;
+    private final TreeWalker treeWalker;
+    private final DedupService dedupService;
+    private final PackService packService;
+    private final CompressionService compressionService;
+    private final UserUsageJpaRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long defaultQuotaBytes;
+    private final long flushIntervalSeconds;
+    private final long reconcileIntervalMinutes;
+    // 用户 -> 本节点的账本
+    private final Map<String, Ledger> ledgers = new ConcurrentHashMap<>();
+    // 主目录以外已预占的空间（分片上传会话），核对时一并计入，不会被当成偏差抹掉
+    private volatile StagedUsage stagedUsage = Collections::emptyMap;
+    private ScheduledExecutorService scheduler;
+    private final Logger logger = LoggerFactory.getLogger(QuotaService.class);
+
+    public QuotaService(HdfsClientPool hdfsClientPool,
+                        TreeWalker treeWalker,
+                        DedupService dedupService,
+                        PackService packService,
+                        CompressionService compressionService,
+                        UserUsageJpaRepository repository,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${cloudpan.quota.enabled:false}") boolean enabled,
+                        @Value("${cloudpan.quota.default-bytes:10737418240}") long defaultQuotaBytes,
+                        @Value("${cloudpan.quota.flush-interval-seconds:5}") long flushIntervalSeconds,
+                        @Value("${cloudpan.quota.reconcile-interval-minutes:360}") long reconcileIntervalMinutes) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.treeWalker = treeWalker;
+        this.dedupService = dedupService;
+        this.packService = packService;
+        this.compressionService = compressionService;
+        this.repository = repository;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.defaultQuotaBytes = defaultQuotaBytes;
+        this.flushIntervalSeconds = flushIntervalSeconds;
+        this.reconcileIntervalMinutes = reconcileIntervalMinutes;
+    }
+
+    // 不带数据库的实例：不限额也不记账，供基准程序直接构造 FileService 使用
+    public static QuotaService disabled(HdfsClientPool hdfsClientPool) {
+        return new QuotaService(hdfsClientPool, null, null, null, null, null, null, false, 0, 0, 0);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        // 写入和核对各用一个线程，耗时的核对不耽误增量写入
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "quota-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly,
+                flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        if (reconcileIntervalMinutes > 0) {
+            scheduler.scheduleWithFixedDelay(this::reconcileQuietly,
+                    FIRST_RECONCILE_DELAY_MINUTES, reconcileIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        // 关闭前写入最后一批增量
+        flushQuietly();
+    }
+
+    public boolean isEnabled() {
+        return enabled && repository != null;
+    }
+
+    // 已用空间和配额（0 表示不限），只读内存
+    public Map<String, Object> usage(String userId) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", isEnabled());
+        if (isEnabled()) {
+            Ledger ledger = ledger(userId);
+            result.put("usedBytes", ledger.used());
+            result.put("quotaBytes", ledger.quota);
+        }
+        return result;
+    }
+
+    // 先记账再检查，超出配额时退回并抛出 DSQuotaExceededException；写入失败时调用方用 record 退回
+    public void reserve(String userId, long bytes) throws DSQuotaExceededException {
+        if (!isEnabled() || bytes == 0) {
+            return;
+        }
+        Ledger ledger = ledger(userId);
+        ledger.pending.add(bytes);
+        long used = ledger.used();
+        if (ledger.quota > 0 && bytes > 0 && used > ledger.quota) {
+            ledger.pending.add(-bytes);
+            throw exceeded(ledger.quota, used - bytes);
+        }
+    }
+
+    // 按路径的大小预占（复制前），返回预占的字节数；未启用时为0，不访问NameNode
+    public long reserve(String userId, FileSystem fs, Path path) throws IOException {
+        long bytes = sizeOf(fs, path);
+        reserve(userId, bytes);
+        return bytes;
+    }
+
+    public void setStagedUsage(StagedUsage stagedUsage) {
+        this.stagedUsage = stagedUsage;
+    }
+
+    // 直接记账：删除为负数，也用于退回预占
+    public void record(String userId, long bytes) {
+        if (!isEnabled() || bytes == 0) {
+            return;
+        }
+        ledger(userId).pending.add(bytes);
+    }
+
+    // 上传流：每读一段先记账再检查，超出配额时抛出 DSQuotaExceededException；上传失败时调用 refund 退回
+    public Metered meter(String userId, InputStream in) {
+        return new Metered(userId, in);
+    }
+
+    // 路径下用户看到的总字节数（文件即自身大小），不存在时为0；未启用时不计算
+    // 没有启用去重、打包、压缩时HDFS中的大小就是用户看到的大小，一次 getContentSummary；否则并行遍历换算
+    public long sizeOf(FileSystem fs, Path path) throws IOException {
+        if (!isEnabled()) {
+            return 0;
+        }
+        if (!dedupService.isEnabled() && !packService.isEnabled() && !compressionService.isEnabled()) {
+            try {
+                return fs.getContentSummary(path).getLength();
+            } catch (FileNotFoundException e) {
+                PackService.PackedStatus packed = packService.find(path);
+                return packed == null ? 0 : packed.getLen();
+            }
+        }
+        FileStatus status = HdfsOps.statOrNull(fs, path);
+        if (status == null) {
+            PackService.PackedStatus packed = packService.find(path);
+            return packed == null ? 0 : packed.getLen();
+        }
+        if (!status.isDirectory()) {
+            return compressionService.resolve(dedupService.resolve(status)).getLen();
+        }
+        LongAdder bytes = new LongAdder();
+        treeWalker.walk(path, dir -> packService.withPackedEntries(dir,
+                dedupService.withLogicalSizes(compressionService.withRawSizes(fs.listStatusIterator(dir)))),
+                child -> {
+                    if (!child.isDirectory()) {
+                        bytes.add(child.getLen());
+                    }
+                }, () -> false);
+        return bytes.sum();
+    }
+
+    private Ledger ledger(String userId) {
+        return ledgers.computeIfAbsent(userId, id -> {
+            Ledger ledger = new Ledger();
+            UserUsage row = repository.findById(id).orElse(null);
+            ledger.base = row == null ? 0 : row.getUsedBytes();
+            ledger.quota = quotaOf(row);
+            return ledger;
+        });
+    }
+
+    private long quotaOf(UserUsage row) {
+        return row == null || row.getQuotaBytes() == null ? defaultQuotaBytes : row.getQuotaBytes();
+    }
+
+    private static DSQuotaExceededException exceeded(long quota, long used) {
+        return new DSQuotaExceededException("存储空间不足：已用 " + used + " 字节，配额 " + quota + " 字节");
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.warn("已用空间写入数据库失败，下次重试: {}", e.getMessage());
+        }
+    }
+
+    // 把各用户未写入的增量累加到数据库，并取回其他节点累加后的总数与单独设置的配额
+    public synchronized void flush() {
+        for (Map.Entry<String, Ledger> entry : ledgers.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private synchronized void flush(String userId, Ledger ledger) {
+        // sum() 不是原子快照，但不会丢失增量：这次没看到的下次再写
+        long total = ledger.pending.sum();
+        long delta = total - ledger.flushed;
+        if (delta != 0) {
+            add(userId, delta);
+            ledger.flushed = total;
+        }
+        UserUsage row = repository.findById(userId).orElse(null);
+        if (row != null) {
+            // 数据库中已含本节点写入的部分，used = 数据库值 + 本节点尚未写入的增量
+            ledger.base = row.getUsedBytes() - ledger.flushed;
+            ledger.quota = quotaOf(row);
+        }
+    }
+
+    private void add(String userId, long delta) {
+        Integer updated = transactionTemplate.execute(tx -> repository.addUsedBytes(userId, delta));
+        if (updated != null && updated > 0) {
+            return;
+        }
+        try {
+            transactionTemplate.execute(tx -> repository.saveAndFlush(new UserUsage(userId, delta)));
+        } catch (DataIntegrityViolationException e) {
+            // 另一个节点同时插入了该用户的记录
+            transactionTemplate.execute(tx -> repository.addUsedBytes(userId, delta));
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("已用空间核对失败: {}", e.getMessage(), e);
+        }
+    }
+
+    // 一轮核对：本周期内已被核对过的用户跳过（多个Web节点只有一个会做）
+    // 核对期间账本有变化（正在上传、删除）的用户也跳过，下一轮再核对
+    public void reconcile() throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        long now = System.currentTimeMillis();
+        long intervalMillis = TimeUnit.MINUTES.toMillis(reconcileIntervalMinutes);
+        FileStatus[] homes;
+        try {
+            homes = fs.listStatus(new Path(hdfsClientPool.getRoot() + USER_ROOT));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        Map<String, Long> staged = stagedUsage.bytesByUser();
+        int corrected = 0;
+        for (FileStatus home : homes) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (!home.isDirectory()) {
+                continue;
+            }
+            String userId = home.getPath().getName();
+            UserUsage row = repository.findById(userId).orElse(null);
+            if (row != null && now - row.getReconciledAt() < intervalMillis) {
+                continue;
+            }
+            Ledger ledger = ledger(userId);
+            long before = ledger.used();
+            long actual = sizeOf(fs, home.getPath()) + staged.getOrDefault(userId, 0L);
+            long after = ledger.used();
+            if (before != after) {
+                logger.debug("用户 {} 核对期间有写入，下一轮再核对", userId);
+                continue;
+            }
+            if (actual != after) {
+                logger.info("修正用户 {} 的已用空间：账本 {} 字节，实际 {} 字节", userId, after, actual);
+                ledger.pending.add(actual - after);
+                corrected++;
+            }
+            flush(userId, ledger);
+            // 没有任何写入过的用户也建一条记录，记下核对时间
+            add(userId, 0);
+            transactionTemplate.execute(tx -> repository.markReconciled(userId, now));
+        }
+        logger.info("已用空间核对完成：{} 个用户，修正 {} 个", homes.length, corrected);
+    }
+
+    // 用户 -> 在主目录以外预占的字节数
+    public interface StagedUsage {
+        Map<String, Long> bytesByUser() throws IOException;
+    }
+
+    // 一个用户在本节点的账本：已用 = base + pending，pending 中已写入数据库的部分为 flushed
+    private static class Ledger {
+        final LongAdder pending = new LongAdder();
+        // 只在 flush 中（持有 QuotaService 的锁）修改
+        long flushed;
+        volatile long base;
+        volatile long quota;
+
+        long used() {
+            return base + pending.sum();
+        }
+    }
+
+    public class Metered extends FilterInputStream {
+        private final String userId;
+        private long count;
+
+        private Metered(String userId, InputStream in) {
+            super(in);
+            this.userId = userId;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                charge(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                charge(n);
+            }
+            return n;
+        }
+
+        private void charge(int n) throws IOException {
+            reserve(userId, n);
+            count += n;
+        }
+
+        // 已记账的字节数，即已读出的字节数
+        public long getCount() {
+            return count;
+        }
+
+        public void refund() {
+            record(userId, -count);
+            count = 0;
+        }
+    }
+}
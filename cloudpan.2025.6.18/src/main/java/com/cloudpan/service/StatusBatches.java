@@ -0,0 +1,46 @@
+package com.cloudpan.service;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.UnaryOperator;
+
+//把逐项遍历的目录列表按批交给 mapper 改写（如补上数据库中记录的实际大小），每批只查询一次数据库
+final class StatusBatches {
+    private StatusBatches() {
+    }
+
+    static RemoteIterator<FileStatus> map(RemoteIterator<FileStatus> iterator, int batchSize,
+                                          UnaryOperator<FileStatus[]> mapper) {
+        return new RemoteIterator<FileStatus>() {
+            private FileStatus[] batch = new FileStatus[0];
+            private int next;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                if (next < batch.length) {
+                    return true;
+                }
+                List<FileStatus> read = new ArrayList<>();
+                while (read.size() < batchSize && iterator.hasNext()) {
+                    read.add(iterator.next());
+                }
+                batch = mapper.apply(read.toArray(new FileStatus[0]));
+                next = 0;
+                return batch.length > 0;
+            }
+
+            @Override
+            public FileStatus next() throws IOException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch[next++];
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package com.cloudpan.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//登录令牌：<userId>|<过期时间> 用 HMAC-SHA256 签名，服务端不保存会话，多个Web节点配置相同密钥即可互认
+//验证通过的令牌放入有界缓存，之后同一令牌的请求只需一次哈希表查找，不访问数据库也不访问HDFS
+@Service
+public class TokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final int cacheSize;
+    // 令牌 -> 验证结果，按访问顺序淘汰
+    private final LinkedHashMap<String, Verified> cache;
+    private final Logger logger = LoggerFactory.getLogger(TokenService.class);
+
+    public TokenService(@Value("${cloudpan.auth.secret:}") String secret,
+                        @Value("${cloudpan.auth.token-ttl-hours:12}") long ttlHours,
+                        @Value("${cloudpan.auth.token-cache-size:10000}") int cacheSize) {
+        byte[] keyBytes;
+        if (secret == null || secret.isEmpty()) {
+            // 未配置密钥时每次启动随机生成：重启后令牌全部失效，多节点部署时各节点互不承认
+            logger.warn("未配置 cloudpan.auth.secret，使用随机密钥");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttlMillis = TimeUnit.HOURS.toMillis(ttlHours);
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<String, Verified>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Verified> eldest) {
+                return size() > TokenService.this.cacheSize;
+            }
+        };
+    }
+
+    public String issue(String userId) {
+        String payload = userId + "|" + (System.currentTimeMillis() + ttlMillis);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    // 返回令牌对应的 userId；令牌无效或已过期时返回 null
+    public String verify(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            Verified verified = cache.get(token);
+            if (verified != null) {
+                if (verified.expiresAt > now) {
+                    return verified.userId;
+                }
+                cache.remove(token);
+                return null;
+            }
+        }
+
+        Verified verified = parse(token);
+        if (verified == null || verified.expiresAt <= now) {
+            return null;
+        }
+        synchronized (cache) {
+            cache.put(token, verified);
+        }
+        return verified.userId;
+    }
+
+    private Verified parse(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            String payload = new String(decoder.decode(token.substring(0, dot)), StandardCharsets.UTF_8);
+            byte[] signature = decoder.decode(token.substring(dot + 1));
+            // 定长比较，避免通过响应时间猜出签名
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            int separator = payload.lastIndexOf('|');
+            return new Verified(payload.substring(0, separator), Long.parseLong(payload.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Mac 实例不是线程安全的，每次新建；只在签发和缓存未命中时调用
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Verified {
+        final String userId;
+        final long expiresAt;
+
+        Verified(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
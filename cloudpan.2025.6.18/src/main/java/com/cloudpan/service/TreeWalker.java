@@ -0,0 +1,133 @@
+package com.cloudpan.service;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+//并行遍历目录树：每个目录的列表作为一个任务提交到有界线程池，列出的子目录再提交新任务
+//  - 同时进行的列表请求不超过线程数，NameNode 的压力可控；10万文件的树不再逐个目录串行等待
+//  - 任务之间从不互相等待，多个遍历共用一个线程池也不会死锁；只有发起遍历的线程等待整棵树完成
+//  - visitor 在多个线程中并发调用，必须线程安全，且不能阻塞等待本线程池中的任务
+@Service
+public class TreeWalker {
+    private final ExecutorService executor;
+
+    public TreeWalker(@Value("${cloudpan.walk.threads:8}") int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "tree-walk-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 列出一个目录，调用方决定是否合并打包存储的文件、换成逻辑大小等
+    public interface Lister {
+        RemoteIterator<FileStatus> list(Path dir) throws IOException;
+    }
+
+    public interface Visitor {
+        void visit(FileStatus status) throws IOException;
+    }
+
+    // 访问 root 之下的所有项（不含 root 本身），目录项一定先于其中的内容被访问
+    // root 不存在时抛出 FileNotFoundException；遍历途中被删除的子目录跳过
+    public void walk(Path root, Lister lister, Visitor visitor, BooleanSupplier cancelled) throws IOException {
+        Walk walk = new Walk(lister, visitor, cancelled);
+        walk.submit(root, true);
+        walk.await();
+    }
+
+    private class Walk {
+        private final Lister lister;
+        private final Visitor visitor;
+        private final BooleanSupplier cancelled;
+        // 已提交但未列完的目录数，降到0即遍历结束
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Walk(Lister lister, Visitor visitor, BooleanSupplier cancelled) {
+            this.lister = lister;
+            this.visitor = visitor;
+            this.cancelled = cancelled;
+        }
+
+        void submit(Path dir, boolean root) {
+            pending.incrementAndGet();
+            try {
+                executor.execute(() -> list(dir, root));
+            } catch (RejectedExecutionException e) {
+                done.completeExceptionally(e);
+                pending.decrementAndGet();
+            }
+        }
+
+        private void list(Path dir, boolean root) {
+            try {
+                // 已失败或已取消的遍历，排队中的目录不再列出
+                if (done.isDone()) {
+                    return;
+                }
+                RemoteIterator<FileStatus> iterator = lister.list(dir);
+                while (iterator.hasNext()) {
+                    if (done.isDone()) {
+                        return;
+                    }
+                    if (cancelled.getAsBoolean()) {
+                        throw new InterruptedIOException("任务已取消");
+                    }
+                    FileStatus status = iterator.next();
+                    visitor.visit(status);
+                    if (status.isDirectory()) {
+                        submit(status.getPath(), false);
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                if (root) {
+                    done.completeExceptionally(e);
+                }
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            }
+        }
+
+        void await() throws IOException {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                // 让还在排队的目录尽快放弃
+                done.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("遍历被中断");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,557 @@
+package com.cloudpan.service;
+
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.OperationMetrics;
+import com.cloudpan.entity.UploadSession;
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.LongTaskTimer;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.security.AccessControlException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+//分片上传：初始化会话 -> 并行上传分片 -> 提交合并 / 放弃
+//分片直接暂存在HDFS的 /upload_staging/<uploadId>/ 下，服务端和浏览器都不缓存整个文件；
+//已上传的分片以暂存目录中的文件为准，中断后重新初始化同一文件即可从已确认的分片继续
+@Service
+public class UploadSessionService {
+    private static final String STAGING_DIR = "/upload_staging";
+    private static final String SESSION_FILE = "session.json";
+    private static final String CHUNK_PREFIX = "chunk-";
+    // 分片合并的结果，长度等于文件大小时视为所有分片都已上传
+    private static final String ASSEMBLED_FILE = "assembled";
+
+    private final HdfsClientPool hdfsClientPool;
+    private final FileService fileService;
+    private final BufferPool bufferPool;
+    private final ListingCache listingCache;
+    private final DedupService dedupService;
+    private final PackService packService;
+    private final CompressionService compressionService;
+    private final QuotaService quotaService;
+    private final OperationMetrics metrics;
+    private final long defaultChunkSize;
+    private final long sessionTtlHours;
+    private ScheduledExecutorService sweeper;
+    private final Gson gson = new Gson();
+    private final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    public UploadSessionService(HdfsClientPool hdfsClientPool,
+                                FileService fileService,
+                                BufferPool bufferPool,
+                                ListingCache listingCache,
+                                DedupService dedupService,
+                                PackService packService,
+                                CompressionService compressionService,
+                                QuotaService quotaService,
+                                OperationMetrics metrics,
+                                @Value("${cloudpan.upload.chunk-size:16777216}") long defaultChunkSize,
+                                @Value("${cloudpan.upload.session-ttl-hours:72}") long sessionTtlHours) {
+        this.hdfsClientPool = hdfsClientPool;
+        this.fileService = fileService;
+        this.bufferPool = bufferPool;
+        this.listingCache = listingCache;
+        this.dedupService = dedupService;
+        this.packService = packService;
+        this.compressionService = compressionService;
+        this.quotaService = quotaService;
+        this.metrics = metrics;
+        this.defaultChunkSize = defaultChunkSize;
+        this.sessionTtlHours = sessionTtlHours;
+    }
+
+    // 既没有提交也没有放弃的会话一直占着暂存目录里的分片，定期清理
+    @PostConstruct
+    public void start() {
+        quotaService.setStagedUsage(this::stagedBytes);
+        if (sessionTtlHours <= 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-session-sweeper");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, 1, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    // 同一用户、同一目标、同一文件（大小和最后修改时间相同）得到相同的uploadId，重复初始化即为续传
+    public UploadSession init(InitRequest request) throws IOException {
+        String userId = request.getUserId();
+        String fileName = request.getFileName();
+        if (userId == null || request.getUploadPath() == null) {
+            throw new IllegalArgumentException("userId和uploadPath不能为空");
+        }
+        // "." 和 ".." 在提交时会解析成上传目录本身或它的上级
+        if (fileName == null || fileName.trim().isEmpty() || fileName.contains("/")
+                || ".".equals(fileName) || "..".equals(fileName)) {
+            throw new IllegalArgumentException("文件名不合法");
+        }
+        if (request.getFileSize() < 0) {
+            throw new IllegalArgumentException("文件大小不合法");
+        }
+        String uploadPath = fileService.formatHdfsPath(userId, request.getUploadPath());
+
+        FileSystem fs = hdfsClientPool.get();
+        if (fs.exists(new Path(uploadPath, fileName)) || packService.contains(new Path(uploadPath, fileName))) {
+            throw new FileAlreadyExistsException("文件已存在: " + fileName);
+        }
+
+        String key = userId + "\n" + uploadPath + "\n" + fileName + "\n"
+                + request.getFileSize() + "\n" + request.getLastModified();
+        String uploadId = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+        UploadSession session;
+        try {
+            session = readSession(fs, uploadId);
+        } catch (FileNotFoundException e) {
+            session = createSession(fs, uploadId, userId, uploadPath, fileName, request.getFileSize());
+        }
+        session.setUploadedChunks(listUploadedChunks(fs, session));
+        return session;
+    }
+
+    private UploadSession createSession(FileSystem fs, String uploadId, String userId, String uploadPath,
+                                        String fileName, long fileSize) throws IOException {
+        UploadSession session = new UploadSession();
+        session.setUploadId(uploadId);
+        session.setUserId(userId);
+        session.setUploadPath(uploadPath);
+        session.setFileName(fileName);
+        session.setFileSize(fileSize);
+        session.setChunkSize(defaultChunkSize);
+        session.setTotalChunks((int) Math.max(1, (fileSize + defaultChunkSize - 1) / defaultChunkSize));
+        session.setCreatedAt(System.currentTimeMillis());
+        // 按声明的大小预占配额，暂存的分片从一开始就计入已用空间；提交后转为文件的用量，放弃或过期时退回
+        // 放不下的文件在这里就被拒绝，不会先传完所有分片
+        quotaService.reserve(userId, fileSize);
+        session.setReservedBytes(fileSize);
+
+        Path sessionDir = sessionDir(uploadId);
+        boolean created = false;
+        try {
+            fs.mkdirs(sessionDir);
+            try (OutputStreamWriter writer = new OutputStreamWriter(
+                    fs.create(new Path(sessionDir, SESSION_FILE), false), StandardCharsets.UTF_8)) {
+                writer.write(gson.toJson(session));
+            }
+            created = true;
+        } catch (FileAlreadyExistsException e) {
+            // 另一个请求同时初始化了同一个会话，以它写入的为准，预占由它负责
+            return readSession(fs, uploadId);
+        } finally {
+            if (!created) {
+                quotaService.record(userId, -fileSize);
+            }
+        }
+        logger.info("创建分片上传会话 {}: {}/{}，共 {} 片", uploadId, uploadPath, fileName, session.getTotalChunks());
+        return session;
+    }
+
+    public UploadSession status(String uploadId, String userId) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        UploadSession session = loadSession(fs, uploadId, userId);
+        session.setUploadedChunks(listUploadedChunks(fs, session));
+        return session;
+    }
+
+    // 把请求体直接写入HDFS暂存分片；先写临时文件，大小校验通过后再改名，改名成功即视为该分片已确认
+    // contentLength 为请求声明的长度，未知时为 -1；超出声明的文件大小的分片在写入前拒绝，读取时也不会多写
+    public void writeChunk(String uploadId, String userId, int index, InputStream body, long contentLength)
+            throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        UploadSession session = loadSession(fs, uploadId, userId);
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new IllegalArgumentException("分片序号超出范围: " + index);
+        }
+        long expected = session.chunkLength(index);
+        if (contentLength >= 0 && index * session.getChunkSize() + contentLength > session.getFileSize()) {
+            throw new IllegalArgumentException("分片 " + index + " 超出声明的文件大小");
+        }
+        Path chunk = chunkPath(uploadId, index);
+        // 每次尝试使用不同的临时文件，同一分片的并发重试互不覆盖
+        Path part = new Path(chunk.getParent(), chunk.getName() + "." + UUID.randomUUID() + ".part");
+
+        boolean saved = false;
+        long written = 0;
+        // 分片各自计入进行中的上传和上传字节数，整个文件的耗时由提交时的合并决定，不在这里计时
+        LongTaskTimer.Sample active = metrics.startUpload();
+        byte[] buffer = bufferPool.acquire();
+        try {
+            try (FSDataOutputStream out = fs.create(part, true)) {
+                int bytesRead;
+                while ((bytesRead = body.read(buffer)) != -1) {
+                    written += bytesRead;
+                    if (written > expected) {
+                        break;
+                    }
+                    out.write(buffer, 0, bytesRead);
+                }
+            }
+            if (written != expected) {
+                throw new IllegalArgumentException("分片 " + index + " 大小应为 " + expected + " 字节");
+            }
+            fs.delete(chunk, false);
+            if (!fs.rename(part, chunk)) {
+                throw new IOException("分片 " + index + " 保存失败");
+            }
+            saved = true;
+        } finally {
+            active.stop();
+            metrics.bytesIn(written);
+            bufferPool.release(buffer);
+            if (!saved) {
+                fs.delete(part, false);
+            }
+        }
+    }
+
+    // 所有分片齐全后合并为会话目录中的 assembled，再存为目标文件
+    // 合并之后的步骤（改名、去重、压缩、打包）失败时 assembled 保留在会话目录，重试提交直接使用，不需要重新上传分片
+    public String commit(String uploadId, String userId) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        UploadSession session = loadSession(fs, uploadId, userId);
+        Path sessionDir = sessionDir(uploadId);
+        Path assembled = new Path(sessionDir, ASSEMBLED_FILE);
+
+        Path[] chunks = new Path[session.getTotalChunks()];
+        boolean alreadyAssembled = false;
+        for (FileStatus status : fs.listStatus(sessionDir)) {
+            String name = status.getPath().getName();
+            int index = chunkIndex(name);
+            if (index >= 0 && index < chunks.length && status.getLen() == session.chunkLength(index)) {
+                chunks[index] = status.getPath();
+            } else if (name.equals(ASSEMBLED_FILE) && status.getLen() == session.getFileSize()) {
+                alreadyAssembled = true;
+            }
+        }
+        int missing = 0;
+        for (Path chunk : chunks) {
+            if (chunk == null) {
+                missing++;
+            }
+        }
+        if (missing > 0 && !alreadyAssembled) {
+            throw new IllegalStateException("还有 " + missing + " 个分片未上传");
+        }
+
+        Path target = new Path(session.getUploadPath(), session.getFileName());
+        if (packService.contains(target)) {
+            throw new FileAlreadyExistsException("文件已存在: " + session.getFileName());
+        }
+        // 默认情况下不事先查询，由不替换的改名判断目标是否已存在，父目录缺少时它会补建
+        // 打包存储没有HDFS文件占住路径，去重要先读完整个文件才建占位文件，这两种情况提前查一次
+        boolean small = packService.isEnabled() && session.getFileSize() <= packService.getThresholdBytes();
+        if (small || dedupService.isEnabled()) {
+            if (HdfsOps.statOrNull(fs, target) != null) {
+                throw new FileAlreadyExistsException("文件已存在: " + session.getFileName());
+            }
+            if (small) {
+                fs.mkdirs(target.getParent());
+            }
+        }
+        // 分片的长度已逐个核对过，合并结果就是声明的大小；初始化时已预占，旧版本建的会话在这里补上
+        long shortfall = session.getFileSize() - session.getReservedBytes();
+        quotaService.reserve(userId, shortfall);
+        boolean stored = false;
+        try {
+            if (!alreadyAssembled) {
+                assemble(fs, chunks, assembled);
+            }
+            if (small) {
+                // 小文件：读回内存追加到容器，不保留单独的HDFS文件
+                byte[] data = new byte[(int) session.getFileSize()];
+                try (FSDataInputStream in = fs.open(assembled)) {
+                    in.readFully(0, data);
+                }
+                packService.pack(userId, target, data, data.length);
+            } else if (dedupService.isEnabled()) {
+                // 去重模式：合并结果读一遍算出哈希，内容已存在时丢弃，否则改名进入内容存储
+                dedupService.adopt(assembled, target);
+            } else if (compressionService.isEnabled()) {
+                // 压缩模式：合并结果读一遍压缩写入目标，原样的合并结果随会话目录删除
+                try (FSDataInputStream in = fs.open(assembled)) {
+                    compressionService.write(fs, target, in);
+                }
+            } else {
+                try {
+                    HdfsOps.renameNoReplace(fs, assembled, target);
+                } catch (FileAlreadyExistsException e) {
+                    throw new FileAlreadyExistsException("文件已存在: " + session.getFileName());
+                }
+            }
+            stored = true;
+        } finally {
+            // 失败时会话保留、可以重试，初始化时的预占留到放弃或过期时退回
+            if (!stored) {
+                quotaService.record(userId, -shortfall);
+            }
+        }
+        // 目标目录可能是新建的，两级一起失效
+        listingCache.invalidateParent(target);
+        listingCache.invalidateParent(target.getParent());
+        fs.delete(sessionDir, true);
+        fileService.preparePreview(userId, target);
+        logger.info("分片上传完成: {}", target);
+        return gson.toJson(Collections.singletonMap("message", "文件上传成功"));
+    }
+
+    public void abort(String uploadId, String userId) throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        UploadSession session = loadSession(fs, uploadId, userId);
+        // 删除成功的一方退回预占，同时放弃或与清理并发时只退一次
+        if (fs.delete(sessionDir(uploadId), true)) {
+            quotaService.record(userId, -session.getReservedBytes());
+        }
+        logger.info("已放弃分片上传会话 {}", uploadId);
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("清理过期的分片上传会话失败: {}", e.getMessage());
+        }
+    }
+
+    // 创建超过 session-ttl-hours 的会话视为已放弃；多个Web节点同时清理时，删除本身是幂等的
+    public void sweep() throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(sessionTtlHours);
+        FileStatus[] sessions;
+        try {
+            sessions = fs.listStatus(new Path(STAGING_DIR));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        int removed = 0;
+        for (FileStatus status : sessions) {
+            String uploadId = status.getPath().getName();
+            if (!status.isDirectory() || !isUploadId(uploadId)) {
+                continue;
+            }
+            UploadSession session = null;
+            long createdAt;
+            try {
+                session = readSession(fs, uploadId);
+                createdAt = session.getCreatedAt();
+            } catch (FileNotFoundException e) {
+                // 初始化到一半留下的空目录，按目录的修改时间算
+                createdAt = status.getModificationTime();
+            }
+            if (createdAt < cutoff && fs.delete(status.getPath(), true)) {
+                if (session != null) {
+                    quotaService.record(session.getUserId(), -session.getReservedBytes());
+                }
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            logger.info("已清理 {} 个过期的分片上传会话", removed);
+        }
+    }
+
+    // 第一片改名为 assembled，其余分片用 HDFS concat 接到它后面，只改元数据；concat 不可用时退化为顺序重写
+    private void assemble(FileSystem fs, Path[] chunks, Path assembled) throws IOException {
+        // 上次顺序重写到一半留下的不完整结果
+        fs.delete(assembled, false);
+        if (!fs.rename(chunks[0], assembled)) {
+            throw new IOException("合并分片失败");
+        }
+        if (chunks.length == 1) {
+            return;
+        }
+        try {
+            fs.concat(assembled, Arrays.copyOfRange(chunks, 1, chunks.length));
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.info("concat不可用，改为顺序重写分片: {}", e.getMessage());
+            // concat 在 NameNode 上一次完成，失败时其余分片都还在；第一片改回原名，重写失败也不丢分片
+            if (!fs.rename(assembled, chunks[0])) {
+                throw new IOException("合并分片失败");
+            }
+            rewrite(fs, chunks, assembled);
+        }
+    }
+
+    private void rewrite(FileSystem fs, Path[] chunks, Path assembled) throws IOException {
+        byte[] buffer = bufferPool.acquire();
+        try (FSDataOutputStream out = fs.create(assembled, true)) {
+            for (Path chunk : chunks) {
+                try (FSDataInputStream in = fs.open(chunk)) {
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private UploadSession loadSession(FileSystem fs, String uploadId, String userId) throws IOException {
+        if (userId == null) {
+            throw new IllegalArgumentException("userId cannot be null");
+        }
+        UploadSession session = readSession(fs, uploadId);
+        if (!userId.equals(session.getUserId())) {
+            throw new AccessControlException("无权访问该上传会话");
+        }
+        return session;
+    }
+
+    private UploadSession readSession(FileSystem fs, String uploadId) throws IOException {
+        try (FSDataInputStream in = fs.open(new Path(sessionDir(uploadId), SESSION_FILE))) {
+            return gson.fromJson(IOUtils.toString(in, StandardCharsets.UTF_8), UploadSession.class);
+        }
+    }
+
+    private List<Integer> listUploadedChunks(FileSystem fs, UploadSession session) throws IOException {
+        List<Integer> uploaded = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(sessionDir(session.getUploadId()))) {
+            String name = status.getPath().getName();
+            int index = chunkIndex(name);
+            if (index >= 0 && index < session.getTotalChunks() && status.getLen() == session.chunkLength(index)) {
+                uploaded.add(index);
+            } else if (name.equals(ASSEMBLED_FILE) && status.getLen() == session.getFileSize()) {
+                // 已合并、等待重试提交：分片都已在合并结果中
+                uploaded.clear();
+                for (int i = 0; i < session.getTotalChunks(); i++) {
+                    uploaded.add(i);
+                }
+                return uploaded;
+            }
+        }
+        Collections.sort(uploaded);
+        return uploaded;
+    }
+
+    private Path sessionDir(String uploadId) {
+        // 校验格式，防止通过uploadId访问暂存目录以外的路径
+        UUID.fromString(uploadId);
+        return new Path(STAGING_DIR, uploadId);
+    }
+
+    // 各用户未提交的会话预占的字节数，供配额核对使用
+    private Map<String, Long> stagedBytes() throws IOException {
+        FileSystem fs = hdfsClientPool.get();
+        Map<String, Long> bytes = new HashMap<>();
+        FileStatus[] sessions;
+        try {
+            sessions = fs.listStatus(new Path(STAGING_DIR));
+        } catch (FileNotFoundException e) {
+            return bytes;
+        }
+        for (FileStatus status : sessions) {
+            String uploadId = status.getPath().getName();
+            if (!status.isDirectory() || !isUploadId(uploadId)) {
+                continue;
+            }
+            try {
+                UploadSession session = readSession(fs, uploadId);
+                bytes.merge(session.getUserId(), session.getReservedBytes(), Long::sum);
+            } catch (FileNotFoundException e) {
+                // 列出之后被提交或清理了
+            }
+        }
+        return bytes;
+    }
+
+    private static boolean isUploadId(String name) {
+        try {
+            UUID.fromString(name);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private Path chunkPath(String uploadId, int index) {
+        return new Path(sessionDir(uploadId), CHUNK_PREFIX + index);
+    }
+
+    // 分片文件名 chunk-N 对应序号N，其他文件（元数据、临时文件）返回-1
+    private int chunkIndex(String name) {
+        if (!name.startsWith(CHUNK_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(CHUNK_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static class InitRequest {
+        private String userId;
+        private String uploadPath;
+        private String fileName;
+        private long fileSize;
+        private long lastModified;
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public void setUserId(String userId) {
+            this.userId = userId;
+        }
+
+        public String getUploadPath() {
+            return uploadPath;
+        }
+
+        public void setUploadPath(String uploadPath) {
+            this.uploadPath = uploadPath;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public void setFileName(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public void setFileSize(long fileSize) {
+            this.fileSize = fileSize;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+}
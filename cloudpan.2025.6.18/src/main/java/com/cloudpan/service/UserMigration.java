@@ -0,0 +1,78 @@
+package com.cloudpan.service;
+
+import com.cloudpan.entity.User;
+import com.cloudpan.repository.DbUserRepository;
+import com.cloudpan.repository.HdfsUserRepository;
+import com.google.gson.JsonParseException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//用户数据迁移：启动时把 HDFS /user_data/*.json 批量导入数据库
+//以 cloudpan.users.migrate-from-hdfs=true 启动一次即可；已存在的用户名跳过，重复执行是安全的
+@Component
+@ConditionalOnProperty(name = "cloudpan.users.migrate-from-hdfs", havingValue = "true")
+public class UserMigration implements ApplicationRunner {
+    private static final int BATCH_SIZE = 500;
+
+    private final HdfsUserRepository hdfsUserRepository;
+    private final DbUserRepository dbUserRepository;
+    private final Logger logger = LoggerFactory.getLogger(UserMigration.class);
+
+    public UserMigration(HdfsUserRepository hdfsUserRepository, DbUserRepository dbUserRepository) {
+        this.hdfsUserRepository = hdfsUserRepository;
+        this.dbUserRepository = dbUserRepository;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        int scanned = 0;
+        int imported = 0;
+        int failed = 0;
+        List<User> batch = new ArrayList<>(BATCH_SIZE);
+        RemoteIterator<FileStatus> files;
+        try {
+            files = hdfsUserRepository.listUserFiles();
+        } catch (FileNotFoundException e) {
+            logger.info("{} 不存在，没有需要迁移的用户", HdfsUserRepository.USER_DIR);
+            return;
+        }
+        while (files.hasNext()) {
+            FileStatus file = files.next();
+            if (!file.isFile() || !file.getPath().getName().endsWith(".json")) {
+                continue;
+            }
+            scanned++;
+            try {
+                User user = hdfsUserRepository.read(file.getPath());
+                if (user == null || user.getUsername() == null || user.getUserId() == null
+                        || user.getPassword() == null) {
+                    throw new JsonParseException("缺少必要字段");
+                }
+                batch.add(user);
+            } catch (IOException | JsonParseException e) {
+                failed++;
+                logger.warn("跳过无法解析的用户文件 {}: {}", file.getPath(), e.getMessage());
+            }
+            if (batch.size() == BATCH_SIZE) {
+                imported += dbUserRepository.importUsers(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            imported += dbUserRepository.importUsers(batch);
+        }
+        logger.info("用户迁移完成：扫描 {}，导入 {}，已存在跳过 {}，失败 {}",
+                scanned, imported, scanned - failed - imported, failed);
+    }
+}
@@ -1,88 +1,143 @@
 package com.cloudpan.service;
 
-import com.google.gson.Gson;
 import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudpan.config.OperationMetrics;
 import com.cloudpan.entity.User;
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.security.UserGroupInformation;
+import com.cloudpan.repository.UserRepository;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
-import org.apache.hadoop.fs.FSDataInputStream;
-import java.io.ByteArrayOutputStream;
+
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.URI;
-import java.nio.charset.StandardCharsets;
 
 @Service
 public class UserService {
-    private static final String USER_DIR = "hdfs://mycluster/user_data";
+    public static final String BUSY = "服务器繁忙，请稍后重试";
+    private static final long HASH_TIMEOUT_SECONDS = 10;
+
+    private final UserRepository userRepository;
+    private final PasswordHasher passwordHasher;
+    private final OperationMetrics metrics;
+    // 口令哈希专用的有界线程池：登录风暴时排队或直接拒绝，不会占满Tomcat线程和CPU影响文件传输
+    private final ThreadPoolExecutor hashExecutor;
+    private final Logger logger = LoggerFactory.getLogger(UserService.class);
+
+    public UserService(UserRepository userRepository,
+                       PasswordHasher passwordHasher,
+                       OperationMetrics metrics,
+                       @Value("${cloudpan.auth.hash-threads:2}") int hashThreads,
+                       @Value("${cloudpan.auth.hash-queue:64}") int hashQueue) {
+        this.userRepository = userRepository;
+        this.passwordHasher = passwordHasher;
+        this.metrics = metrics;
+        AtomicInteger counter = new AtomicInteger();
+        this.hashExecutor = new ThreadPoolExecutor(hashThreads, hashThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hashQueue), r -> {
+            Thread t = new Thread(r, "password-hash-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
     //注册部分
     public String register(String username, String password) {
-        Configuration conf = new Configuration();
-        conf.addResource(new Path("src/main/resources/hadoop/core-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/hdfs-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/mapred-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/yarn-site.xml"));
-        try (FileSystem fs = FileSystem.get(URI.create("hdfs://mycluster"), conf)) {
-            Path userDir = new Path(USER_DIR);
-            if (!fs.exists(userDir)) {
-                fs.mkdirs(userDir);
-
-            }
-            Path userFile = new Path(USER_DIR + "/" + username + ".json");
-            if (fs.exists(userFile)) {
-                return "用户名已存在";
-            }
+        Timer.Sample sample = metrics.start();
+        try {
             // 生成userId
             String userId = UUID.randomUUID().toString();
-            User user = new User(username, password, userId);
-            Gson gson = new Gson();
-            String userJson = gson.toJson(user);
-            try (OutputStreamWriter writer = new OutputStreamWriter(fs.create(userFile), StandardCharsets.UTF_8)) {
-                writer.write(userJson);
+            User user = new User(username, hashPassword(password), userId);
+            // 用户名是否已存在由存储原子判断，同名并发注册只有一个成功
+            if (!userRepository.create(user)) {
+                metrics.rejected(sample, OperationMetrics.REGISTER);
+                return "用户名已存在";
             }
+            metrics.success(sample, OperationMetrics.REGISTER);
             return "注册成功," + userId;
-        } catch (IOException e) {
-            System.out.println("测试失败!!!");
-            System.out.println(e.getMessage());
+        } catch (RejectedExecutionException e) {
+            metrics.failure(sample, OperationMetrics.REGISTER, e);
+            return BUSY;
+        } catch (IOException | DataAccessException e) {
+            metrics.failure(sample, OperationMetrics.REGISTER, e);
+            logger.error("注册失败: {}", e.getMessage(), e);
             return "注册失败，请检查网络或稍后重试";
-
         }
     }
 
 
     public String login(String username, String password) {
-        Configuration conf = new Configuration();
-        conf.addResource(new Path("src/main/resources/hadoop/core-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/hdfs-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/mapred-site.xml"));
-        conf.addResource(new Path("src/main/resources/hadoop/yarn-site.xml"));
-        try (FileSystem fs = FileSystem.get(URI.create("hdfs://mycluster"), conf)) {
-            Path userFile = new Path(USER_DIR + "/" + username + ".json");
-            if (!fs.exists(userFile)) {
+        Timer.Sample sample = metrics.start();
+        try {
+            User storedUser = userRepository.findByUsername(username);
+            if (storedUser == null) {
+                metrics.rejected(sample, OperationMetrics.LOGIN);
                 return "用户名不存在";
             }
-
-            try (ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                 FSDataInputStream inputStream = fs.open(userFile)) {
-                int nRead;
-                byte[] data = new byte[1024];
-                while ((nRead = inputStream.read(data, 0, data.length))!= -1) {
-                    buffer.write(data, 0, nRead);
-                }
-                byte[] bytes = buffer.toByteArray();
-                String content = new String(bytes);
-                User storedUser = User.fromJson(content);
-                if (storedUser.getPassword().equals(password)) {
-                    // 返回userId
-                    return "登录成功," + storedUser.getUserId();
-                }
+            String stored = storedUser.getPassword();
+            if (!runHashing(() -> passwordHasher.verify(password, stored))) {
+                metrics.rejected(sample, OperationMetrics.LOGIN);
                 return "密码错误";
             }
-        } catch (IOException e) {
+            // 明文或参数过时的旧记录，验证通过后就地升级
+            if (passwordHasher.needsUpgrade(stored)) {
+                upgrade(storedUser, password);
+            }
+            // 返回userId
+            metrics.success(sample, OperationMetrics.LOGIN);
+            return "登录成功," + storedUser.getUserId();
+        } catch (RejectedExecutionException e) {
+            metrics.failure(sample, OperationMetrics.LOGIN, e);
+            return BUSY;
+        } catch (IOException | DataAccessException e) {
+            metrics.failure(sample, OperationMetrics.LOGIN, e);
             return "登录失败，请检查网络或稍后重试"+ e.getMessage();
         }
     }
-}
\ No newline at end of file
+
+    private void upgrade(User user, String password) {
+        try {
+            user.setPassword(hashPassword(password));
+            userRepository.update(user);
+            logger.info("用户 {} 的口令已升级为 PBKDF2", user.getUsername());
+        } catch (RejectedExecutionException | IOException | DataAccessException e) {
+            // 升级失败不影响本次登录，下次登录再试
+            logger.warn("口令升级失败 {}: {}", user.getUsername(), e.getMessage());
+        }
+    }
+
+    private String hashPassword(String password) {
+        if (password == null) {
+            throw new IllegalArgumentException("密码不能为 null");
+        }
+        return runHashing(() -> passwordHasher.hash(password));
+    }
+
+    // 队列已满或等待超时都视为繁忙，抛出 RejectedExecutionException
+    private <T> T runHashing(Callable<T> task) {
+        Future<T> future = hashExecutor.submit(task);
+        try {
+            return future.get(HASH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RejectedExecutionException("口令校验超时");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("口令校验被中断");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,181 @@
+package com.cloudpan.service;
+//NameNode RPC 预算：在内嵌的 MiniDFSCluster 上逐个执行常用文件操作，按客户端的操作计数核对每个请求发出的 RPC 数
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.entity.CloudFile;
+import com.cloudpan.entity.FileJob;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//预算是未启用去重、打包、压缩时的上限；计数在 JVM 内共享，测量期间不能有其他客户端操作（健康检查已关闭）
+class NameNodeRpcBudgetTest {
+    private static final String USER = "rpc-test";
+    private static final byte[] PAYLOAD = new byte[4 * 1024];
+    private static final long SYNC_WAIT_MILLIS = 60_000;
+
+    @TempDir
+    static File baseDir;
+    private static MiniDFSCluster cluster;
+    private static HdfsClientPool pool;
+    private static FileService fileService;
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        HdfsConfiguration conf = new HdfsConfiguration();
+        conf.setInt("dfs.replication", 1);
+        cluster = new MiniDFSCluster.Builder(conf, baseDir).numDataNodes(1).build();
+        cluster.waitActive();
+        pool = new HdfsClientPool(URI.create(cluster.getURI() + "/"), cluster.getConfiguration(0), 1, 0);
+        pool.start();
+        // 同步等待放宽到一分钟：任务在返回前一定已经结束，计数包含任务里的 RPC，慢机器上也不会只量到一半
+        fileService = TestFileServices.newFileService(pool, SYNC_WAIT_MILLIS);
+        // 与 FileService 拼出的主目录一致
+        FileSystem fs = pool.get();
+        String home = pool.getRoot() + "users/" + USER;
+        fs.mkdirs(new Path(home, "moved"));
+        fs.mkdirs(new Path(home, "copies"));
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    // create(overwrite=false)
+    @Test
+    void uploadIsOneCreate() throws Exception {
+        String name = nextName();
+        Map<String, Long> counts = measure(() -> upload(name));
+        assertBudget(1, counts);
+        assertEquals(1L, counts.get("op_create"), counts.toString());
+    }
+
+    // getFileStatus
+    @Test
+    void downloadStatusIsOneGetFileStatus() throws Exception {
+        String name = nextName();
+        upload(name);
+        Map<String, Long> counts = measure(() -> fileService.getDownloadStatus(USER, "/" + name));
+        assertBudget(1, counts);
+        assertEquals(1L, counts.get("op_get_file_status"), counts.toString());
+    }
+
+    // rename(NONE)
+    @Test
+    void renameIsOneRename() throws Exception {
+        String name = nextName();
+        upload(name);
+        Map<String, Long> counts = measure(() -> {
+            FileService.RenameRequest request = new FileService.RenameRequest();
+            request.setUserId(USER);
+            request.setUploadPath("/" + name);
+            request.setNewFileName(name + ".renamed");
+            assertTrue(fileService.renameFile(request), "重命名失败");
+        });
+        assertBudget(1, counts);
+    }
+
+    // rename(NONE)
+    @Test
+    void moveIsOneRename() throws Exception {
+        String name = nextName();
+        upload(name);
+        Map<String, Long> counts = measure(() -> {
+            FileService.MoveRequest request = new FileService.MoveRequest();
+            request.setSourceUserId(USER);
+            request.setSourceUploadPath("/" + name);
+            request.setTargetUploadPath("/moved");
+            assertSucceeded(fileService.moveFile(request));
+        });
+        assertBudget(1, counts);
+    }
+
+    // 源、目标各一次 getFileStatus，任务中 getFileStatus + open + create（暂存路径）+ rename
+    @Test
+    void copyStaysWithinSix() throws Exception {
+        String name = nextName();
+        upload(name);
+        Map<String, Long> counts = measure(() -> {
+            FileService.CopyRequest request = new FileService.CopyRequest();
+            request.setSourceUserId(USER);
+            request.setSourceUploadPath("/" + name);
+            request.setTargetUploadPath("/copies");
+            assertSucceeded(fileService.copyFile(request));
+        });
+        assertBudget(6, counts);
+    }
+
+    // delete
+    @Test
+    void deleteIsOneDelete() throws Exception {
+        String name = nextName();
+        upload(name);
+        Map<String, Long> counts = measure(() -> {
+            FileService.DeleteRequest request = new FileService.DeleteRequest();
+            request.setUserId(USER);
+            request.setUploadPath("/" + name);
+            assertSucceeded(fileService.delete(request));
+        });
+        assertBudget(1, counts);
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    // 前后两次计数相减，只保留有变化的操作类型
+    private static Map<String, Long> measure(Call call) throws Exception {
+        Map<String, Long> before = pool.rpcCounts();
+        call.run();
+        Map<String, Long> delta = new HashMap<>();
+        for (Map.Entry<String, Long> entry : pool.rpcCounts().entrySet()) {
+            long d = entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+            if (d != 0) {
+                delta.put(entry.getKey(), d);
+            }
+        }
+        return delta;
+    }
+
+    private static void assertBudget(long budget, Map<String, Long> counts) {
+        long total = counts.values().stream().mapToLong(Long::longValue).sum();
+        assertTrue(total <= budget, "超出预算 " + budget + ": " + counts);
+    }
+
+    private static void assertSucceeded(FileJob job) {
+        assertEquals(FileJob.SUCCEEDED, job.getState(), job.getMessage());
+    }
+
+    private static void upload(String name) throws IOException {
+        fileService.upload(new CloudFile.CloudFileBuilder(USER)
+                .withFileName(name)
+                .withFileSize(String.valueOf(PAYLOAD.length))
+                .withUploadPath("/"), new ByteArrayInputStream(PAYLOAD));
+    }
+
+    private static String nextName() {
+        return "file-" + counter.incrementAndGet();
+    }
+}
@@ -0,0 +1,31 @@
+package com.cloudpan.service;
+//测试公用：不启动Spring，手工组装 FileService 及其依赖
+import com.cloudpan.config.HdfsClientPool;
+import com.cloudpan.config.NodeIdentity;
+import com.cloudpan.config.OperationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+final class TestFileServices {
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private TestFileServices() {
+    }
+
+    //不连数据库：去重、小文件打包、压缩、配额、预览和目录列表缓存都关闭，单节点不续租
+    static FileService newFileService(HdfsClientPool pool, long syncWaitMillis) {
+        BufferPool bufferPool = new BufferPool(BUFFER_SIZE, 8, 30000);
+        TreeWalker treeWalker = new TreeWalker(8);
+        CopyService copyService = new CopyService(bufferPool, treeWalker, 256L << 20, 128L << 20, 4, 8);
+        ListingCache listingCache = new ListingCache(0, 0);
+        DedupService dedupService = DedupService.withoutIndex(pool, bufferPool);
+        PackService packService = PackService.withoutIndex(pool, bufferPool);
+        CompressionService compressionService = CompressionService.withoutIndex(pool);
+        QuotaService quotaService = QuotaService.disabled(pool);
+        OperationMetrics metrics = new OperationMetrics(new SimpleMeterRegistry(), pool);
+        JobService jobService = new JobService(pool, copyService, listingCache, dedupService, packService,
+                compressionService, quotaService, metrics, new NodeIdentity("test"), 0, 0, 4, 100, syncWaitMillis);
+        jobService.start();
+        return new FileService(pool, bufferPool, jobService, listingCache, dedupService, packService,
+                compressionService, PreviewService.disabled(pool), treeWalker, quotaService, metrics);
+    }
+}